@@ -4,12 +4,17 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Optional;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
+import org.javacord.api.DiscordApi;
 import org.javacord.api.DiscordApiBuilder;
+import org.javacord.api.entity.channel.TextChannel;
 import org.javacord.api.entity.message.MessageAttachment;
 import org.javacord.api.entity.message.MessageAuthor;
+import org.javacord.api.event.message.MessageCreateEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,6 +22,9 @@ import com.hiyoko.discord.bot.BCDice.ChatTool.ChatToolClient;
 import com.hiyoko.discord.bot.BCDice.ChatTool.ChatToolClientFactory;
 import com.hiyoko.discord.bot.BCDice.DiceResultFormatter.DiceResultFormatter;
 import com.hiyoko.discord.bot.BCDice.DiceResultFormatter.DiceResultFormatterFactory;
+import com.hiyoko.discord.bot.BCDice.Dispatcher.ChannelDispatcher;
+import com.hiyoko.discord.bot.BCDice.Dispatcher.RollExecutor;
+import com.hiyoko.discord.bot.BCDice.Dispatcher.RollExecutorFactory;
 import com.hiyoko.discord.bot.BCDice.NameIndicator.NameIndicator;
 import com.hiyoko.discord.bot.BCDice.NameIndicator.NameIndicatorFactory;
 import com.hiyoko.discord.bot.BCDice.dto.DicerollResult;
@@ -28,6 +36,7 @@ import com.hiyoko.discord.bot.BCDice.dto.DicerollResult;
  */
 public class BCDiceBot {
 	final Logger logger = LoggerFactory.getLogger(BCDiceBot.class);
+	private static final String BUSY_MESSAGE = "[BUSY] ただいま混み合っています。しばらく待ってからもう一度お試しください";
 	/**
 	 * Constructor.
 	 * @param token Discord bot token
@@ -69,9 +78,24 @@ public class BCDiceBot {
 		BCDiceCLI bcDice = new BCDiceCLI(getUrlList(bcDiceUrl), getDefaultSystem(), errorSensitive, password);
 		NameIndicator nameIndicator = NameIndicatorFactory.getNameIndicator();
 		DiceResultFormatter diceResultFormatter = DiceResultFormatterFactory.getDiceResultFormatter();
+		RollExecutor rollExecutor = RollExecutorFactory.getRollExecutor();
+		ChannelDispatcher dispatcher = new ChannelDispatcher(rollExecutor);
+		bcDice.addMetricsSource(rollExecutor::getMetrics);
+		bcDice.addMetricsSource(dispatcher::getMetrics);
 		new DiscordApiBuilder().setToken(token).login().thenAccept(api -> {
 			String myId = api.getYourself().getIdAsString();
 			ChatToolClient chatToolClient = ChatToolClientFactory.getChatToolClient(api);
+			bcDice.setAsyncReplyListener((channel, message) -> {
+				api.getTextChannelById(channel).ifPresent(textChannel -> textChannel.sendMessage(chatToolClient.formatMessage(message)));
+			});
+			bcDice.setAsyncFileReplyListener((channel, file) -> {
+				Optional<TextChannel> textChannel = api.getTextChannelById(channel);
+				if(textChannel.isPresent()) {
+					textChannel.get().sendMessage(file).whenComplete((sent, e) -> file.delete());
+				} else {
+					file.delete();
+				}
+			});
 			api.addMessageCreateListener(event -> {
 				String channel = event.getChannel().getIdAsString();
 				MessageAuthor user = event.getMessageAuthor();
@@ -89,67 +113,80 @@ public class BCDiceBot {
 				
 				api.updateActivity("bcdice help とチャットに打ち込むとコマンドのヘルプを確認できます");
 				if( myId.equals(userId) ) { return; }
-				if(chatToolClient.isRequest( message )) {
-					List<String> result = chatToolClient.input(message);
-					if(! result.isEmpty()) {
-						bcDice.separateStringWithLengthLimitation(result, 1000).forEach(p->event.getChannel().sendMessage(p));
-						return;
-					}
-				}
-				if(! bcDice.isRoll( message )) {
-					bcDice.inputs(message, userId, channel, attachements).forEach(msg->{
-						event.getChannel().sendMessage(chatToolClient.formatMessage(msg));
+				try {
+					dispatcher.dispatch(channel, () -> {
+						handleMessage(api, event, bcDice, chatToolClient, diceResultFormatter, channel, name, userId, message, attachements);
 					});
-					return;
+				} catch (RejectedExecutionException e) {
+					event.getChannel().sendMessage(String.format("＞%s\n%s", name, BUSY_MESSAGE));
+					logger.warn(String.format("Roll queue is full. USERID: %s MESSAGE: %s", userId, message));
 				}
+			});
+		});
+	}
 
-				try {
-					List<DicerollResult> rollResults = bcDice.rolls(message, channel);
-					if(rollResults.size() > 0) {
-						logger.debug("Dice command request for dice server is done");
-						List<String> sb = new ArrayList<String>();
-						for(DicerollResult rollResult : rollResults) {
-							if(rollResult.isError()) {
-								throw new IOException(rollResult.getText());
-							}
-							if( rollResult.isRolled() ) {
-								sb.add(diceResultFormatter.getText(rollResult));
-							}
-						}
-						List<String> resultMessage = bcDice.separateStringWithLengthLimitation(String.format("＞%s\n%s", name, sb.stream().collect(Collectors.joining("\n\n"))), 1000); 
-						DicerollResult firstOne = rollResults.get(0); 
-						if( firstOne.isSecret() ) {
-							String index = bcDice.saveMessage(userId, resultMessage);
-							event.getChannel().sendMessage(chatToolClient.formatMessage(String.format("＞%s\n%s",
-									name,
-									diceResultFormatter.getText(new DicerollResult(
-										String.format("[Secret Dice] Key: %s", index),
-										firstOne.getSystem(),
-										true, true
-									)))));
-							try {
-								for(String post : resultMessage) {
-									api.getUserById(userId).get().sendMessage(chatToolClient.formatMessage(post));
-								}
-								api.getUserById(userId).get().sendMessage(String.format("この結果を呼び出すには次のようにしてください。\n> bcdice load %s\nこのコマンドは最短72時間後には無効になります\nその後も必要であればそのままコピー&ペーストするか、スクリーンショットなどで共有してください", index));
-							} catch (InterruptedException e) {
-								throw new IOException(e.getMessage(), e);
-							} catch (ExecutionException e) {
-								throw new IOException(e.getMessage(), e);
-							}
-						} else {
-							resultMessage.forEach((post)->{
-								event.getChannel().sendMessage(chatToolClient.formatMessage(post));
-							});
+	private void handleMessage(DiscordApi api, MessageCreateEvent event, BCDiceCLI bcDice,
+			ChatToolClient chatToolClient, DiceResultFormatter diceResultFormatter,
+			String channel, String name, String userId, String message, List<MessageAttachment> attachements) {
+		if(chatToolClient.isRequest( message )) {
+			List<String> result = chatToolClient.input(message);
+			if(! result.isEmpty()) {
+				bcDice.separateStringWithLengthLimitation(result, 1000).forEach(p->event.getChannel().sendMessage(p));
+				return;
+			}
+		}
+		if(! bcDice.isRoll( message )) {
+			bcDice.inputs(message, userId, channel, attachements).forEach(msg->{
+				event.getChannel().sendMessage(chatToolClient.formatMessage(msg));
+			});
+			return;
+		}
+
+		try {
+			List<DicerollResult> rollResults = bcDice.rolls(message, channel);
+			if(rollResults.size() > 0) {
+				logger.debug("Dice command request for dice server is done");
+				List<String> sb = new ArrayList<String>();
+				for(DicerollResult rollResult : rollResults) {
+					if(rollResult.isError()) {
+						throw new IOException(rollResult.getText());
+					}
+					if( rollResult.isRolled() ) {
+						sb.add(diceResultFormatter.getText(rollResult));
+					}
+				}
+				List<String> resultMessage = bcDice.separateStringWithLengthLimitation(String.format("＞%s\n%s", name, sb.stream().collect(Collectors.joining("\n\n"))), 1000); 
+				DicerollResult firstOne = rollResults.get(0); 
+				if( firstOne.isSecret() ) {
+					String index = bcDice.saveMessage(userId, resultMessage);
+					event.getChannel().sendMessage(chatToolClient.formatMessage(String.format("＞%s\n%s",
+							name,
+							diceResultFormatter.getText(new DicerollResult(
+								String.format("[Secret Dice] Key: %s", index),
+								firstOne.getSystem(),
+								true, true
+							)))));
+					try {
+						for(String post : resultMessage) {
+							api.getUserById(userId).get().sendMessage(chatToolClient.formatMessage(post));
 						}
+						api.getUserById(userId).get().sendMessage(String.format("この結果を呼び出すには次のようにしてください。\n> bcdice load %s\nこのコマンドは最短72時間後には無効になります\nその後も必要であればそのままコピー&ペーストするか、スクリーンショットなどで共有してください", index));
+					} catch (InterruptedException e) {
+						throw new IOException(e.getMessage(), e);
+					} catch (ExecutionException e) {
+						throw new IOException(e.getMessage(), e);
 					}
-				} catch (IOException e) {
-					event.getChannel().sendMessage(String.format("＞%s\n[ERROR]%s", name, e.getMessage()));
-					logger.warn(String.format("USERID: %s MESSAGE: %s", userId, message));
-					logger.warn("Failed to reply to user request", e);
+				} else {
+					resultMessage.forEach((post)->{
+						event.getChannel().sendMessage(chatToolClient.formatMessage(post));
+					});
 				}
-			});
-		});
+			}
+		} catch (IOException e) {
+			event.getChannel().sendMessage(String.format("＞%s\n[ERROR]%s", name, e.getMessage()));
+			logger.warn(String.format("USERID: %s MESSAGE: %s", userId, message));
+			logger.warn("Failed to reply to user request", e);
+		}
 	}
 
 	private static String getVersion() {
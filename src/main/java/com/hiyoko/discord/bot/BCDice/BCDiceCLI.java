@@ -3,29 +3,58 @@ package com.hiyoko.discord.bot.BCDice;
 import org.javacord.api.entity.message.MessageAttachment;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.net.URL;
-import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+import com.hiyoko.discord.bot.BCDice.DiceClient.AsyncDiceClient;
+import com.hiyoko.discord.bot.BCDice.DiceClient.AsyncResults;
 import com.hiyoko.discord.bot.BCDice.DiceClient.DiceClient;
 import com.hiyoko.discord.bot.BCDice.DiceClient.DiceClientFactory;
+import com.hiyoko.discord.bot.BCDice.DiceClient.RoomSystemsFile;
 import com.hiyoko.discord.bot.BCDice.OriginalDiceBotClients.OriginalDiceBotClient;
+import com.hiyoko.discord.bot.BCDice.SecretMessages.SecretMessageStore;
 import com.hiyoko.discord.bot.BCDice.dto.DicerollResult;
+import com.hiyoko.discord.bot.BCDice.dto.LocalDiceTable;
 import com.hiyoko.discord.bot.BCDice.dto.OriginalDiceBotTable;
 import com.hiyoko.discord.bot.BCDice.dto.SecretMessage;
 import com.hiyoko.discord.bot.BCDice.dto.SystemInfo;
 import com.hiyoko.discord.bot.BCDice.dto.VersionInfo;
 
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
 import org.slf4j.Logger;
 
 /**
@@ -38,18 +67,32 @@ import org.slf4j.Logger;
 public class BCDiceCLI {
 	private DiceClient client;
 	
-	private Map<String, Map<String, SecretMessage>> savedMessage;
+	private final SecretMessageStore savedMessage = new SecretMessageStore();
 	private String password;
 	private String rollCommand = "";
 	private boolean isSuppressed = true;
 	private final OriginalDiceBotClient originalDiceBotClient;
-	private static final String[] REMOVE_WHITESPACE_TARGETS = {"<", ">", "="};
+	private final List<Supplier<List<String>>> metricsSources = new CopyOnWriteArrayList<Supplier<List<String>>>();
+	private volatile BiConsumer<String, String> asyncReplyListener = (channel, message) -> {};
+	private volatile BiConsumer<String, File> asyncFileReplyListener = (channel, file) -> {};
+	private static final long TRANSFER_PROGRESS_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+	private static final ExecutorService TRANSFER_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "room-systems-transfer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final OkHttpClient TRANSFER_HTTP_CLIENT = new OkHttpClient.Builder()
+			.connectTimeout(10, TimeUnit.SECONDS).readTimeout(30, TimeUnit.SECONDS).build();
+	private static final String DEFAULT_TRANSFER_DIR = "./roomSystemsTransfer";
+	private final File transferDirectory = getTransferDirectory();
+	private final int multirollConcurrency = getMultirollConcurrency();
 	private final Logger logger = LoggerFactory.getLogger(BCDiceCLI.class);
+	private final AtomicLong parsedRollRequests = new AtomicLong();
+	private final AtomicLong repeatRollRequests = new AtomicLong();
+	private final AtomicLong targetsRollRequests = new AtomicLong();
+	private final AtomicLong tableRollRequests = new AtomicLong();
 	private static final Pattern GAMESYSTEM_ROOM_PAIR_REGEXP = Pattern.compile("^(\\d*):(.*)");
-	private static final Pattern MULTIROLL_OFFICIAL_PREFIX = Pattern.compile("^(x|rep|repeat)(\\d+)");
-	private static final Pattern MULTIROLL_NUM_PREFIX = Pattern.compile("^(\\d+) ");
-	private static final String MULTIROLL_TEXT_PREFIX_STR = "^\\[(.+)\\] ";
-	private static final Pattern MULTIROLL_TEXT_PREFIX = Pattern.compile(MULTIROLL_TEXT_PREFIX_STR);
+	private static final int DEFAULT_MULTIROLL_CONCURRENCY = 10;
 
 	public static final String HELP = "使い方\n"
 			+ "# システムの一覧を確認する\n> bcdice list\n\n"
@@ -65,6 +108,8 @@ public class BCDiceCLI {
 			+ "# 部屋設定をエクスポートする\n> bcdice admin PASSWORD export\n\n"
 			+ "# 特定の部屋設定をエクスポートする\n> bcdice admin PASSWORD export ROOM_ID1 ROOM_ID2 ROOM_ID3 ....\n\n"
 			+ "# 部屋設定をインポートする\n> bcdice admin PASSWORD import\n\n"
+			+ "# 部屋設定をファイルにエクスポートする。ファイル名は BCDICE_TRANSFER_DIR の中の名前。省略するとファイルをアップロードする\n> bcdice admin PASSWORD exportFile [FILE_NAME]\n\n"
+			+ "# 部屋設定をファイルからインポートする。ファイル名は BCDICE_TRANSFER_DIR の中の名前。省略するとアップロードしたファイルから読み込む\n> bcdice admin PASSWORD importFile [FILE_NAME]\n\n"
 			+ "# ダイスが振られる条件について BCDice API サーバの情報に基づいて更新する\n"
 			+ "> bcdice admin PASSWORD updateDiceRollPreFix\n\n"
 			+ "# BCDice API サーバへのコマンド送信に接頭詞を求めない（デフォルトの挙動）\n"
@@ -85,7 +130,9 @@ public class BCDiceCLI {
 			+ "# ダイスボット表の一覧を表示する\n"
 			+ "> bcdice admin PASSWORD listDiceBot\n\n"
 			+ "# 72時間以上前のシークレットダイスの情報を削除する\n"
-			+ "> bcdice admin PASSWORD refreshSecretDice";
+			+ "> bcdice admin PASSWORD refreshSecretDice\n\n"
+			+ "# ダイスの処理待ちの状況などの統計情報を表示する\n"
+			+ "> bcdice admin PASSWORD metrics";
 
 	/**
 	 * @param url BCDice-API URL.
@@ -94,16 +141,66 @@ public class BCDiceCLI {
 	public BCDiceCLI(String url, OriginalDiceBotClient originalDiceBotClientParam, String password) throws IOException {
 		client = DiceClientFactory.getDiceClient(url);
 		originalDiceBotClient = originalDiceBotClientParam;
-		savedMessage = new HashMap<String, Map<String, SecretMessage>>();
 		this.password = password;
+		addMetricsSource(() -> client.getMetrics());
+		addMetricsSource(originalDiceBotClient::getMetrics);
+		addMetricsSource(savedMessage::getMetrics);
+		addMetricsSource(this::getRollRequestMetrics);
 	}
 
 	public BCDiceCLI(List<String> urls, String system, boolean errorSensitive, String password) throws IOException {
 		client = DiceClientFactory.getDiceClient(urls, errorSensitive);
 		client.setSystem(system);
 		originalDiceBotClient = new OriginalDiceBotClient();
-		savedMessage = new HashMap<String, Map<String, SecretMessage>>();
 		this.password = password;
+		addMetricsSource(() -> client.getMetrics());
+		addMetricsSource(originalDiceBotClient::getMetrics);
+		addMetricsSource(savedMessage::getMetrics);
+		addMetricsSource(this::getRollRequestMetrics);
+	}
+
+	private static int getMultirollConcurrency() {
+		String value = System.getenv("BCDICE_MULTIROLL_CONCURRENCY");
+		try {
+			return value == null ? DEFAULT_MULTIROLL_CONCURRENCY : Math.max(1, Integer.parseInt(value.trim()));
+		} catch (NumberFormatException e) {
+			System.err.println(String.format("BCDICE_MULTIROLL_CONCURRENCY is ignored: %s", value));
+			return DEFAULT_MULTIROLL_CONCURRENCY;
+		}
+	}
+
+	/**
+	 * @param listener called with the channel and the message when a command which takes time is finished
+	 */
+	public void setAsyncReplyListener(BiConsumer<String, String> listener) {
+		asyncReplyListener = listener;
+	}
+
+	/**
+	 * @param listener called with the channel and the file to upload, when a command makes a file later.
+	 * The listener may delete the file after it is sent.
+	 */
+	public void setAsyncFileReplyListener(BiConsumer<String, File> listener) {
+		asyncFileReplyListener = listener;
+	}
+
+	/**
+	 * Register the source of the lines shown by the metrics admin command.
+	 * @param source
+	 */
+	public void addMetricsSource(Supplier<List<String>> source) {
+		metricsSources.add(source);
+	}
+
+	private List<String> getMetrics() {
+		List<String> result = new ArrayList<String>();
+		for(Supplier<List<String>> source : metricsSources) {
+			result.addAll(source.get());
+		}
+		if(result.isEmpty()) {
+			result.add("表示できる統計情報はありません");
+		}
+		return result;
 	}
 
 	/**
@@ -114,141 +211,158 @@ public class BCDiceCLI {
 		return ! (input.toLowerCase().startsWith("bcdice ") || input.toLowerCase().equals("bcdice"));
 	}
 
-	private boolean isShouldRoll(String input, String system) throws IOException {
+	/**
+	 * The request has the roll command if it is required, so only the command is checked without it.
+	 */
+	private boolean isShouldRoll(RollRequest request, String system) throws IOException {
 		if(! isSuppressed) { return true; } //TODO 2021/08/22 近々廃止する
-		if( rollCommand.isEmpty() ) {
-			return client.isDiceCommand(input, system);
+		if( request.getPrefix().isEmpty() ) {
+			return client.isDiceCommand(request.getCommand(), system);
 		} else {
-			return input.startsWith(rollCommand);
+			return true;
 		}
 	}
 
 	private String serachOriginalDicebot(String input) {
-		List<String> list = originalDiceBotClient.getDiceBotList();
-		for(String name : list) {
-			if(input.startsWith(name)) {return name;}
-		}
-		return "";
+		return originalDiceBotClient.findDiceBot(input);
 	}
 
-	private String isOriginalDicebot(String rawInput) {
-		if(! (rollCommand.isEmpty() || rawInput.startsWith(rollCommand))) {
-			return "";
+	/**
+	 * Send the same request several times. With an AsyncDiceClient, up to BCDICE_MULTIROLL_CONCURRENCY requests are sent at once,
+	 * so that x20 or [PC1,...,PC20] takes about the time of one request.
+	 * @return the results in the order of the requests
+	 */
+	private List<DicerollResult> rollTimes(int times, AsyncResults.IOSupplier<DicerollResult> roll,
+			Function<AsyncDiceClient, CompletableFuture<DicerollResult>> asyncRoll) throws IOException {
+		if(times > 1 && client instanceof AsyncDiceClient) {
+			AsyncDiceClient asyncClient = (AsyncDiceClient) client;
+			return AsyncResults.await(AsyncResults.all(times, multirollConcurrency, i -> asyncRoll.apply(asyncClient)));
+		}
+		List<DicerollResult> list = new ArrayList<DicerollResult>();
+		for(int i = 0; i < times; i++) {
+			list.add(roll.get());
 		}
-		return serachOriginalDicebot(rawInput.replaceFirst(rollCommand, "").trim());
+		return list;
 	}
-	
-	private List<DicerollResult> rollOriginalDiceBotMultiple(OriginalDiceBotTable dbt, int times) throws IOException {
+
+	/**
+	 * @return the results without the numbers
+	 */
+	private List<DicerollResult> rollOriginalDiceBotTimes(OriginalDiceBotTable dbt, int times) throws IOException {
 		logger.debug(String.format("ダイスボット表 [%s] を%s回 実行します", dbt.getName(), times));
 		List<DicerollResult> list = new ArrayList<DicerollResult>();
 		try {
-			if(dbt.isValid) {
+			LocalDiceTable localTable = dbt.getLocalTable();
+			if(localTable != null && originalDiceBotClient.isLocalRoll(dbt.getName())) {
 				for(int i = 0; i < times; i++) {
-					list.add(client.rollOriginalDiceBotTable(dbt));
+					list.add(new DicerollResult(localTable.roll(), "DiceBot", false, true, false));
 				}
+			} else if(dbt.isValid) {
+				list.addAll(rollTimes(times, () -> client.rollOriginalDiceBotTable(dbt),
+						asyncClient -> asyncClient.rollOriginalDiceBotTableAsync(dbt)));
 			} else {
-				for(int i = 0; i < times; i++) {
-					DicerollResult tmp = client.rollDice(dbt.getCommand());
+				String system = client.getSystem();
+				for(DicerollResult tmp : rollTimes(times, () -> client.rollDice(dbt.getCommand()),
+						asyncClient -> asyncClient.rollDiceAsync(dbt.getCommand(), system))) {
 					String value = dbt.getResultAsInvalidTable(tmp.getText());
 					list.add(new DicerollResult(value, "DiceBot", false, true, false));
 				}
 			}
-			if(times == 1) {
-				return list;
-			} else {
-				List<DicerollResult> fixedResult = new ArrayList<DicerollResult>();
-				for(int i = 0; i < times; i++) {
-					DicerollResult targetResult = list.get(i);
-					fixedResult.add(new DicerollResult(String.format("#%s\n%s", i + 1, targetResult.getText()), targetResult.getSystem(), false, true, false));
-				}
-				return fixedResult;
-			}
+			return list;
 		} catch(IOException e) {
 			throw new IOException(String.format("[ERROR] %s", e.getMessage()));
 		}
 	}
 
-	private DicerollResult rollOriginalDiceBot(String name) throws IOException {
-		OriginalDiceBotTable diceBot = null;
+	private List<DicerollResult> rollOriginalDiceBotMultiple(OriginalDiceBotTable dbt, int times) throws IOException {
+		List<DicerollResult> list = rollOriginalDiceBotTimes(dbt, times);
+		if(times == 1) {
+			return list;
+		} else {
+			List<DicerollResult> fixedResult = new ArrayList<DicerollResult>();
+			for(int i = 0; i < times; i++) {
+				DicerollResult targetResult = list.get(i);
+				fixedResult.add(new DicerollResult(String.format("#%s\n%s", i + 1, targetResult.getText()), targetResult.getSystem(), false, true, false));
+			}
+			return fixedResult;
+		}
+	}
+
+	private OriginalDiceBotTable getDiceBot(String name) throws IOException {
 		try {
-			diceBot = originalDiceBotClient.getDiceBot(name);
+			return originalDiceBotClient.getDiceBot(name);
 		} catch (IOException e) {
 			throw new IOException(String.format("ダイスボット表 [%s] が取得できませんでした", name), e);
 		}
-		return rollOriginalDiceBotMultiple(diceBot, 1).get(0);
 	}
 
 	public List<DicerollResult> rolls(String rawInput, String channel) throws IOException {
-		List<DicerollResult> result = new ArrayList<DicerollResult>();
-		if(! (rollCommand.isEmpty() || rawInput.trim().startsWith(rollCommand))) {
-			return result;
+		RollRequest request = RollRequest.parse(rawInput, rollCommand, this::serachOriginalDicebot);
+		if(request == null) {
+			return new ArrayList<DicerollResult>();
 		}
-		rawInput = rawInput.replaceAll("\\h", " ");
-		String input = rawInput.replaceFirst(rollCommand, "").trim();
+		countRollRequest(request);
+		return rolls(request, channel);
+	}
 
-		Matcher isOfficialMultiRollMatcher = MULTIROLL_OFFICIAL_PREFIX.matcher(input);
-		if(isOfficialMultiRollMatcher.find()) {
-			String withoutRepeat = input.replaceFirst(isOfficialMultiRollMatcher.group(), "").trim();
-			String originalDiceBot = isOriginalDicebot(String.format("%s%s", rollCommand, withoutRepeat));
-			if(! originalDiceBot.isEmpty()) {
-				OriginalDiceBotTable diceBot = null;
-				try {
-					diceBot = originalDiceBotClient.getDiceBot(originalDiceBot);
-				} catch (IOException e) {
-					throw new IOException(String.format("ダイスボット表 [%s] が取得できませんでした", originalDiceBot), e);
+	/**
+	 * @param request parsed message
+	 * @param channel
+	 * @return results. Empty if the command is not for BCDice-API.
+	 * @throws IOException When command failed
+	 */
+	public List<DicerollResult> rolls(RollRequest request, String channel) throws IOException {
+		List<DicerollResult> result = new ArrayList<DicerollResult>();
+		List<String> targets = request.getTargets();
+		if(request.getType() != RollRequest.Type.TARGETS) {
+			List<DicerollResult> tmpResults = request.getTable().isEmpty() ? rollCommandTimes(request, channel, 1)
+					: rollOriginalDiceBotMultiple(getDiceBot(request.getTable()), request.getRepeatCount());
+			for(DicerollResult tmpResult : tmpResults) {
+				if(tmpResult.isRolled() || tmpResult.isError()) {
+					result.add(tmpResult);
 				}
-				int times = Integer.parseInt(isOfficialMultiRollMatcher.group(2));
-				return rollOriginalDiceBotMultiple(diceBot, times);
 			}
+			return result;
 		}
-
-		Matcher isNumMatcher = MULTIROLL_NUM_PREFIX.matcher(input);
-		if(isNumMatcher.find()) { //TODO いずれ消す。オフィシャルの繰り返しコマンドで置換されるべきでは
-			String rawCount = isNumMatcher.group(1);
-			String withoutRepeat = input.replaceFirst(rawCount, "").trim();
-			String originalDiceBot = isOriginalDicebot(String.format("%s%s", rollCommand, withoutRepeat));
-			if(! originalDiceBot.isEmpty()) {
-				OriginalDiceBotTable diceBot = null;
-				try {
-					diceBot = originalDiceBotClient.getDiceBot(originalDiceBot);
-				} catch (IOException e) {
-					throw new IOException(String.format("ダイスボット表 [%s] が取得できませんでした", originalDiceBot), e);
-				}
-				int times = Integer.parseInt(rawCount);
-				return rollOriginalDiceBotMultiple(diceBot, times);
+		if(targets.size() > 20) {
+			if( request.getTable().isEmpty() && (! isShouldRoll(request, client.getSystem(channel))) ) {
+				return result;
 			} else {
-				rawInput = String.format("%s repeat%s %s", rollCommand, rawCount, withoutRepeat).trim();
+				throw new IOException(String.format("1度にダイスを振れる回数は20回までです（%d回振ろうとしていました）", targets.size()));
 			}
 		}
-		Matcher isTextMatcher = MULTIROLL_TEXT_PREFIX.matcher(input);
-		if(isTextMatcher.find()) {
-			String rawTargetList = isTextMatcher.group(1);
-			String[] targetList = rawTargetList.split(",");
-			String requiredCommand = String.format("%s%s" , rollCommand, input.replaceFirst(MULTIROLL_TEXT_PREFIX_STR, "").trim());
-			if(targetList.length > 20) {
-				String system = client.getSystem(channel);
-				if( isOriginalDicebot(requiredCommand).isEmpty() && (! isShouldRoll(requiredCommand, system)) ) {
-					return result;
-				} else {
-					throw new IOException(String.format("1度にダイスを振れる回数は20回までです（%d回振ろうとしていました）", targetList.length));
-				}
-			}
-			for(String target: targetList) {
-				DicerollResult tmpResult = roll(requiredCommand, channel);
-				result.add( new DicerollResult(
-						String.format("#%s\n%s", target, tmpResult.getText()),
-								tmpResult.getSystem(),
-								tmpResult.isSecret(),
-								tmpResult.isRolled(),
-								tmpResult.isError()
-						));
-			}
-			return result;
+		List<DicerollResult> tmpResults = request.getTable().isEmpty() ? rollCommandTimes(request, channel, targets.size())
+				: rollOriginalDiceBotTimes(getDiceBot(request.getTable()), targets.size());
+		for(int i = 0; i < targets.size(); i++) {
+			String target = targets.get(i);
+			DicerollResult tmpResult = tmpResults.get(i);
+			result.add( new DicerollResult(
+					String.format("#%s\n%s", target, tmpResult.getText()),
+							tmpResult.getSystem(),
+							tmpResult.isSecret(),
+							tmpResult.isRolled(),
+							tmpResult.isError()
+					));
+		}
+		return result;
+	}
+
+	private void countRollRequest(RollRequest request) {
+		parsedRollRequests.incrementAndGet();
+		if(request.getType() == RollRequest.Type.REPEAT) {
+			repeatRollRequests.incrementAndGet();
+		} else if(request.getType() == RollRequest.Type.TARGETS) {
+			targetsRollRequests.incrementAndGet();
 		}
-		DicerollResult tmpResult = roll(rawInput, channel);
-		if(tmpResult.isRolled() || tmpResult.isError()) {
-			result.add(tmpResult);
-		} 
+		if(! request.getTable().isEmpty()) {
+			tableRollRequests.incrementAndGet();
+		}
+	}
+
+	private List<String> getRollRequestMetrics() {
+		List<String> result = new ArrayList<String>();
+		result.add(String.format("[RollRequest] parsed: %s / repeat: %s / targets: %s / table: %s",
+				parsedRollRequests.get(), repeatRollRequests.get(), targetsRollRequests.get(), tableRollRequests.get()));
 		return result;
 	}
 
@@ -259,20 +373,42 @@ public class BCDiceCLI {
 	 * @throws IOException When command failed
 	 */
 	public DicerollResult roll(String rawInput, String channel) throws IOException {
-		String originalDiceBot = isOriginalDicebot(rawInput);
-		if(! originalDiceBot.isEmpty()) {
-			return rollOriginalDiceBot(originalDiceBot);
-		}
-		String system = client.getSystem(channel);
-		if(isShouldRoll(rawInput, system)) {
-			String input = rawInput.replaceFirst(rollCommand, "").trim();
-			logger.debug(String.format("bot send command to server: %s", input));
-			return client.rollDiceWithChannel(normalizeDiceCommand(input), channel);
+		RollRequest request = RollRequest.parsePlain(rawInput, rollCommand, this::serachOriginalDicebot);
+		if(request == null) {
+			return getNotRolledResults(1).get(0);
+		}
+		if(! request.getTable().isEmpty()) {
+			return rollOriginalDiceBotTimes(getDiceBot(request.getTable()), 1).get(0);
+		}
+		return rollCommandTimes(request, channel, 1).get(0);
+	}
+
+	/**
+	 * Send the command of the request to BCDice-API, if it is a dice command.
+	 * @return the results in order
+	 */
+	private List<DicerollResult> rollCommandTimes(RollRequest request, String channel, int times) throws IOException {
+		if(isShouldRoll(request, client.getSystem(channel))) {
+			return sendCommandTimes(request.getCommand(), request.getNormalizedCommand(), channel, times);
 		} else {
-			return new DicerollResult("", "", false, false);
+			return getNotRolledResults(times);
 		}
 	}
 
+	private List<DicerollResult> sendCommandTimes(String input, String command, String channel, int times) throws IOException {
+		logger.debug(String.format("bot send command to server: %s", input));
+		return rollTimes(times, () -> client.rollDiceWithChannel(command, channel),
+				asyncClient -> asyncClient.rollDiceWithChannelAsync(command, channel));
+	}
+
+	private List<DicerollResult> getNotRolledResults(int times) {
+		List<DicerollResult> list = new ArrayList<DicerollResult>();
+		for(int i = 0; i < times; i++) {
+			list.add(new DicerollResult("", "", false, false));
+		}
+		return list;
+	}
+
 	/**
 	 * @param tmpInput (not dice roll)
 	 * @param id unique user id
@@ -342,7 +478,12 @@ public class BCDiceCLI {
 		if(command[1].equals("set")) {
 			if(command.length > 2) {
 				String systemName = String.join(" ", Arrays.copyOfRange(command, 2, command.length));
-				client.setSystem(systemName, channel);
+				try {
+					client.setSystem(systemName, channel);
+				} catch (UncheckedIOException e) {
+					resultList.add("[ERROR] 部屋設定を保存できなかったため、システムは変更されていません\n" + e.getCause().getMessage());
+					return resultList;
+				}
 				resultList.add("BCDice system is changed: " + systemName);
 				return resultList;
 			} else {
@@ -404,14 +545,14 @@ public class BCDiceCLI {
 				resultList.add(HELP_ADMIN);
 				return resultList;
 			} else {
-				return adminCommand(command, tmpInput, attachements);
+				return adminCommand(command, tmpInput, channel, attachements);
 			}
 		}
 		resultList.add(HELP);
 		return resultList;
 	}
 
-	private List<String> adminCommand(String[] command, String tmpInput, List<MessageAttachment> attachements) {
+	private List<String> adminCommand(String[] command, String tmpInput, String channel, List<MessageAttachment> attachements) {
 		List<String> resultList = new ArrayList<String>();
 		if(command[2].equals("help")) {
 			resultList.add(HELP_ADMIN);
@@ -422,7 +563,7 @@ public class BCDiceCLI {
 			return resultList;
 		}
 		if(command[3].equals("listServer")) {
-			resultList.addAll(client.getDiceUrlList());
+			resultList.addAll(client.getDiceServerStatus());
 			return resultList;
 		}
 		if(command[3].equals("removeServer")) {
@@ -485,15 +626,68 @@ public class BCDiceCLI {
 		if(command[3].equals("import")) {
 			String[] originalLines = tmpInput.split("\n");
 			String[] diceBotRoomList = Arrays.copyOfRange(originalLines, 1, originalLines.length);
+			Map<String, String> roomSystems = new LinkedHashMap<String, String>();
 			for(String line: diceBotRoomList) {
 				Matcher matchResult = GAMESYSTEM_ROOM_PAIR_REGEXP.matcher(line);
 				if(matchResult.find()) {
-					client.setSystem(matchResult.group(2), matchResult.group(1));
+					roomSystems.put(matchResult.group(1), matchResult.group(2));
 					resultList.add("Room" + matchResult.group(1) + " -> " + matchResult.group(2));
 				}
 			}
+			try {
+				client.setSystems(roomSystems);
+			} catch (UncheckedIOException e) {
+				resultList.clear();
+				resultList.add("[ERROR] 部屋設定を保存できなかったため、インポートされていません\n" + e.getCause().getMessage());
+			}
 			return separateStringWithLengthLimitation(resultList, 1000);
 		}
+		if(command[3].equals("exportFile")) {
+			File path = (command.length > 4) ? resolveTransferFile(transferDirectory, command[4]) : null;
+			if(command.length > 4 && path == null) {
+				resultList.add(getInvalidTransferFileMessage());
+				return resultList;
+			}
+			runTransfer(channel, "部屋設定のエクスポート", () -> {
+				File file = (path == null) ? File.createTempFile("roomSystems", ".txt") : path;
+				if(path != null) {
+					Files.createDirectories(path.getParentFile().toPath());
+				}
+				int count;
+				try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+					count = RoomSystemsFile.write(client, writer, getTransferProgress(channel, "エクスポート"));
+				}
+				if(path == null) {
+					asyncFileReplyListener.accept(channel, file);
+					return String.format("%s件の部屋設定をエクスポートしました", count);
+				}
+				return String.format("%s件の部屋設定を %s にエクスポートしました", count, command[4]);
+			});
+			resultList.add("部屋設定をエクスポートしています");
+			return resultList;
+		}
+		if(command[3].equals("importFile")) {
+			if(command.length < 5 && attachements.isEmpty()) {
+				resultList.add("部屋設定をインポートする際はファイルのパスを指定するか、ファイルをアップロードする必要があります");
+				return resultList;
+			}
+			File path = (command.length > 4) ? resolveTransferFile(transferDirectory, command[4]) : null;
+			if(command.length > 4 && path == null) {
+				resultList.add(getInvalidTransferFileMessage());
+				return resultList;
+			}
+			URL url = (path == null) ? attachements.get(0).getUrl() : null;
+			runTransfer(channel, "部屋設定のインポート", () -> {
+				try (
+						InputStream input = (path == null) ? download(url) : Files.newInputStream(path.toPath());
+						BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+					int count = RoomSystemsFile.read(reader, client, getTransferProgress(channel, "インポート"));
+					return String.format("%s件の部屋設定をインポートしました", count);
+				}
+			});
+			resultList.add("部屋設定をインポートしています");
+			return resultList;
+		}
 		if(command[3].equals("updateDiceRollPreFix")) {
 			return client.updateDiceBotsPrefixes();
 		}
@@ -528,19 +722,21 @@ public class BCDiceCLI {
 				return resultList;
 			}
 
-			try {
-				String botName = (command.length > 4) ? command[4] : attachements.get(0).getFileName().split("\\.")[0];
-				URL url = attachements.get(0).getUrl();
-				originalDiceBotClient.registerDiceBot(url, botName);
-				String logMessage = String.format("ダイスボット表 [%s] を登録しました", botName);
-				logger.info(logMessage);
-				resultList.add(logMessage);
-				return resultList;
-			} catch(Exception e) {
-				logger.warn("ダイスボット表の登録に失敗しました", e);
-				resultList.add(e.getMessage());
-				return resultList;
-			}
+			String botName = (command.length > 4) ? command[4] : attachements.get(0).getFileName().split("\\.")[0];
+			URL url = attachements.get(0).getUrl();
+			originalDiceBotClient.registerDiceBotAsync(url, botName).whenComplete((result, e) -> {
+				if(e == null) {
+					String logMessage = String.format("ダイスボット表 [%s] を登録しました", botName);
+					logger.info(logMessage);
+					asyncReplyListener.accept(channel, logMessage);
+				} else {
+					Throwable cause = AsyncResults.unwrap(e);
+					logger.warn("ダイスボット表の登録に失敗しました", cause);
+					asyncReplyListener.accept(channel, cause.getMessage());
+				}
+			});
+			resultList.add(String.format("ダイスボット表 [%s] を登録しています", botName));
+			return resultList;
 		}
 		if(command[3].equals("removeDiceBot")) {
 			if(command.length < 5) {
@@ -565,6 +761,9 @@ public class BCDiceCLI {
 		if(command[3].equals("refreshSecretDice")) {
 			return separateStringWithLengthLimitation(refreshSecretMessages(), 1000);
 		}
+		if(command[3].equals("metrics")) {
+			return separateStringWithLengthLimitation(getMetrics(), 1000);
+		}
 
 		resultList.add(HELP_ADMIN);
 		return resultList;
@@ -583,73 +782,122 @@ public class BCDiceCLI {
 	}
 
 	public String saveMessage(String id, List<String> messages) {
-		Map<String, SecretMessage> msgList = savedMessage.get(id);
-		if(msgList == null) {
-			msgList = new HashMap<String, SecretMessage>();
-			savedMessage.put(id, msgList);
-		}
-		
-		SecretMessage secretMessage = new SecretMessage(messages);
-		String key = String.valueOf(secretMessage.getLimit());
-		while(msgList.containsKey(key)) {
-			key = key + '0';
-		}
-		msgList.put(key, secretMessage);
-		return String.valueOf(key);
+		return savedMessage.save(id, messages);
 	}
 
+	/**
+	 * The expired messages are also removed automatically. This removes them right now.
+	 * @return the removed messages
+	 */
 	public String refreshSecretMessages() {
 		StringBuilder sb = new StringBuilder();
-		int i = 0;
-		for(String userId : savedMessage.keySet()) {
-			Map<String, SecretMessage> userMessageMap = savedMessage.get(userId);
-			for(String messageId : userMessageMap.keySet()) {
-				if( userMessageMap.get(messageId).isDeprecated() ) {
-					userMessageMap.remove(messageId);
-					sb.append(String.format("削除: User %s / Id %s\n", userId, messageId));
-					i++;
-				}
-			}
+		List<String> removed = savedMessage.removeExpired();
+		for(String message : removed) {
+			String[] userAndId = message.split("/", 2);
+			sb.append(String.format("削除: User %s / Id %s\n", userAndId[0], userAndId[1]));
 		}
-		sb.append(String.format("%s件のシークレットダイスの結果を削除しました", i));
+		sb.append(String.format("%s件のシークレットダイスの結果を削除しました", removed.size()));
 		return sb.toString();
 	}
 
 	/**
-	 * 
-	 * @param id user unique id
-	 * @param index the called message ID
-	 * @return the stacked message
-	 * @throws IOException When failed to get message
+	 * Run the import or export of the room settings on the transfer thread, one at a time.
+	 * The result or the error is sent to the channel later.
+	 * @param name name of the task in the messages
+	 * @param task returns the message of the result
 	 */
-	private List<String> getMessage(String id, String index) throws IOException {
+	private void runTransfer(String channel, String name, Callable<String> task) {
+		TRANSFER_EXECUTOR.execute(() -> {
+			long start = System.currentTimeMillis();
+			try {
+				String message = String.format("%s (%s ms)", task.call(), System.currentTimeMillis() - start);
+				logger.info(message);
+				asyncReplyListener.accept(channel, message);
+			} catch (Exception e) {
+				logger.warn(String.format("%sに失敗しました", name), e);
+				asyncReplyListener.accept(channel, String.format("%sに失敗しました: %s", name, e.getMessage()));
+			}
+		});
+	}
+
+	private static File getTransferDirectory() {
+		String value = System.getenv("BCDICE_TRANSFER_DIR");
+		return new File((value == null || value.trim().isEmpty()) ? DEFAULT_TRANSFER_DIR : value.trim());
+	}
+
+	/**
+	 * The file of exportFile and importFile is given from the chat, so it must stay in the transfer directory.
+	 * @param directory BCDICE_TRANSFER_DIR
+	 * @param name the file name in the command
+	 * @return the file in the directory, or null if the name is absolute or goes out of the directory with ..
+	 */
+	static File resolveTransferFile(File directory, String name) {
+		Path base = directory.toPath().toAbsolutePath().normalize();
+		Path relative;
 		try {
-			Map<String, SecretMessage> list = savedMessage.get(id);
-			return list.get(index).getMessages();
-		} catch (Exception e) {
-			throw new IOException(e.getMessage(), e);
+			relative = Paths.get(name);
+		} catch (InvalidPathException e) {
+			return null;
+		}
+		if(relative.isAbsolute() || relative.getRoot() != null || name.isEmpty()) {
+			return null;
+		}
+		for(Path part : relative) {
+			if(part.toString().equals("..")) {
+				return null;
+			}
+		}
+		Path resolved = base.resolve(relative).normalize();
+		if(! resolved.startsWith(base) || resolved.equals(base)) {
+			return null;
 		}
+		return resolved.toFile();
+	}
+
+	private String getInvalidTransferFileMessage() {
+		return String.format("[ERROR] ファイルは %s の中のファイル名で指定してください。絶対パスや .. は使えません", transferDirectory);
 	}
 
 	/**
-	 * Normalizer for the commands.
-	 * See also https://github.com/Shunshun94/discord-bcdicebot/pull/10
-	 * @param command raw command
-	 * @return Normalized command.
-	 * @throws IOException 
+	 * Download the uploaded file with the timeouts, so that a stalled server doesn't hold the transfer thread.
 	 */
-	private String normalizeDiceCommand(String rawCommand) throws IOException {
-		String command = rawCommand;
-		try {
-			for(String replaceTarget: REMOVE_WHITESPACE_TARGETS) {
-				command = command.replaceAll("[\\s　]*[" + replaceTarget + "]+[\\s　]*", replaceTarget);
+	private static InputStream download(URL url) throws IOException {
+		Response response = TRANSFER_HTTP_CLIENT.newCall(new Request.Builder().url(url).build()).execute();
+		if(! response.isSuccessful()) {
+			response.close();
+			throw new IOException(String.format("ファイルを取得できませんでした (HTTP %s)", response.code()));
+		}
+		return response.body().byteStream();
+	}
+
+	/**
+	 * @return progress listener which logs every call and sends the count to the channel at most every 5 seconds
+	 */
+	private IntConsumer getTransferProgress(String channel, String name) {
+		long[] lastReport = {System.currentTimeMillis()};
+		return count -> {
+			logger.info(String.format("部屋設定の%s: %s件", name, count));
+			long now = System.currentTimeMillis();
+			if(now - lastReport[0] >= TRANSFER_PROGRESS_INTERVAL_MILLIS) {
+				lastReport[0] = now;
+				asyncReplyListener.accept(channel, String.format("部屋設定を%sしています: %s件", name, count));
 			}
-			command = URLEncoder.encode(command.replaceAll(" ", "%20"), "UTF-8");
-			command = command.replaceAll("%2520", "%20").replaceAll("%7E", "~");
-			return command;
-		} catch (UnsupportedEncodingException e) {
-			throw new IOException("Failed to encode [" + rawCommand + "]", e);
+		};
+	}
+
+	/**
+	 * 
+	 * @param id user unique id
+	 * @param index the called message ID
+	 * @return the stacked message
+	 * @throws IOException When failed to get message
+	 */
+	private List<String> getMessage(String id, String index) throws IOException {
+		SecretMessage secretMessage = savedMessage.get(id, index);
+		if(secretMessage == null) {
+			throw new IOException(String.format("Not found (index = %s)", index));
 		}
+		return secretMessage.getMessages();
 	}
 
 	public static void main(String[] args) throws IOException {
@@ -0,0 +1,180 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Cache of the BCDice-API responses which rarely change.
+ * <p>
+ * Concurrent callers of a missing key share one request. After the TTL, the old value is still returned
+ * while it is reloaded in the background. Failed loads are not cached.
+ * When the cache is full, the least recently used entry is removed.
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public class AsyncCache<K, V> {
+	private final String name;
+	private final long ttlMillis;
+	private final int maxSize;
+	private final Map<K, Entry<V>> entries = new ConcurrentHashMap<K, Entry<V>>();
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong staleHitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong loadFailureCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	private static class Entry<V> {
+		private final CompletableFuture<V> value;
+		private volatile long loadedAt;
+		private volatile long accessedAt;
+		private volatile boolean refreshing = false;
+
+		private Entry(CompletableFuture<V> value, long now) {
+			this.value = value;
+			this.loadedAt = now;
+			this.accessedAt = now;
+		}
+	}
+
+	/**
+	 * @param name shown in the metrics
+	 * @param ttlMillis how long a value is used without reloading
+	 * @param maxSize how many keys are kept
+	 */
+	public AsyncCache(String name, long ttlMillis, int maxSize) {
+		this.name = name;
+		this.ttlMillis = ttlMillis;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @param key
+	 * @param loader called when the key is missing or stale
+	 * @return the cached value, or the value being loaded
+	 */
+	public CompletableFuture<V> get(K key, Function<K, CompletableFuture<V>> loader) {
+		long now = System.currentTimeMillis();
+		Entry<V> entry = entries.get(key);
+		if(entry == null) {
+			CompletableFuture<V> loading = new CompletableFuture<V>();
+			Entry<V> newEntry = new Entry<V>(loading, now);
+			entry = entries.putIfAbsent(key, newEntry);
+			if(entry == null) {
+				missCount.incrementAndGet();
+				evictIfFull();
+				load(key, newEntry, loader);
+				return loading;
+			}
+		}
+		entry.accessedAt = now;
+		if(entry.value.isDone() && now - entry.loadedAt >= ttlMillis) {
+			staleHitCount.incrementAndGet();
+			refresh(key, entry, loader);
+		} else {
+			hitCount.incrementAndGet();
+		}
+		return entry.value;
+	}
+
+	private void load(K key, Entry<V> entry, Function<K, CompletableFuture<V>> loader) {
+		CompletableFuture<V> loaded;
+		try {
+			loaded = loader.apply(key);
+		} catch (RuntimeException e) {
+			loaded = AsyncResults.failed(e);
+		}
+		loaded.whenComplete((value, e) -> {
+			if(e != null) {
+				loadFailureCount.incrementAndGet();
+				entries.remove(key, entry);
+				entry.value.completeExceptionally(AsyncResults.unwrap(e));
+			} else {
+				entry.loadedAt = System.currentTimeMillis();
+				entry.value.complete(value);
+			}
+		});
+	}
+
+	private void refresh(K key, Entry<V> entry, Function<K, CompletableFuture<V>> loader) {
+		synchronized (entry) {
+			if(entry.refreshing) {
+				return;
+			}
+			entry.refreshing = true;
+		}
+		CompletableFuture<V> loaded;
+		try {
+			loaded = loader.apply(key);
+		} catch (RuntimeException e) {
+			loaded = AsyncResults.failed(e);
+		}
+		loaded.whenComplete((value, e) -> {
+			if(e != null) {
+				// Keep serving the old value. It is reloaded again on the next access.
+				loadFailureCount.incrementAndGet();
+			} else {
+				Entry<V> newEntry = new Entry<V>(CompletableFuture.completedFuture(value), System.currentTimeMillis());
+				newEntry.accessedAt = entry.accessedAt;
+				entries.replace(key, entry, newEntry);
+			}
+			entry.refreshing = false;
+		});
+	}
+
+	private void evictIfFull() {
+		while(entries.size() > maxSize) {
+			K oldestKey = null;
+			long oldest = Long.MAX_VALUE;
+			for(Map.Entry<K, Entry<V>> e : entries.entrySet()) {
+				if(e.getValue().accessedAt < oldest) {
+					oldest = e.getValue().accessedAt;
+					oldestKey = e.getKey();
+				}
+			}
+			if(oldestKey == null || entries.remove(oldestKey) == null) {
+				return;
+			}
+			evictionCount.incrementAndGet();
+		}
+	}
+
+	public void invalidate(K key) {
+		entries.remove(key);
+	}
+
+	public void invalidateAll() {
+		entries.clear();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getStaleHitCount() {
+		return staleHitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public List<String> getMetrics() {
+		List<String> result = new ArrayList<String>();
+		long hits = hitCount.get() + staleHitCount.get();
+		long total = hits + missCount.get();
+		result.add(String.format("%s cache: size: %s / hit: %s (stale: %s) / miss: %s / hit rate: %.1f%% / load failure: %s / eviction: %s",
+				name, entries.size(), hits, staleHitCount.get(), missCount.get(),
+				total == 0 ? 0.0 : hits * 100.0 / total, loadFailureCount.get(), evictionCount.get()));
+		return result;
+	}
+}
@@ -0,0 +1,57 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.hiyoko.discord.bot.BCDice.dto.DicerollResult;
+import com.hiyoko.discord.bot.BCDice.dto.OriginalDiceBotTable;
+import com.hiyoko.discord.bot.BCDice.dto.SystemInfo;
+import com.hiyoko.discord.bot.BCDice.dto.SystemList;
+import com.hiyoko.discord.bot.BCDice.dto.VersionInfo;
+
+/**
+ * DiceClient which can send requests without blocking the caller thread.
+ * The returned future fails with IOException when the request is failed.
+ */
+public interface AsyncDiceClient extends DiceClient {
+	/**
+	 *
+	 * @return version info of the server
+	 */
+	public CompletableFuture<VersionInfo> getVersionAsync();
+
+	/**
+	 *
+	 * @return The dice systems list
+	 */
+	public CompletableFuture<SystemList> getSystemsAsync();
+
+	/**
+	 *
+	 * @param gameType game name
+	 * @return The detail of the dice system of the rule
+	 */
+	public CompletableFuture<SystemInfo> getSystemInfoAsync(String gameType);
+
+	/**
+	 *
+	 * @param command dice command
+	 * @param system dice system of the rule
+	 * @return dice result
+	 */
+	public CompletableFuture<DicerollResult> rollDiceAsync(String command, String system);
+
+	/**
+	 *
+	 * @param command dice command
+	 * @param channel target channel
+	 * @return dice result
+	 */
+	public CompletableFuture<DicerollResult> rollDiceWithChannelAsync(String command, String channel);
+
+	/**
+	 *
+	 * @param diceBot
+	 * @return Result of Original DiceBot Table
+	 */
+	public CompletableFuture<DicerollResult> rollOriginalDiceBotTableAsync(OriginalDiceBotTable diceBot);
+}
@@ -0,0 +1,146 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Helpers to go between the blocking DiceClient methods which throw IOException
+ * and the futures of AsyncDiceClient.
+ */
+public class AsyncResults {
+	public interface IOSupplier<T> {
+		public T get() throws IOException;
+	}
+
+	public interface IOFunction<T, R> {
+		public R apply(T value) throws IOException;
+	}
+
+	/**
+	 * Wait for the future.
+	 * @param future
+	 * @return the result of the future
+	 * @throws IOException When the future is failed
+	 */
+	public static <T> T await(CompletableFuture<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Waiting for the dice server is interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = unwrap(e);
+			if(cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause.getMessage(), cause);
+		}
+	}
+
+	/**
+	 * @param throwable the exception given to the callbacks of CompletableFuture
+	 * @return the original exception
+	 */
+	public static Throwable unwrap(Throwable throwable) {
+		Throwable result = throwable;
+		while((result instanceof CompletionException || result instanceof ExecutionException) && result.getCause() != null) {
+			result = result.getCause();
+		}
+		return result;
+	}
+
+	public static <T> CompletableFuture<T> failed(Throwable throwable) {
+		CompletableFuture<T> result = new CompletableFuture<T>();
+		result.completeExceptionally(throwable);
+		return result;
+	}
+
+	/**
+	 * Run the blocking supplier and wrap the result.
+	 * @param supplier
+	 * @return completed future
+	 */
+	public static <T> CompletableFuture<T> of(IOSupplier<T> supplier) {
+		try {
+			return CompletableFuture.completedFuture(supplier.get());
+		} catch (IOException e) {
+			return failed(e);
+		}
+	}
+
+	/**
+	 * thenApply for the functions which throw IOException.
+	 * @param source
+	 * @param function
+	 * @return the future of the converted value
+	 */
+	public static <T, R> CompletableFuture<R> map(CompletableFuture<T> source, IOFunction<T, R> function) {
+		return source.thenCompose(value -> of(() -> function.apply(value)));
+	}
+
+	/**
+	 * Start the tasks with at most concurrency of them running at once.
+	 * @param count number of the tasks
+	 * @param concurrency
+	 * @param task called with the index of the task
+	 * @return the results in the order of the index. It fails when any of the tasks fails.
+	 */
+	public static <T> CompletableFuture<List<T>> all(int count, int concurrency, IntFunction<CompletableFuture<T>> task) {
+		List<CompletableFuture<T>> results = new ArrayList<CompletableFuture<T>>();
+		for(int i = 0; i < count; i++) {
+			results.add(new CompletableFuture<T>());
+		}
+		AtomicInteger next = new AtomicInteger();
+		for(int i = 0; i < Math.min(count, Math.max(1, concurrency)); i++) {
+			startNext(results, next, task);
+		}
+		return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+			List<T> list = new ArrayList<T>();
+			for(CompletableFuture<T> result : results) {
+				list.add(result.join());
+			}
+			return list;
+		});
+	}
+
+	/**
+	 * Run the tasks one by one in a loop while they are completed at once, so that the stack doesn't grow.
+	 */
+	private static <T> void startNext(List<CompletableFuture<T>> results, AtomicInteger next, IntFunction<CompletableFuture<T>> task) {
+		while(true) {
+			int index = next.getAndIncrement();
+			if(index >= results.size()) {
+				return;
+			}
+			CompletableFuture<T> future;
+			try {
+				future = task.apply(index);
+			} catch (RuntimeException e) {
+				future = failed(e);
+			}
+			CompletableFuture<T> result = results.get(index);
+			if(! future.isDone()) {
+				future.whenComplete((value, e) -> {
+					complete(result, value, e);
+					startNext(results, next, task);
+				});
+				return;
+			}
+			future.whenComplete((value, e) -> complete(result, value, e));
+		}
+	}
+
+	private static <T> void complete(CompletableFuture<T> result, T value, Throwable e) {
+		if(e == null) {
+			result.complete(value);
+		} else {
+			result.completeExceptionally(unwrap(e));
+		}
+	}
+}
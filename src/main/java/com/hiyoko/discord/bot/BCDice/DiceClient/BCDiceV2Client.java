@@ -6,19 +6,44 @@ import com.hiyoko.discord.bot.BCDice.dto.SystemInfo;
 import com.hiyoko.discord.bot.BCDice.dto.SystemList;
 import com.hiyoko.discord.bot.BCDice.dto.VersionInfo;
 
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
 import okhttp3.FormBody;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * BCDice-API Client
@@ -26,149 +51,351 @@ import java.util.regex.Pattern;
  * @author Shunshun94
  *
  */
-public class BCDiceV2Client implements DiceClient {
-	private int urlCursor = 0;
-	private List<String> urls = new ArrayList<String>();
+public class BCDiceV2Client implements AsyncDiceClient {
+	private static final int MAX_REQUESTS = 256;
+	private static final int MAX_REQUESTS_PER_HOST = 32;
+	private static final int LATENCY_WINDOW_SIZE = 200;
+	private static final int HEDGE_MIN_SAMPLES = 20;
+	private static final long HEDGE_MIN_DELAY_MILLIS = 50;
+	private static final long DEFAULT_CACHE_TTL_SECONDS = 60 * 60;
+	private static final int DEFAULT_CACHE_SIZE = 1000;
+	private static final String SINGLE_KEY = "";
+	private static final int DEFAULT_PREFETCH_CONCURRENCY = 8;
+	private static final ScheduledExecutorService RETRY_TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "bcdice-api-retry");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final ExecutorService SNAPSHOT_WRITER = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "bcdice-pattern-snapshot");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final ServerRouter router = new ServerRouter(ServerRouter.Strategy.of(System.getenv("BCDICE_API_ROUTING")));
+	private final LatencyWindow latencies = new LatencyWindow(LATENCY_WINDOW_SIZE);
+	private volatile double hedgePercentile = parseHedgePercentile(System.getenv("BCDICE_API_HEDGE_PERCENTILE"));
+	private final AtomicLong hedgeCount = new AtomicLong();
+	private final AtomicLong hedgeWinCount = new AtomicLong();
 	private final OkHttpClient client;
-	private final Map<String, String> system;
+	private final RetryPolicy retryPolicy;
+	private final AsyncCache<String, SystemInfo> systemInfoCache = new AsyncCache<String, SystemInfo>("SystemInfo", getCacheTtlMillis(), getCacheSize());
+	private final AsyncCache<String, SystemList> systemListCache = new AsyncCache<String, SystemList>("SystemList", getCacheTtlMillis(), 1);
+	private final AsyncCache<String, VersionInfo> versionCache = new AsyncCache<String, VersionInfo>("Version", getCacheTtlMillis(), 1);
+	private final ChannelSystemStore system;
 	private final boolean errorSensitive;
 	private static final String DEFAULT_CHANNEL = "general";
-	private final Map<String, Pattern> DICE_COMMANDS_PATTERN = new HashMap<String, Pattern>();
+	private final Map<String, CommandMatcher> DICE_COMMANDS_PATTERN = new ConcurrentHashMap<String, CommandMatcher>();
+	private final CommandPatternSnapshot patternSnapshot;
+	private CompletableFuture<Void> patternRevalidation;
+	private volatile boolean prefetchAllSystems = System.getenv("BCDICE_PREFETCH_ALL_SYSTEMS") != null;
+	private final int prefetchConcurrency = getPrefetchConcurrency();
+	private final Logger logger = LoggerFactory.getLogger(BCDiceV2Client.class);
+
+	private static long getCacheTtlMillis() {
+		String value = System.getenv("BCDICE_API_CACHE_TTL");
+		try {
+			return TimeUnit.SECONDS.toMillis(value == null ? DEFAULT_CACHE_TTL_SECONDS : Long.parseLong(value.trim()));
+		} catch (NumberFormatException e) {
+			System.err.println(String.format("BCDICE_API_CACHE_TTL is ignored: %s", value));
+			return TimeUnit.SECONDS.toMillis(DEFAULT_CACHE_TTL_SECONDS);
+		}
+	}
+
+	private static int getCacheSize() {
+		String value = System.getenv("BCDICE_API_CACHE_SIZE");
+		try {
+			return value == null ? DEFAULT_CACHE_SIZE : Math.max(1, Integer.parseInt(value.trim()));
+		} catch (NumberFormatException e) {
+			System.err.println(String.format("BCDICE_API_CACHE_SIZE is ignored: %s", value));
+			return DEFAULT_CACHE_SIZE;
+		}
+	}
+
+	private static int getPrefetchConcurrency() {
+		String value = System.getenv("BCDICE_PREFETCH_CONCURRENCY");
+		try {
+			return value == null ? DEFAULT_PREFETCH_CONCURRENCY : Math.max(1, Integer.parseInt(value.trim()));
+		} catch (NumberFormatException e) {
+			System.err.println(String.format("BCDICE_PREFETCH_CONCURRENCY is ignored: %s", value));
+			return DEFAULT_PREFETCH_CONCURRENCY;
+		}
+	}
+
+	private static OkHttpClient createHttpClient() {
+		// The default dispatcher allows only 5 requests per host, which is too few for the async requests.
+		Dispatcher dispatcher = new Dispatcher();
+		dispatcher.setMaxRequests(MAX_REQUESTS);
+		dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+		return new OkHttpClient.Builder().dispatcher(dispatcher).build();
+	}
 
 	/**
 	 * @param bcDiceUrl BCDice-API server URL
 	 * @throws IOException 
 	 */
 	public BCDiceV2Client(String bcDiceUrl) throws IOException {
-		client = new OkHttpClient();
-		urls.add(bcDiceUrl.endsWith("/") ? bcDiceUrl : bcDiceUrl + "/");
-		system = new HashMap<String, String>();
-		system.put(DEFAULT_CHANNEL, "DiceBot");
-		updateDicePattern("DiceBot");
-		errorSensitive = true;
+		this(bcDiceUrl, true);
 	}
 
 	public BCDiceV2Client(String bcDiceUrl, boolean es) throws IOException {
-		urls.add(bcDiceUrl.endsWith("/") ? bcDiceUrl : bcDiceUrl + "/");
-		client = new OkHttpClient();
-		system = new HashMap<String, String>();
-		system.put(DEFAULT_CHANNEL, "DiceBot");
-		updateDicePattern("DiceBot");
-		errorSensitive = es;
+		this(Collections.singletonList(bcDiceUrl), es);
 	}
 
 	public BCDiceV2Client(List<String> bcDiceUrls, boolean es) throws IOException {
+		this(bcDiceUrls, es, new RetryPolicy());
+	}
+
+	/**
+	 * The command patterns and the systems of the channels are kept only in the memory.
+	 * @param bcDiceUrls BCDice-API server URLs
+	 * @param es If false, an error response is handled as a dummy result instead of an exception
+	 * @param retryPolicy decides how failed requests are retried
+	 * @throws IOException
+	 */
+	public BCDiceV2Client(List<String> bcDiceUrls, boolean es, RetryPolicy retryPolicy) throws IOException {
+		this(bcDiceUrls, es, retryPolicy, new CommandPatternSnapshot(null));
+	}
+
+	/**
+	 * The command patterns are loaded from the snapshot, so this doesn't wait for the servers.
+	 * They are checked against the servers in the background. The systems of the channels are kept only in the memory.
+	 * @param bcDiceUrls BCDice-API server URLs
+	 * @param es If false, an error response is handled as a dummy result instead of an exception
+	 * @param retryPolicy decides how failed requests are retried
+	 * @param patternSnapshot local copy of the command patterns
+	 * @throws IOException
+	 */
+	public BCDiceV2Client(List<String> bcDiceUrls, boolean es, RetryPolicy retryPolicy, CommandPatternSnapshot patternSnapshot) throws IOException {
+		this(bcDiceUrls, es, retryPolicy, patternSnapshot, new ChannelSystemStore(null));
+	}
+
+	/**
+	 * @param bcDiceUrls BCDice-API server URLs
+	 * @param es If false, an error response is handled as a dummy result instead of an exception
+	 * @param retryPolicy decides how failed requests are retried
+	 * @param patternSnapshot local copy of the command patterns
+	 * @param channelSystems system of each channel. Clients which share the files must share the store.
+	 * @throws IOException
+	 */
+	public BCDiceV2Client(List<String> bcDiceUrls, boolean es, RetryPolicy retryPolicy, CommandPatternSnapshot patternSnapshot,
+			ChannelSystemStore channelSystems) throws IOException {
+		this.retryPolicy = retryPolicy;
+		this.patternSnapshot = patternSnapshot;
 		for (String bcDiceUrl : bcDiceUrls) {
-			// stream と collect だとあとから追加ができなくなるのでこれで追加
-			urls.add(bcDiceUrl.endsWith("/") ? bcDiceUrl : bcDiceUrl + "/");
+			router.add(bcDiceUrl.endsWith("/") ? bcDiceUrl : bcDiceUrl + "/");
 		}
-		client = new OkHttpClient();
-		system = new HashMap<String, String>();
-		system.put(DEFAULT_CHANNEL, "DiceBot");
-		updateDicePattern("DiceBot");
+		client = createHttpClient();
+		system = channelSystems;
+		system.putDefault(DEFAULT_CHANNEL, "DiceBot");
 		errorSensitive = es;
+		loadDicePatterns();
 	}
 
-	private String postUrl(String path, int rtl) throws IOException {
-		String targetUrl = urls.get(urlCursor) + path;
-		Request request = new Request.Builder().url(targetUrl).post( new FormBody.Builder().build() ).build();
-		try (Response response = client.newCall(request).execute();) {
-			ResponseBody result = response.body();
-			int responseCode = response.code(); 
-			if (responseCode == DiceClientConsts.REQUEST_URI_TOO_LONG ) {
-				throw new IOException("Too long command is requested. Make the command shorter");
-			}
-			if (!(responseCode == DiceClientConsts.OK || responseCode == DiceClientConsts.BAD_REQUEST)) {
-				response.close();
-				if (errorSensitive) {
-					String msg = String.format("[%s] %s", responseCode, targetUrl);
-					if (msg.startsWith("[5") && (urls.size() != 1) && (rtl > 0)) { // 5XX Error であれば かつ 予備 URL があれば
-						urlCursor++;
-						if (urls.size() <= urlCursor) {
-							urlCursor = 0;
-						}
-						System.err.println(String.format("Failed to request to %s, %s, app will try %s with dice server %s",
-								targetUrl, responseCode, rtl, urls.get(urlCursor)));
-						return postUrl(path, rtl - 1);
-					}
-					throw new IOException(msg);
-				} else {
-					return "{\"ok\":false,\"reason\":\"error handling dummy data\"}";
+	/**
+	 * Send the request without blocking. Retries follow the retry policy and are scheduled on the timer instead of sleeping.
+	 * @param path the path to the called API command
+	 * @param isPost If true, the request is sent as POST
+	 * @param hedge If true and hedging is enabled, the same request is also sent to another server when the first one is late
+	 * @return the API called result as String
+	 */
+	private CompletableFuture<String> requestAsync(String path, boolean isPost, boolean hedge) {
+		PendingRequest request = new PendingRequest(path, isPost, retryPolicy.onRequest());
+		requestAsync(request);
+		if (hedge) {
+			scheduleHedge(request);
+		}
+		return request.result;
+	}
+
+	/**
+	 * A request which may be sent to more than one server. The first result wins and the other calls are cancelled.
+	 */
+	private static class PendingRequest {
+		private final String path;
+		private final boolean isPost;
+		private final CompletableFuture<String> result = new CompletableFuture<String>();
+		/** the servers which already failed in this request. They are avoided while another server remains. */
+		private final Set<String> tried = ConcurrentHashMap.newKeySet();
+		private final Set<Call> calls = ConcurrentHashMap.newKeySet();
+		private final AtomicInteger retried = new AtomicInteger();
+		private final long deadlineNanos;
+		private volatile String lastServer;
+
+		private PendingRequest(String path, boolean isPost, long deadlineNanos) {
+			this.path = path;
+			this.isPost = isPost;
+			this.deadlineNanos = deadlineNanos;
+			result.whenComplete((text, e) -> {
+				for (Call call : calls) {
+					call.cancel();
 				}
+			});
+		}
+	}
+
+	private void requestAsync(PendingRequest request) {
+		if (request.tried.size() >= router.size()) {
+			request.tried.clear();
+		}
+		ServerHealth server = router.acquire(request.tried);
+		request.lastServer = server.getUrl();
+		send(request, server, false);
+	}
+
+	/**
+	 * When the request is slower than the configured percentile of the recent latencies,
+	 * send the same request to another server. Rolls are idempotent, so the first answer can be used.
+	 */
+	private void scheduleHedge(PendingRequest request) {
+		double percentile = hedgePercentile;
+		if (percentile <= 0 || router.size() < 2 || latencies.size() < HEDGE_MIN_SAMPLES) {
+			return;
+		}
+		long delay = Math.max(HEDGE_MIN_DELAY_MILLIS, latencies.percentile(percentile));
+		RETRY_TIMER.schedule(() -> {
+			if (request.result.isDone()) {
+				return;
 			}
-			return result.string();
-		} catch (Exception e) {
-			if (rtl == 0) {
-				throw new IOException(e.getMessage() + "(" + targetUrl + ")", e);
-			} else {
-				System.err.println(
-						String.format("Failed to request to %s, %s, app will try %s", targetUrl, e.getMessage(), rtl));
-				try {
-					Thread.sleep(500);
-				} catch (InterruptedException e1) {
-					e.addSuppressed(e1);
-					throw new IOException("Waiting in retry is interrupted", e);
-				}
-				if (urls.size() != 1) {
-					urlCursor++;
-					if (urls.size() <= urlCursor) {
-						urlCursor = 0;
-					}
-				}
-				return postUrl(path, rtl - 1);
+			Set<String> excluded = new HashSet<String>(request.tried);
+			excluded.add(request.lastServer);
+			ServerHealth server = router.acquire(excluded);
+			if (excluded.contains(server.getUrl()) || server.getState() == ServerHealth.CircuitState.OPEN) {
+				// No other server can take the request now
+				server.recordCancel();
+				return;
 			}
-		}
+			hedgeCount.incrementAndGet();
+			send(request, server, true);
+		}, delay, TimeUnit.MILLISECONDS);
 	}
 
-	private String getUrl(String path, int rtl) throws IOException {
-		
-		String targetUrl = urls.get(urlCursor) + path;
-		Request request = new Request.Builder().url(targetUrl).build();
-		try (Response response = client.newCall(request).execute();) {
-			ResponseBody result = response.body();
-			int responseCode = response.code(); 
-			if (!(responseCode == DiceClientConsts.OK || responseCode == DiceClientConsts.BAD_REQUEST)) {
-				response.close();
-				if (errorSensitive) {
-					String msg = String.format("[%s] %s", responseCode, targetUrl);
-					if (msg.startsWith("[5") && (urls.size() != 1) && (rtl > 0)) { // 5XX Error であれば かつ 予備 URL があれば
-						urlCursor++;
-						if (urls.size() <= urlCursor) {
-							urlCursor = 0;
-						}
-						System.err.println(String.format("Failed to request to %s, %s, app will try %s with dice server %s",
-								targetUrl, responseCode, rtl, urls.get(urlCursor)));
-						return getUrl(path, rtl - 1);
-					}
-					throw new IOException(msg);
-				} else {
-					return "{\"ok\":false,\"reason\":\"error handling dummy data\"}";
+	/**
+	 * @param isHedge If true, a failure is ignored because the first call is still running
+	 */
+	private void send(PendingRequest request, ServerHealth server, boolean isHedge) {
+		String path = request.path;
+		boolean isPost = request.isPost;
+		CompletableFuture<String> result = request.result;
+		String targetUrl = server.getUrl() + path;
+		Request.Builder builder = new Request.Builder().url(targetUrl);
+		if (isPost) {
+			builder.post(new FormBody.Builder().build());
+		}
+		long start = System.nanoTime();
+		Call call = client.newCall(builder.build());
+		request.calls.add(call);
+		call.enqueue(new Callback() {
+			@Override
+			public void onFailure(Call call, IOException e) {
+				request.calls.remove(call);
+				if (result.isDone()) {
+					server.recordCancel();
+					return;
 				}
+				server.recordFailure(elapsedMillis(start));
+				request.tried.add(server.getUrl());
+				retryLater(request, isHedge, RetryPolicy.NO_RESPONSE, targetUrl, e);
 			}
-			return result.string();
-		} catch (Exception e) {
-			if (rtl == 0) {
-				throw new IOException(e.getMessage() + "(" + targetUrl + ")", e);
-			} else {
-				System.err.println(
-						String.format("Failed to request to %s, %s, app will try %s", targetUrl, e.getMessage(), rtl));
-				try {
-					Thread.sleep(500);
-				} catch (InterruptedException e1) {
-					e.addSuppressed(e1);
-					throw new IOException("Waiting in retry is interrupted", e);
-				}
-				if (urls.size() != 1) {
-					urlCursor++;
-					if (urls.size() <= urlCursor) {
-						urlCursor = 0;
+
+			@Override
+			public void onResponse(Call call, Response response) {
+				request.calls.remove(call);
+				try (ResponseBody body = response.body()) {
+					if (result.isDone()) {
+						server.recordCancel();
+						return;
 					}
+					int responseCode = response.code();
+					if (isPost && responseCode == DiceClientConsts.REQUEST_URI_TOO_LONG) {
+						server.recordSuccess(elapsedMillis(start));
+						result.completeExceptionally(new IOException("Too long command is requested. Make the command shorter"));
+						return;
+					}
+					if (!(responseCode == DiceClientConsts.OK || responseCode == DiceClientConsts.BAD_REQUEST)) {
+						server.recordFailure(elapsedMillis(start));
+						request.tried.add(server.getUrl());
+						if (errorSensitive) {
+							String msg = String.format("[%s] %s", responseCode, targetUrl);
+							retryLater(request, isHedge, responseCode, targetUrl, new IOException(msg));
+						} else if (!isHedge) {
+							result.complete("{\"ok\":false,\"reason\":\"error handling dummy data\"}");
+						}
+						return;
+					}
+					String text = body.string();
+					long elapsed = elapsedMillis(start);
+					server.recordSuccess(elapsed);
+					latencies.record(elapsed);
+					router.markAnswered(server);
+					if (result.complete(text) && isHedge) {
+						hedgeWinCount.incrementAndGet();
+					}
+				} catch (IOException | RuntimeException e) {
+					// The in-flight count of the server must go down also when the body can't be handled
+					if (result.isDone()) {
+						server.recordCancel();
+						return;
+					}
+					server.recordFailure(elapsedMillis(start));
+					request.tried.add(server.getUrl());
+					retryLater(request, isHedge, RetryPolicy.NO_RESPONSE, targetUrl, e);
 				}
-				return getUrl(path, rtl - 1);
 			}
+		});
+		if (result.isDone()) {
+			// The other call won while this one was being prepared
+			call.cancel();
+		}
+	}
+
+	private static long elapsedMillis(long startNanos) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * The next try goes to another server if there is one, because the failed server is in {@code request.tried}.
+	 * @param statusCode the status code of the failed response or {@link RetryPolicy#NO_RESPONSE}
+	 */
+	private void retryLater(PendingRequest request, boolean isHedge, int statusCode, String targetUrl, Exception e) {
+		if (isHedge) {
+			return;
+		}
+		long delay = retryPolicy.nextDelayMillis(request.retried.getAndIncrement(), statusCode, request.deadlineNanos);
+		if (delay < 0) {
+			request.result.completeExceptionally(new IOException(e.getMessage() + "(" + targetUrl + ")", e));
+			return;
+		}
+		System.err.println(
+				String.format("Failed to request to %s, %s, app will try again in %sms", targetUrl, e.getMessage(), delay));
+		RETRY_TIMER.schedule(() -> {
+			requestAsync(request);
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param value BCDICE_API_HEDGE_PERCENTILE
+	 * @return the percentile, or 0 (disabled) when the value is not valid
+	 */
+	static double parseHedgePercentile(String value) {
+		if (value == null) {
+			return 0;
+		}
+		try {
+			double percentile = Double.parseDouble(value.trim().replaceFirst("^[pP]", ""));
+			return (percentile > 0 && percentile < 100) ? percentile : 0;
+		} catch (NumberFormatException e) {
+			System.err.println(String.format("BCDICE_API_HEDGE_PERCENTILE is ignored: %s", value));
+			return 0;
 		}
 	}
 
+	/**
+	 * @param percentile 0 disables hedging
+	 */
+	void setHedgePercentile(double percentile) {
+		hedgePercentile = percentile;
+	}
+
 	/**
 	 * 
 	 * @param path the path to the called API command
@@ -176,34 +403,69 @@ public class BCDiceV2Client implements DiceClient {
 	 * @throws IOException When access is failed
 	 */
 	private String getUrl(String path) throws IOException {
-		return getUrl(path, 5);
+		return AsyncResults.await(requestAsync(path, false, false));
 	}
 
 	public VersionInfo getVersion() throws IOException {
-		return new VersionInfo(getUrl("v2/version"));
+		return AsyncResults.await(getVersionAsync());
+	}
+
+	@Override
+	public CompletableFuture<VersionInfo> getVersionAsync() {
+		// A failed response is not cached, so that the version is got again on the next call
+		return versionCache.get(SINGLE_KEY, key -> AsyncResults.map(requestAsync("v2/version", false, false), VersionInfo::parse));
 	}
 
 	public SystemList getSystems() throws IOException {
-		return new SystemList(getUrl("v2/game_system"));
+		return AsyncResults.await(getSystemsAsync());
+	}
+
+	@Override
+	public CompletableFuture<SystemList> getSystemsAsync() {
+		return systemListCache.get(SINGLE_KEY, key -> requestAsync("v2/game_system", false, false).thenApply(json -> new SystemList(json)));
 	}
 
 	public SystemInfo getSystemInfo(String gameType) throws IOException {
-		String rawJson = getUrl("v2/game_system/" + URLEncoder.encode(gameType, "UTF-8").replaceAll("%2520", "%20"));
+		return AsyncResults.await(getSystemInfoAsync(gameType));
+	}
+
+	@Override
+	public CompletableFuture<SystemInfo> getSystemInfoAsync(String gameType) {
+		return systemInfoCache.get(gameType, this::requestSystemInfoAsync);
+	}
+
+	private CompletableFuture<SystemInfo> requestSystemInfoAsync(String gameType) {
+		String path;
 		try {
-			// IOException should be thrown from getURL and SystemInfo constructor.
-			// I have to show which method throws the Exception.
-			return new SystemInfo(rawJson);
-		} catch (IOException e) {
-			throw new IOException("System '" + gameType + "' is not found", e);
+			path = "v2/game_system/" + URLEncoder.encode(gameType, "UTF-8").replaceAll("%2520", "%20");
+		} catch (UnsupportedEncodingException e) {
+			return AsyncResults.failed(e);
 		}
+		return AsyncResults.map(requestAsync(path, false, false), rawJson -> {
+			try {
+				// IOException should be thrown from getURL and SystemInfo constructor.
+				// I have to show which method throws the Exception.
+				return new SystemInfo(rawJson);
+			} catch (IOException e) {
+				throw new IOException("System '" + gameType + "' is not found", e);
+			}
+		});
 	}
 
 	@Override
 	public DicerollResult rollOriginalDiceBotTable(OriginalDiceBotTable diceBot) throws IOException {
-		String result = postUrl(
-				"v2/original_table?table=" + URLEncoder.encode(diceBot.toString(), "UTF-8").replaceAll("%2520", "%20"),
-				5);
-		return new DicerollResult(result);
+		return AsyncResults.await(rollOriginalDiceBotTableAsync(diceBot));
+	}
+
+	@Override
+	public CompletableFuture<DicerollResult> rollOriginalDiceBotTableAsync(OriginalDiceBotTable diceBot) {
+		String path;
+		try {
+			path = "v2/original_table?table=" + URLEncoder.encode(diceBot.toString(), "UTF-8").replaceAll("%2520", "%20");
+		} catch (UnsupportedEncodingException e) {
+			return AsyncResults.failed(e);
+		}
+		return AsyncResults.map(requestAsync(path, true, true), result -> new DicerollResult(result));
 	}
 
 	@Override
@@ -211,9 +473,24 @@ public class BCDiceV2Client implements DiceClient {
 		return rollDice(command, getSystem(channel));
 	}
 
+	@Override
+	public CompletableFuture<DicerollResult> rollDiceWithChannelAsync(String command, String channel) {
+		return rollDiceAsync(command, getSystem(channel));
+	}
+
 	public DicerollResult rollDice(String command, String system) throws IOException {
-		return new DicerollResult(getUrl("v2/game_system/"
-				+ URLEncoder.encode(system, "UTF-8").replaceAll("%2520", "%20") + "/roll?command=" + command), system);
+		return AsyncResults.await(rollDiceAsync(command, system));
+	}
+
+	@Override
+	public CompletableFuture<DicerollResult> rollDiceAsync(String command, String system) {
+		String path;
+		try {
+			path = "v2/game_system/" + URLEncoder.encode(system, "UTF-8").replaceAll("%2520", "%20") + "/roll?command=" + command;
+		} catch (UnsupportedEncodingException e) {
+			return AsyncResults.failed(e);
+		}
+		return AsyncResults.map(requestAsync(path, false, true), json -> new DicerollResult(json, system));
 	}
 
 	public DicerollResult rollDice(String command) throws IOException {
@@ -226,7 +503,11 @@ public class BCDiceV2Client implements DiceClient {
 
 	@Override
 	public String setSystem(String newSystem, String channel) {
-		system.put(channel, newSystem);
+		try {
+			system.put(channel, newSystem);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 		return getSystem(channel);
 	}
 
@@ -244,37 +525,165 @@ public class BCDiceV2Client implements DiceClient {
 	}
 
 	public String toString() {
-		return "[BCDiceClient] for " + urls.get(urlCursor) + " : " + system.get(DEFAULT_CHANNEL);
+		return "[BCDiceClient] for " + router.getCurrentUrl() + " : " + system.get(DEFAULT_CHANNEL);
 	}
 
 	public String toString(String channel) {
-		return "[BCDiceClient] for " + urls.get(urlCursor) + " : " + getSystem(channel);
+		return "[BCDiceClient] for " + router.getCurrentUrl() + " : " + getSystem(channel);
 	}
 
 	@Override
 	public void setDiceServer(String bcDiceUrl) {
-		String tmp = bcDiceUrl.endsWith("/") ? bcDiceUrl : bcDiceUrl + "/";
-		for (int i = 0; i < urls.size(); i++) {
-			if (urls.get(i).equals(tmp)) {
-				urlCursor = i;
-				return;
-			}
+		router.setCurrent(bcDiceUrl.endsWith("/") ? bcDiceUrl : bcDiceUrl + "/");
+	}
+
+	@Override
+	public void setSystems(Map<String, String> channelSystems) {
+		try {
+			system.putAll(channelSystems);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
-		urls.add(tmp);
-		urlCursor = urls.size() - 1;
 	}
 
 	@Override
 	public Map<String, String> getRoomsSystem() {
-		return system;
+		return system.asMap();
+	}
+
+	@Override
+	public void forEachRoomSystem(BiConsumer<String, String> action) {
+		system.forEach(action);
 	}
 
 	private boolean updateDicePattern(String system) throws IOException {
 		SystemInfo gs = getSystemInfo(system);
-		DICE_COMMANDS_PATTERN.put(system, Pattern.compile(gs.getPrefixs(), Pattern.CASE_INSENSITIVE));
+		DICE_COMMANDS_PATTERN.put(system, new CommandMatcher(gs.getPrefixs()));
+		saveDicePatternsLater(patternSnapshot.getVersion());
 		return true;
 	}
 
+	/**
+	 * Compile the patterns in the snapshot, then check them against the server in the background.
+	 * Only when there is no snapshot yet, this waits for the server. The failure is ignored then too.
+	 */
+	private void loadDicePatterns() {
+		Map<String, String> snapshot = patternSnapshot.load();
+		snapshot.forEach((system, pattern) -> {
+			try {
+				DICE_COMMANDS_PATTERN.put(system, new CommandMatcher(pattern));
+			} catch (PatternSyntaxException e) {
+				System.err.println(String.format("The command pattern of %s in the snapshot is ignored: %s", system, e.getMessage()));
+			}
+		});
+		patternRevalidation = revalidateDicePatterns();
+		if (snapshot.isEmpty()) {
+			patternRevalidation.join();
+		}
+	}
+
+	/**
+	 * When BCDice on the server is not the version of the snapshot, get the patterns of all known systems again.
+	 * In the warm-up mode (BCDICE_PREFETCH_ALL_SYSTEMS), the patterns of all systems on the server are got.
+	 */
+	private CompletableFuture<Void> revalidateDicePatterns() {
+		return getVersionAsync().thenCompose(version -> {
+			String versionText = version.toString();
+			if (versionText.equals(patternSnapshot.getVersion()) && DICE_COMMANDS_PATTERN.containsKey("DiceBot") && !prefetchAllSystems) {
+				return CompletableFuture.<Void>completedFuture(null);
+			}
+			long start = System.nanoTime();
+			return getDicePatternTargetsAsync().thenCompose(this::updateDicePatternsAsync).thenAccept(failures -> {
+				logger.info(String.format("Command patterns of %s systems are loaded in %sms, %s systems failed",
+						DICE_COMMANDS_PATTERN.size(), elapsedMillis(start), failures.size()));
+				failures.forEach((target, message) -> {
+					System.err.println(String.format("Failed to update the command pattern of %s: %s", target, message));
+				});
+				saveDicePatterns(versionText);
+			});
+		}).exceptionally(e -> {
+			System.err.println(String.format("Failed to check the command patterns: %s", AsyncResults.unwrap(e).getMessage()));
+			return null;
+		});
+	}
+
+	/**
+	 * @return the known systems, or all systems on the server in the warm-up mode
+	 */
+	private CompletableFuture<Set<String>> getDicePatternTargetsAsync() {
+		Set<String> systems = new TreeSet<String>(DICE_COMMANDS_PATTERN.keySet());
+		systems.add("DiceBot");
+		if (!prefetchAllSystems) {
+			return CompletableFuture.completedFuture(systems);
+		}
+		return getSystemsAsync().thenApply(list -> {
+			systems.addAll(list.getSystemList());
+			return systems;
+		});
+	}
+
+	/**
+	 * Get the command patterns of the systems in parallel. At most BCDICE_PREFETCH_CONCURRENCY requests are sent at once.
+	 * @param systems
+	 * @return system name to the error message, for the systems which failed
+	 */
+	private CompletableFuture<Map<String, String>> updateDicePatternsAsync(Collection<String> systems) {
+		Queue<String> queue = new ConcurrentLinkedQueue<String>(systems);
+		Map<String, String> failures = new ConcurrentHashMap<String, String>();
+		List<CompletableFuture<Void>> workers = new ArrayList<CompletableFuture<Void>>();
+		for (int i = 0; i < Math.min(prefetchConcurrency, systems.size()); i++) {
+			workers.add(updateNextDicePattern(queue, failures));
+		}
+		return CompletableFuture.allOf(workers.toArray(new CompletableFuture<?>[0])).thenApply(v -> failures);
+	}
+
+	private CompletableFuture<Void> updateNextDicePattern(Queue<String> queue, Map<String, String> failures) {
+		String target = queue.poll();
+		if (target == null) {
+			return CompletableFuture.completedFuture(null);
+		}
+		return getSystemInfoAsync(target).handle((info, e) -> {
+			if (e != null) {
+				failures.put(target, AsyncResults.unwrap(e).getMessage());
+				return null;
+			}
+			try {
+				DICE_COMMANDS_PATTERN.put(target, new CommandMatcher(info.getPrefixs()));
+			} catch (PatternSyntaxException pe) {
+				failures.put(target, pe.getMessage());
+			}
+			return null;
+		}).thenCompose(v -> updateNextDicePattern(queue, failures));
+	}
+
+	/**
+	 * @param enabled If true, the patterns of all systems on the server are got at start and by updateDiceRollPreFix
+	 */
+	void setPrefetchAllSystems(boolean enabled) {
+		prefetchAllSystems = enabled;
+	}
+
+	/**
+	 * Wait until the command patterns are checked against the server. Only for tests.
+	 */
+	void awaitDicePatternRevalidation() throws IOException {
+		AsyncResults.await(patternRevalidation);
+	}
+
+	private void saveDicePatternsLater(String version) {
+		SNAPSHOT_WRITER.execute(() -> saveDicePatterns(version));
+	}
+
+	private void saveDicePatterns(String version) {
+		Map<String, String> patterns = new HashMap<String, String>();
+		DICE_COMMANDS_PATTERN.forEach((key, pattern) -> patterns.put(key, pattern.pattern()));
+		try {
+			patternSnapshot.save(version, patterns);
+		} catch (IOException e) {
+			System.err.println(String.format("Failed to save the command pattern snapshot: %s", e.getMessage()));
+		}
+	}
+
 	@Override
 	public boolean isDiceCommand(String command, String system) throws IOException {
 		if( ! DICE_COMMANDS_PATTERN.containsKey(system) ) {
@@ -284,7 +693,7 @@ public class BCDiceV2Client implements DiceClient {
 				throw new IOException(String.format("対応していないシステム ( `%s` ) を使っているようです。スペルが間違っている、または未対応のシステムかもしれません。対応しているシステムを `bcdice set システム名` で設定してください。ダイスボットの一覧を参照するには `bcdice list` をご利用ください", system), e);
 			}
 		}
-		return DICE_COMMANDS_PATTERN.get(system).matcher(command).find();
+		return DICE_COMMANDS_PATTERN.get(system).find(command);
 	}
 
 	@Override
@@ -293,52 +702,73 @@ public class BCDiceV2Client implements DiceClient {
 	}
 
 	public int getUrlCursor() {
-		return urlCursor;
+		return router.getCurrentIndex();
 	}
 
 	public List<String> getDiceUrlList() {
-		return urls;
+		return router.getUrls();
+	}
+
+	@Override
+	public List<String> getDiceServerStatus() {
+		List<String> result = router.getStatus();
+		double percentile = hedgePercentile;
+		if (percentile > 0) {
+			result.add(String.format("hedging: p%s (delay: %sms) / sent: %s / won: %s",
+					BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString(), Math.max(HEDGE_MIN_DELAY_MILLIS, latencies.percentile(percentile)), hedgeCount.get(), hedgeWinCount.get()));
+		}
+		return result;
+	}
+
+	@Override
+	public List<String> getMetrics() {
+		List<String> result = new ArrayList<String>();
+		result.addAll(retryPolicy.getMetrics());
+		result.addAll(systemInfoCache.getMetrics());
+		result.addAll(systemListCache.getMetrics());
+		result.addAll(versionCache.getMetrics());
+		return result;
 	}
 
 	public boolean removeDiceServer(String bcDiceUrl) throws IOException {
-		if (urls.size() == 1) {
-			throw new IOException(String.format("今登録されているダイスサーバ %s を削除したらダイスサーバが無くなるため、ダイスサーバの削除ができません", urls.get(0)));
+		if (router.size() == 1) {
+			throw new IOException(String.format("今登録されているダイスサーバ %s を削除したらダイスサーバが無くなるため、ダイスサーバの削除ができません", router.getUrls().get(0)));
 		}
 		String tmp = bcDiceUrl.endsWith("/") ? bcDiceUrl : bcDiceUrl + "/";
-		boolean flag = false;
-		List<String> newUrlList = new ArrayList<String>();
-		for (int i = 0; i < urls.size(); i++) {
-			String currentUrl = urls.get(i);
-			if (!currentUrl.equals(tmp)) {
-				newUrlList.add(currentUrl);
-			} else {
-				flag = true;
-			}
-		}
-		urls = newUrlList;
-		if (urls.size() <= urlCursor) {
-			urlCursor = 0;
-		}
-		return flag;
+		return router.remove(tmp);
 	}
 
 	@Override
 	public List<String> updateDiceBotsPrefixes() {
+		// The prefixes are updated because the server may be updated, so the cached responses are not used
+		systemInfoCache.invalidateAll();
+		systemListCache.invalidateAll();
+		versionCache.invalidateAll();
 		List<String> result = new ArrayList<String>();
-		List<String> shouldDeleteList = new ArrayList<String>();
-		DICE_COMMANDS_PATTERN.forEach((key, prefix)->{
+		long start = System.nanoTime();
+		Set<String> targets;
+		if (prefetchAllSystems) {
 			try {
-				updateDicePattern(key);
-				result.add(String.format("Prefix of %s is updated", key));
+				targets = AsyncResults.await(getDicePatternTargetsAsync());
 			} catch (IOException e) {
 				result.add(e.getMessage());
-				shouldDeleteList.add(key);
+				targets = new TreeSet<String>(DICE_COMMANDS_PATTERN.keySet());
+			}
+		} else {
+			targets = new TreeSet<String>(DICE_COMMANDS_PATTERN.keySet());
+		}
+		Map<String, String> failures = updateDicePatternsAsync(targets).join();
+		for (String key : targets) {
+			if (failures.containsKey(key)) {
+				result.add(failures.get(key));
+				DICE_COMMANDS_PATTERN.remove(key);
+			} else if (!prefetchAllSystems) {
+				// All systems are too many to list one by one
+				result.add(String.format("Prefix of %s is updated", key));
 			}
-		});
-		for(String key : shouldDeleteList) {
-			DICE_COMMANDS_PATTERN.remove(key);
 		}
-		result.add(String.format("%s systems are loaded", DICE_COMMANDS_PATTERN.size()));
+		result.add(String.format("%s systems are loaded (%sms, %s failed)", DICE_COMMANDS_PATTERN.size(), elapsedMillis(start), failures.size()));
+		getVersionAsync().thenAccept(version -> saveDicePatternsLater(version.toString()));
 		return result;
 	}
 }
@@ -0,0 +1,320 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Channel to system map which keeps Discord channel ids as long and system names as short.
+ * <p>
+ * The ids are in an open addressing table of long[] and short[] with linear probing, and the system names are
+ * in a dictionary shared by all the channels. So a channel is 10 bytes (plus the free slots) instead of
+ * two Strings and a node of HashMap. A channel which is not a positive number, like "general" or "cli", is kept in a
+ * ConcurrentHashMap as it was. Entries are never removed because the bot has no command to forget a channel.
+ * <p>
+ * Reads are optimistic reads of a StampedLock, so they don't block each other. Writes take the write lock.
+ * When the dictionary is full (Short.MAX_VALUE names), a new name is kept in the ConcurrentHashMap and the table has
+ * OTHERS for the channel.
+ */
+public class ChannelSystemMap {
+	private static final long EMPTY = 0;
+	private static final short OTHERS = -1;
+	private static final int NOT_FOUND = -2;
+	private static final int MAX_NAMES = Short.MAX_VALUE;
+	private static final int INITIAL_CAPACITY = 16;
+	private static final double LOAD_FACTOR = 0.6;
+	private static final int FOR_EACH_CHUNK = 1024;
+	private final StampedLock lock = new StampedLock();
+	private final Map<String, String> others = new ConcurrentHashMap<String, String>();
+	private final Map<String, Short> nameIds = new HashMap<String, Short>();
+	private String[] names = new String[INITIAL_CAPACITY];
+	private int nameCount = 0;
+	private long[] keys = new long[INITIAL_CAPACITY];
+	private short[] values = new short[INITIAL_CAPACITY];
+	private int tableSize = 0;
+	private int othersInTable = 0;
+
+	/**
+	 * @param channel
+	 * @return the channel id, or EMPTY if the channel is not kept in the table
+	 */
+	private static long parseId(String channel) {
+		int length = channel.length();
+		if(length == 0 || length > 19 || channel.charAt(0) == '0') {
+			return EMPTY;
+		}
+		long id = 0;
+		for(int i = 0; i < length; i++) {
+			int digit = channel.charAt(i) - '0';
+			if(digit < 0 || digit > 9) {
+				return EMPTY;
+			}
+			id = id * 10 + digit;
+		}
+		// A 19 digits number larger than Long.MAX_VALUE overflows
+		return (id < 0) ? EMPTY : id;
+	}
+
+	private static int slot(long id, int mask) {
+		return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+	}
+
+	/**
+	 * @return the value of the id, or NOT_FOUND. It can be wrong if a write runs at the same time, so it must be validated.
+	 */
+	private static int find(long[] keys, short[] values, long id) {
+		if(keys.length != values.length) {
+			// Arrays of before and after a resize
+			return NOT_FOUND;
+		}
+		int mask = keys.length - 1;
+		int index = slot(id, mask);
+		for(int i = 0; i < keys.length; i++) {
+			long key = keys[index];
+			if(key == id) {
+				return values[index];
+			}
+			if(key == EMPTY) {
+				return NOT_FOUND;
+			}
+			index = (index + 1) & mask;
+		}
+		return NOT_FOUND;
+	}
+
+	/**
+	 * @return the slot of the id, or -1
+	 */
+	private int indexOf(long id) {
+		int mask = keys.length - 1;
+		int index = slot(id, mask);
+		while(keys[index] != EMPTY) {
+			if(keys[index] == id) {
+				return index;
+			}
+			index = (index + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param channel
+	 * @return the system of the channel, or null
+	 */
+	public String get(String channel) {
+		long id = parseId(channel);
+		if(id == EMPTY) {
+			return others.get(channel);
+		}
+		long stamp = lock.tryOptimisticRead();
+		String[] currentNames = names;
+		int value = find(keys, values, id);
+		if(! lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				currentNames = names;
+				value = find(keys, values, id);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		if(value == OTHERS) {
+			return others.get(channel);
+		}
+		return (value >= 0) ? currentNames[value] : null;
+	}
+
+	/**
+	 * @param channel
+	 * @param system
+	 * @return the previous system, or null
+	 */
+	public String put(String channel, String system) {
+		long id = parseId(channel);
+		if(id == EMPTY) {
+			return others.put(channel, system);
+		}
+		long stamp = lock.writeLock();
+		try {
+			return putInTable(channel, id, system);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * @return the system of the channel after this
+	 */
+	public String putIfAbsent(String channel, String system) {
+		long id = parseId(channel);
+		if(id == EMPTY) {
+			String previous = others.putIfAbsent(channel, system);
+			return (previous == null) ? system : previous;
+		}
+		long stamp = lock.writeLock();
+		try {
+			int index = indexOf(id);
+			if(index >= 0) {
+				return (values[index] == OTHERS) ? others.get(channel) : names[values[index]];
+			}
+			putInTable(channel, id, system);
+			return system;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	private String putInTable(String channel, long id, String system) {
+		short value = getNameId(system);
+		int index = indexOf(id);
+		String previous = null;
+		if(index >= 0) {
+			if(values[index] == OTHERS) {
+				previous = (value == OTHERS) ? others.put(channel, system) : others.remove(channel);
+				othersInTable -= (value == OTHERS) ? 0 : 1;
+			} else {
+				previous = names[values[index]];
+				if(value == OTHERS) {
+					others.put(channel, system);
+					othersInTable++;
+				}
+			}
+			values[index] = value;
+			return previous;
+		}
+		if(tableSize + 1 > keys.length * LOAD_FACTOR) {
+			resize();
+		}
+		if(value == OTHERS) {
+			others.put(channel, system);
+			othersInTable++;
+		}
+		int mask = keys.length - 1;
+		index = slot(id, mask);
+		while(keys[index] != EMPTY) {
+			index = (index + 1) & mask;
+		}
+		values[index] = value;
+		keys[index] = id;
+		tableSize++;
+		return null;
+	}
+
+	/**
+	 * @return the id of the name in the dictionary, or OTHERS if it is full
+	 */
+	private short getNameId(String system) {
+		Short id = nameIds.get(system);
+		if(id != null) {
+			return id;
+		}
+		if(nameCount >= MAX_NAMES) {
+			return OTHERS;
+		}
+		if(nameCount == names.length) {
+			String[] newNames = new String[Math.min(names.length * 2, MAX_NAMES)];
+			System.arraycopy(names, 0, newNames, 0, nameCount);
+			names = newNames;
+		}
+		short newId = (short) nameCount;
+		names[nameCount++] = system;
+		nameIds.put(system, newId);
+		return newId;
+	}
+
+	private void resize() {
+		long[] oldKeys = keys;
+		short[] oldValues = values;
+		long[] newKeys = new long[oldKeys.length * 2];
+		short[] newValues = new short[oldKeys.length * 2];
+		int mask = newKeys.length - 1;
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldKeys[i] == EMPTY) {
+				continue;
+			}
+			int index = slot(oldKeys[i], mask);
+			while(newKeys[index] != EMPTY) {
+				index = (index + 1) & mask;
+			}
+			newKeys[index] = oldKeys[i];
+			newValues[index] = oldValues[i];
+		}
+		keys = newKeys;
+		values = newValues;
+	}
+
+	public int size() {
+		long stamp = lock.readLock();
+		try {
+			return tableSize - othersInTable + others.size();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * @return number of the system names in the dictionary
+	 */
+	int getNameCount() {
+		long stamp = lock.readLock();
+		try {
+			return nameCount;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Call the action for each channel without copying the map. The lock is taken for every FOR_EACH_CHUNK slots
+	 * and released while the action runs, so writes are not blocked during a long export.
+	 * Like the iterators of ConcurrentHashMap, a change during this may or may not be seen.
+	 * @param action called with the channel and the system
+	 */
+	public void forEach(BiConsumer<String, String> action) {
+		others.forEach(action);
+		long[] chunkKeys = new long[FOR_EACH_CHUNK];
+		String[] chunkSystems = new String[FOR_EACH_CHUNK];
+		for(int start = 0; ; start += FOR_EACH_CHUNK) {
+			int count = 0;
+			long stamp = lock.readLock();
+			try {
+				if(start >= keys.length) {
+					return;
+				}
+				int end = Math.min(start + FOR_EACH_CHUNK, keys.length);
+				for(int i = start; i < end; i++) {
+					if(keys[i] != EMPTY && values[i] != OTHERS) {
+						chunkKeys[count] = keys[i];
+						chunkSystems[count] = names[values[i]];
+						count++;
+					}
+				}
+			} finally {
+				lock.unlockRead(stamp);
+			}
+			for(int i = 0; i < count; i++) {
+				action.accept(Long.toString(chunkKeys[i]), chunkSystems[i]);
+			}
+		}
+	}
+
+	/**
+	 * @return copy of channel to system
+	 */
+	public Map<String, String> toMap() {
+		long stamp = lock.readLock();
+		try {
+			Map<String, String> result = new HashMap<String, String>(others);
+			for(int i = 0; i < keys.length; i++) {
+				if(keys[i] != EMPTY && values[i] != OTHERS) {
+					result.put(Long.toString(keys[i]), names[values[i]]);
+				}
+			}
+			return result;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+}
@@ -0,0 +1,318 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * System of each channel, kept over restarts.
+ * <p>
+ * The map is a ChannelSystemMap, so getting the system of a channel for a message doesn't take a lock.
+ * A change is appended to the write-ahead log (<code>PATH.wal</code>) and synced before it is applied to the map.
+ * If the log can't be written, the change is not applied and the caller gets the IOException.
+ * When the log has as many records as the channels, all the channels are written to the snapshot (<code>PATH.snapshot</code>)
+ * through a temporary file and the log is emptied. On start, the snapshot is read and then the log is replayed.
+ * A partially written record at the end of the log, left by a crash, is cut off.
+ * <p>
+ * Log record: <code>int length, int CRC32, channel, system</code> (modified UTF-8).
+ * Snapshot: magic "BCCS", version, number of channels, (channel, system) for each, then CRC32 of all before it.
+ * <p>
+ * Only one store may use the files at a time, because taking a snapshot empties the log.
+ * DiceClientFactory shares one store among the clients.
+ */
+public class ChannelSystemStore {
+	private static final String DEFAULT_PATH = "./channelSystems";
+	private static final int MAGIC = 0x42434353;
+	private static final int VERSION = 1;
+	private static final int MIN_RECORDS_TO_SNAPSHOT = 1000;
+	private static final int MAX_RECORD_SIZE = 256 * 1024;
+	private final ChannelSystemMap systems = new ChannelSystemMap();
+	private final File snapshotFile;
+	private final File logFile;
+	private final Logger logger = LoggerFactory.getLogger(ChannelSystemStore.class);
+	private FileOutputStream log;
+	private int logCount = 0;
+
+	/**
+	 * @param path prefix of the files. If null, the systems are kept only in the memory.
+	 */
+	public ChannelSystemStore(String path) {
+		if(path == null) {
+			snapshotFile = null;
+			logFile = null;
+			return;
+		}
+		snapshotFile = new File(path + ".snapshot");
+		logFile = new File(path + ".wal");
+		readSnapshot();
+		replayLog();
+	}
+
+	/**
+	 * @return the store at BCDICE_CHANNEL_SYSTEMS or ./channelSystems. It is kept only in the memory when the value is "none".
+	 */
+	public static ChannelSystemStore getDefault() {
+		String path = System.getenv("BCDICE_CHANNEL_SYSTEMS");
+		if(path == null) {
+			return new ChannelSystemStore(DEFAULT_PATH);
+		}
+		return new ChannelSystemStore(path.equalsIgnoreCase("none") ? null : path.trim());
+	}
+
+	private void readSnapshot() {
+		if(! snapshotFile.exists()) {
+			return;
+		}
+		Map<String, String> loaded = new HashMap<String, String>();
+		try (CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)), new CRC32())) {
+			DataInputStream input = new DataInputStream(checked);
+			if(input.readInt() != MAGIC || input.readInt() != VERSION) {
+				throw new IOException("Unknown format");
+			}
+			int count = input.readInt();
+			for(int i = 0; i < count; i++) {
+				loaded.put(input.readUTF(), input.readUTF());
+			}
+			long checksum = checked.getChecksum().getValue();
+			if(input.readLong() != checksum) {
+				throw new IOException("Checksum mismatch");
+			}
+			loaded.forEach(systems::put);
+		} catch (IOException e) {
+			logger.warn(String.format("部屋設定のスナップショット %s を読み込めませんでした", snapshotFile), e);
+		}
+	}
+
+	private void replayLog() {
+		if(! logFile.exists()) {
+			return;
+		}
+		long validLength = 0;
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+			byte[] payload;
+			while((payload = readRecord(input)) != null) {
+				DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+				systems.put(record.readUTF(), record.readUTF());
+				validLength += 8 + payload.length;
+				logCount++;
+			}
+		} catch (IOException e) {
+			logger.warn(String.format("部屋設定のログ %s を読み込めませんでした", logFile), e);
+		}
+		if(validLength < logFile.length()) {
+			logger.warn(String.format("部屋設定のログ %s の末尾 %s バイトが壊れているため切り捨てます", logFile, logFile.length() - validLength));
+			try (RandomAccessFile truncate = new RandomAccessFile(logFile, "rw")) {
+				truncate.setLength(validLength);
+			} catch (IOException e) {
+				logger.warn(String.format("部屋設定のログ %s を切り詰められませんでした", logFile), e);
+			}
+		}
+	}
+
+	/**
+	 * @return the payload, or null at the end of the valid records
+	 */
+	private static byte[] readRecord(DataInputStream input) throws IOException {
+		try {
+			int length = input.readInt();
+			int checksum = input.readInt();
+			if(length < 0 || length > MAX_RECORD_SIZE) {
+				return null;
+			}
+			byte[] payload = new byte[length];
+			input.readFully(payload);
+			return (checksum(payload) == checksum) ? payload : null;
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+
+	private static int checksum(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+		return (int) crc.getValue();
+	}
+
+	private static void writeRecord(DataOutputStream output, String channel, String system) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream payload = new DataOutputStream(bytes);
+		payload.writeUTF(channel);
+		payload.writeUTF(system);
+		byte[] record = bytes.toByteArray();
+		output.writeInt(record.length);
+		output.writeInt(checksum(record));
+		output.write(record);
+	}
+
+	/**
+	 * @param channel
+	 * @return the system of the channel, or null
+	 */
+	public String get(String channel) {
+		return systems.get(channel);
+	}
+
+	/**
+	 * Set the system only in the memory if the channel doesn't have one, for the default value.
+	 */
+	public void putDefault(String channel, String system) {
+		systems.putIfAbsent(channel, system);
+	}
+
+	public void put(String channel, String system) throws IOException {
+		putAll(Collections.singletonMap(channel, system));
+	}
+
+	/**
+	 * Write the systems to the log with one sync, and then set them.
+	 * @param channelSystems channel to system
+	 * @throws IOException When the log can't be written. No system is changed then.
+	 */
+	public synchronized void putAll(Map<String, String> channelSystems) throws IOException {
+		Map<String, String> changed = new LinkedHashMap<String, String>();
+		for(Map.Entry<String, String> entry : channelSystems.entrySet()) {
+			if(! entry.getValue().equals(systems.get(entry.getKey()))) {
+				changed.put(entry.getKey(), entry.getValue());
+			}
+		}
+		if(changed.isEmpty()) {
+			return;
+		}
+		if(logFile != null) {
+			appendToLog(changed);
+		}
+		changed.forEach(systems::put);
+		if(logFile != null && logCount >= Math.max(MIN_RECORDS_TO_SNAPSHOT, systems.size())) {
+			try {
+				writeSnapshot();
+			} catch (IOException e) {
+				// The records are in the log, so they are not lost. The snapshot is tried again on the next change.
+				logger.warn(String.format("部屋設定のスナップショット %s を保存できませんでした", snapshotFile), e);
+			}
+		}
+	}
+
+	/**
+	 * Append the records and sync. If it fails, the log is cut back to the length before it,
+	 * so that a partial record doesn't hide the records written after it.
+	 */
+	private void appendToLog(Map<String, String> changed) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream records = new DataOutputStream(bytes);
+		for(Map.Entry<String, String> entry : changed.entrySet()) {
+			writeRecord(records, entry.getKey(), entry.getValue());
+		}
+		if(log == null) {
+			log = new FileOutputStream(logFile, true);
+		}
+		long length = log.getChannel().size();
+		try {
+			log.write(bytes.toByteArray());
+			log.getFD().sync();
+		} catch (IOException e) {
+			try {
+				log.getChannel().truncate(length);
+			} catch (IOException truncateError) {
+				e.addSuppressed(truncateError);
+			}
+			throw e;
+		}
+		logCount += changed.size();
+	}
+
+	/**
+	 * Write all the channels to the snapshot and empty the log.
+	 * The log is replayed on the snapshot if the process stops between them, which gives the same systems.
+	 */
+	private void writeSnapshot() throws IOException {
+		File directory = snapshotFile.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile(snapshotFile.getName(), ".tmp", directory);
+		try {
+			try (FileOutputStream tempOutput = new FileOutputStream(temp)) {
+				CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(tempOutput), new CRC32());
+				DataOutputStream output = new DataOutputStream(checked);
+				Map<String, String> current = systems.toMap();
+				output.writeInt(MAGIC);
+				output.writeInt(VERSION);
+				output.writeInt(current.size());
+				for(Map.Entry<String, String> entry : current.entrySet()) {
+					output.writeUTF(entry.getKey());
+					output.writeUTF(entry.getValue());
+				}
+				output.writeLong(checked.getChecksum().getValue());
+				output.flush();
+				tempOutput.getFD().sync();
+			}
+			try {
+				Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+		log.getChannel().truncate(0);
+		log.getFD().sync();
+		logCount = 0;
+	}
+
+	/**
+	 * @return copy of channel to system
+	 */
+	public Map<String, String> asMap() {
+		return systems.toMap();
+	}
+
+	/**
+	 * Call the action for each channel without copying the map.
+	 * @see ChannelSystemMap#forEach(BiConsumer)
+	 */
+	public void forEach(BiConsumer<String, String> action) {
+		systems.forEach(action);
+	}
+
+	/**
+	 * Close the log. It is opened again if a system is set after this.
+	 */
+	public synchronized void close() {
+		if(log == null) {
+			return;
+		}
+		try {
+			log.close();
+		} catch (IOException e) {
+			logger.warn(String.format("部屋設定のログ %s を閉じられませんでした", logFile), e);
+		}
+		log = null;
+	}
+
+	/**
+	 * @return number of the records in the log
+	 */
+	synchronized int getLogCount() {
+		return logCount;
+	}
+}
@@ -0,0 +1,36 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.util.regex.Pattern;
+
+/**
+ * The command pattern of a system with its prefilter.
+ */
+public class CommandMatcher {
+	private final Pattern pattern;
+	private final CommandPrefilter prefilter;
+
+	/**
+	 * @param regex command_pattern of the system
+	 * @throws java.util.regex.PatternSyntaxException When the pattern is broken
+	 */
+	public CommandMatcher(String regex) {
+		pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+		prefilter = CommandPrefilter.of(regex, true);
+	}
+
+	/**
+	 * @param command
+	 * @return the same as Pattern#matcher(command).find()
+	 */
+	public boolean find(String command) {
+		return prefilter.mayMatch(command) && pattern.matcher(command).find();
+	}
+
+	public String pattern() {
+		return pattern.pattern();
+	}
+
+	public CommandPrefilter getPrefilter() {
+		return prefilter;
+	}
+}
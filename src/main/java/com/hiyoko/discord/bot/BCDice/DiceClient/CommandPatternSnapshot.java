@@ -0,0 +1,103 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+
+/**
+ * Local copy of the command patterns of the systems, so that the bot can judge dice commands
+ * without asking BCDice-API right after it starts.
+ * <p>
+ * The file is JSON: <code>{"version": "BCDice: x / API: y", "patterns": {"DiceBot": "..."}}</code>
+ */
+public class CommandPatternSnapshot {
+	private static final String DEFAULT_SNAPSHOT_PATH = "./dicePatterns.json";
+	private final File file;
+	private volatile String version = "";
+
+	/**
+	 * @param path the snapshot file. If null, nothing is loaded or saved.
+	 */
+	public CommandPatternSnapshot(String path) {
+		file = (path == null) ? null : new File(path);
+	}
+
+	/**
+	 * @return the snapshot at BCDICE_PATTERN_SNAPSHOT or ./dicePatterns.json. It is disabled when the value is "none".
+	 */
+	public static CommandPatternSnapshot getDefault() {
+		String path = System.getenv("BCDICE_PATTERN_SNAPSHOT");
+		if(path == null) {
+			return new CommandPatternSnapshot(DEFAULT_SNAPSHOT_PATH);
+		}
+		return new CommandPatternSnapshot(path.equalsIgnoreCase("none") ? null : path);
+	}
+
+	/**
+	 * @return system name to command pattern. Empty if the file doesn't exist or is broken.
+	 */
+	public Map<String, String> load() {
+		Map<String, String> result = new HashMap<String, String>();
+		if(file == null || ! file.exists()) {
+			return result;
+		}
+		try {
+			JsonObject json = Json.parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8)).asObject();
+			version = json.getString("version", "");
+			for(JsonObject.Member member : json.get("patterns").asObject()) {
+				result.put(member.getName(), member.getValue().asString());
+			}
+		} catch (IOException | RuntimeException e) {
+			System.err.println(String.format("Failed to load the command pattern snapshot %s: %s", file, e.getMessage()));
+			result.clear();
+			version = "";
+		}
+		return result;
+	}
+
+	/**
+	 * @return the BCDice version of the loaded or saved patterns
+	 */
+	public String getVersion() {
+		return version;
+	}
+
+	/**
+	 * Write the snapshot to a temporary file and move it, so that a crash never leaves a broken file.
+	 * @param version the BCDice version which the patterns came from
+	 * @param patterns system name to command pattern
+	 * @throws IOException
+	 */
+	public synchronized void save(String version, Map<String, String> patterns) throws IOException {
+		this.version = version;
+		if(file == null) {
+			return;
+		}
+		JsonObject patternJson = Json.object();
+		for(Map.Entry<String, String> pattern : patterns.entrySet()) {
+			patternJson.add(pattern.getKey(), pattern.getValue());
+		}
+		JsonValue json = Json.object().add("version", version).add("patterns", patternJson);
+		File directory = file.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile(file.getName(), ".tmp", directory);
+		try {
+			Files.write(temp.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+			try {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+}
@@ -0,0 +1,437 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.util.Arrays;
+
+/**
+ * Cheap check in front of the command pattern of a system.
+ * <p>
+ * It collects the characters which a match of the pattern can start with. Most chat messages are not dice commands,
+ * and their first character is enough to know that the pattern never matches them, without running the regex.
+ * When the pattern uses a syntax which is not analyzed here, every message is passed to the regex,
+ * so the result with the prefilter is always the same as the regex alone.
+ */
+public class CommandPrefilter {
+	private static final CommandPrefilter ACCEPT_ALL = new CommandPrefilter(CharSet.any(), false);
+	private final CharSet first;
+	private final boolean anchored;
+
+	private CommandPrefilter(CharSet first, boolean anchored) {
+		this.first = first;
+		this.anchored = anchored;
+	}
+
+	/**
+	 * @param regex command pattern
+	 * @param caseInsensitive If true, ASCII letters are matched ignoring the case like Pattern.CASE_INSENSITIVE
+	 * @return the prefilter for the pattern
+	 */
+	public static CommandPrefilter of(String regex, boolean caseInsensitive) {
+		try {
+			Parser parser = new Parser(regex, caseInsensitive);
+			Node node = parser.parseTopLevel();
+			if(parser.hasMore() || node.nullable) {
+				return ACCEPT_ALL;
+			}
+			return new CommandPrefilter(node.first, parser.anchored);
+		} catch (RuntimeException e) {
+			// UnsupportedOperationException for the syntax which is not analyzed, or a broken pattern
+			return ACCEPT_ALL;
+		}
+	}
+
+	/**
+	 * @param input
+	 * @return false if the pattern never matches the input. true doesn't mean the pattern matches.
+	 */
+	public boolean mayMatch(CharSequence input) {
+		if(first.any) {
+			return true;
+		}
+		if(anchored) {
+			return input.length() > 0 && first.contains(input.charAt(0));
+		}
+		for(int i = 0; i < input.length(); i++) {
+			if(first.contains(input.charAt(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if every input is passed to the regex
+	 */
+	public boolean isAcceptAll() {
+		return first.any;
+	}
+
+	/**
+	 * Characters a match can start with. ASCII is kept as a bitmap, and a few other characters as a sorted array.
+	 * CASE_INSENSITIVE without UNICODE_CASE ignores the case of ASCII only, so other characters are kept as they are.
+	 */
+	private static class CharSet {
+		private static final int MAX_NON_ASCII = 64;
+		private long low = 0;
+		private long high = 0;
+		private char[] nonAscii = new char[0];
+		private boolean anyNonAscii = false;
+		private boolean any = false;
+
+		private static CharSet any() {
+			CharSet result = new CharSet();
+			result.any = true;
+			return result;
+		}
+
+		private void add(char c, boolean caseInsensitive) {
+			if(c >= 128) {
+				addNonAscii(c);
+			} else if(c < 64) {
+				low |= 1L << c;
+			} else {
+				high |= 1L << (c - 64);
+			}
+			if(caseInsensitive && c < 128 && Character.isLetter(c)) {
+				char other = Character.isUpperCase(c) ? Character.toLowerCase(c) : Character.toUpperCase(c);
+				if(other != c) {
+					add(other, false);
+				}
+			}
+		}
+
+		private void addNonAscii(char c) {
+			if(anyNonAscii || Arrays.binarySearch(nonAscii, c) >= 0) {
+				return;
+			}
+			if(nonAscii.length >= MAX_NON_ASCII) {
+				anyNonAscii = true;
+				return;
+			}
+			nonAscii = Arrays.copyOf(nonAscii, nonAscii.length + 1);
+			nonAscii[nonAscii.length - 1] = c;
+			Arrays.sort(nonAscii);
+		}
+
+		private void addRange(char from, char to, boolean caseInsensitive) {
+			if(to >= 128) {
+				anyNonAscii = true;
+			}
+			for(int c = from; c <= Math.min(to, 127); c++) {
+				add((char) c, caseInsensitive);
+			}
+		}
+
+		private void addAll(CharSet other) {
+			low |= other.low;
+			high |= other.high;
+			for(char c : other.nonAscii) {
+				addNonAscii(c);
+			}
+			anyNonAscii |= other.anyNonAscii;
+			any |= other.any;
+		}
+
+		private boolean contains(char c) {
+			if(c >= 128) {
+				return anyNonAscii || Arrays.binarySearch(nonAscii, c) >= 0;
+			}
+			if(c < 64) {
+				return (low & (1L << c)) != 0;
+			}
+			return (high & (1L << (c - 64))) != 0;
+		}
+	}
+
+	/**
+	 * The characters a part of the pattern can start with, and whether it can match the empty string.
+	 */
+	private static class Node {
+		private final CharSet first;
+		private final boolean nullable;
+
+		private Node(CharSet first, boolean nullable) {
+			this.first = first;
+			this.nullable = nullable;
+		}
+	}
+
+	/**
+	 * Recursive descent parser for the regex syntax which the command patterns of BCDice use.
+	 * It throws UnsupportedOperationException for anything else.
+	 */
+	private static class Parser {
+		private final String regex;
+		private final boolean caseInsensitive;
+		private int pos = 0;
+		/** true if every top-level branch starts with ^ */
+		private boolean anchored = true;
+
+		private Parser(String regex, boolean caseInsensitive) {
+			this.regex = regex;
+			this.caseInsensitive = caseInsensitive;
+		}
+
+		private boolean hasMore() {
+			return pos < regex.length();
+		}
+
+		private char peek() {
+			return regex.charAt(pos);
+		}
+
+		private boolean consumeStartAnchor() {
+			if(hasMore() && peek() == '^') {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Same as parseAlternation, but a ^ at the start of each branch is consumed.
+		 * With ^a|b, only the first branch is anchored, so the pattern is not.
+		 */
+		private Node parseTopLevel() {
+			CharSet first = new CharSet();
+			boolean nullable = false;
+			while(true) {
+				anchored &= consumeStartAnchor();
+				Node branch = parseSequence();
+				first.addAll(branch.first);
+				nullable |= branch.nullable;
+				if(hasMore() && peek() == '|') {
+					pos++;
+				} else {
+					return new Node(first, nullable);
+				}
+			}
+		}
+
+		private Node parseAlternation() {
+			CharSet first = new CharSet();
+			boolean nullable = false;
+			while(true) {
+				Node branch = parseSequence();
+				first.addAll(branch.first);
+				nullable |= branch.nullable;
+				if(hasMore() && peek() == '|') {
+					pos++;
+				} else {
+					return new Node(first, nullable);
+				}
+			}
+		}
+
+		private Node parseSequence() {
+			CharSet first = new CharSet();
+			boolean nullable = true;
+			while(hasMore() && peek() != '|' && peek() != ')') {
+				Node item = parseQuantified();
+				if(nullable) {
+					first.addAll(item.first);
+					nullable = item.nullable;
+				}
+			}
+			return new Node(first, nullable);
+		}
+
+		private Node parseQuantified() {
+			Node atom = parseAtom();
+			boolean nullable = atom.nullable;
+			while(hasMore()) {
+				char c = peek();
+				if(c == '?' || c == '*') {
+					pos++;
+					nullable = true;
+				} else if(c == '+') {
+					pos++;
+				} else if(c == '{') {
+					int end = regex.indexOf('}', pos);
+					if(end < 0) {
+						throw new UnsupportedOperationException();
+					}
+					String min = regex.substring(pos + 1, end).split(",", -1)[0].trim();
+					if(! min.matches("\\d+")) {
+						throw new UnsupportedOperationException();
+					}
+					nullable |= Integer.parseInt(min) == 0;
+					pos = end + 1;
+				} else {
+					break;
+				}
+				// Lazy and possessive quantifiers
+				if(hasMore() && (peek() == '?' || peek() == '+')) {
+					pos++;
+				}
+			}
+			return new Node(atom.first, nullable);
+		}
+
+		private Node parseAtom() {
+			char c = regex.charAt(pos++);
+			switch (c) {
+			case '(':
+				return parseGroup();
+			case '[':
+				return new Node(parseClass(), false);
+			case '.':
+				return new Node(CharSet.any(), false);
+			case '^':
+			case '$':
+				return new Node(new CharSet(), true);
+			case '\\':
+				return parseEscape();
+			default:
+				CharSet set = new CharSet();
+				set.add(c, caseInsensitive);
+				return new Node(set, false);
+			}
+		}
+
+		private Node parseGroup() {
+			if(regex.startsWith("?:", pos)) {
+				pos += 2;
+			} else if(regex.startsWith("?<", pos) && pos + 2 < regex.length() && Character.isLetter(regex.charAt(pos + 2))) {
+				int end = regex.indexOf('>', pos);
+				if(end < 0) {
+					throw new UnsupportedOperationException();
+				}
+				pos = end + 1;
+			} else if(hasMore() && peek() == '?') {
+				// Lookaround and inline flags change what can match
+				throw new UnsupportedOperationException();
+			}
+			Node inner = parseAlternation();
+			if(! hasMore() || peek() != ')') {
+				throw new UnsupportedOperationException();
+			}
+			pos++;
+			return inner;
+		}
+
+		private Node parseEscape() {
+			if(! hasMore()) {
+				throw new UnsupportedOperationException();
+			}
+			char c = regex.charAt(pos++);
+			CharSet set = new CharSet();
+			switch (c) {
+			case 'b':
+			case 'B':
+			case 'A':
+			case 'G':
+			case 'z':
+			case 'Z':
+				return new Node(set, true);
+			default:
+				addEscapedChar(c, set);
+				return new Node(set, false);
+			}
+		}
+
+		/**
+		 * Add the characters of the escape sequence after the backslash.
+		 */
+		private void addEscapedChar(char c, CharSet set) {
+			switch (c) {
+			case 'd':
+				set.addRange('0', '9', false);
+				return;
+			case 'w':
+				set.addRange('a', 'z', false);
+				set.addRange('A', 'Z', false);
+				set.addRange('0', '9', false);
+				set.add('_', false);
+				return;
+			case 's':
+				for(char space : " \t\n\u000B\f\r".toCharArray()) {
+					set.add(space, false);
+				}
+				return;
+			case 't':
+				set.add('\t', false);
+				return;
+			case 'n':
+				set.add('\n', false);
+				return;
+			case 'r':
+				set.add('\r', false);
+				return;
+			case 'f':
+				set.add('\f', false);
+				return;
+			case 'x':
+				set.add((char) Integer.parseInt(take(2), 16), caseInsensitive);
+				return;
+			case 'u':
+				set.add((char) Integer.parseInt(take(4), 16), caseInsensitive);
+				return;
+			default:
+				if(Character.isLetterOrDigit(c)) {
+					// \D, \p{...}, back references and so on
+					throw new UnsupportedOperationException();
+				}
+				set.add(c, caseInsensitive);
+			}
+		}
+
+		private String take(int length) {
+			if(pos + length > regex.length()) {
+				throw new UnsupportedOperationException();
+			}
+			String result = regex.substring(pos, pos + length);
+			pos += length;
+			return result;
+		}
+
+		private CharSet parseClass() {
+			CharSet set = new CharSet();
+			if(hasMore() && peek() == '^') {
+				throw new UnsupportedOperationException();
+			}
+			boolean firstChar = true;
+			while(true) {
+				if(! hasMore()) {
+					throw new UnsupportedOperationException();
+				}
+				char c = regex.charAt(pos++);
+				if(c == ']' && ! firstChar) {
+					return set;
+				}
+				firstChar = false;
+				if(c == '[' || (c == '&' && hasMore() && peek() == '&')) {
+					throw new UnsupportedOperationException();
+				}
+				if(c == '\\') {
+					if(! hasMore()) {
+						throw new UnsupportedOperationException();
+					}
+					char escaped = regex.charAt(pos++);
+					if(Character.isLetterOrDigit(escaped) && "dwstnrfxu".indexOf(escaped) < 0) {
+						throw new UnsupportedOperationException();
+					}
+					if(isRangeStart()) {
+						// A range from an escaped character is rare. Don't analyze it.
+						throw new UnsupportedOperationException();
+					}
+					addEscapedChar(escaped, set);
+					continue;
+				}
+				if(isRangeStart()) {
+					pos++;
+					char to = regex.charAt(pos++);
+					if(to == '\\' || to == '[') {
+						throw new UnsupportedOperationException();
+					}
+					set.addRange(c, to, caseInsensitive);
+				} else {
+					set.add(c, caseInsensitive);
+				}
+			}
+		}
+
+		private boolean isRangeStart() {
+			return pos + 1 < regex.length() && peek() == '-' && regex.charAt(pos + 1) != ']';
+		}
+	}
+}
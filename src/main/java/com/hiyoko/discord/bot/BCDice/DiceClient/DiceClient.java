@@ -3,6 +3,7 @@ package com.hiyoko.discord.bot.BCDice.DiceClient;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 import com.hiyoko.discord.bot.BCDice.dto.DicerollResult;
 import com.hiyoko.discord.bot.BCDice.dto.OriginalDiceBotTable;
@@ -30,6 +31,12 @@ public interface DiceClient {
 	 */
 	public List<String> getDiceUrlList();
 
+	/**
+	 * 
+	 * @return dice server list with the health of each server
+	 */
+	public List<String> getDiceServerStatus();
+
 	/**
 	 * 
 	 * @param url
@@ -101,6 +108,14 @@ public interface DiceClient {
 	 * @return new current system.
 	 */
 	public String setSystem(String newSystem, String channel);
+
+	/**
+	 * change the systems of the channels at once.
+	 * @param channelSystems channel to system
+	 */
+	public default void setSystems(Map<String, String> channelSystems) {
+		channelSystems.forEach((channel, newSystem) -> setSystem(newSystem, channel));
+	}
 	
 	/**
 	 * 
@@ -120,6 +135,14 @@ public interface DiceClient {
 	 */
 	public Map<String, String> getRoomsSystem();
 
+	/**
+	 * Call the action for each room without copying all the rooms.
+	 * @param action called with the channel and the system
+	 */
+	public default void forEachRoomSystem(BiConsumer<String, String> action) {
+		getRoomsSystem().forEach(action);
+	}
+
 	/**
 	 * 
 	 * @param command
@@ -138,4 +161,9 @@ public interface DiceClient {
 	public boolean isDiceCommand(String command, String system) throws IOException;
 	
 	public List<String> updateDiceBotsPrefixes();
+
+	/**
+	 * @return lines shown by the metrics admin command
+	 */
+	public List<String> getMetrics();
 }
@@ -1,9 +1,36 @@
 package com.hiyoko.discord.bot.BCDice.DiceClient;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 
 public class DiceClientFactory {
+	private static ChannelSystemStore channelSystems;
+	private static CommandPatternSnapshot patternSnapshot;
+
+	/**
+	 * The store at BCDICE_CHANNEL_SYSTEMS is opened once and shared by the clients, because only one store may use the files.
+	 * It is closed when the JVM stops.
+	 */
+	private static synchronized ChannelSystemStore getChannelSystems() {
+		if(channelSystems == null) {
+			ChannelSystemStore store = ChannelSystemStore.getDefault();
+			Runtime.getRuntime().addShutdownHook(new Thread(store::close, "channel-systems-close"));
+			channelSystems = store;
+		}
+		return channelSystems;
+	}
+
+	/**
+	 * The snapshot at BCDICE_PATTERN_SNAPSHOT is shared by the clients, so that they don't overwrite the file with each other.
+	 */
+	private static synchronized CommandPatternSnapshot getPatternSnapshot() {
+		if(patternSnapshot == null) {
+			patternSnapshot = CommandPatternSnapshot.getDefault();
+		}
+		return patternSnapshot;
+	}
+
 	public static DiceClient getDiceClient(String diceSeed) throws IOException {
 		try {
 			return getDiceClient(diceSeed, true);
@@ -20,7 +47,7 @@ public class DiceClientFactory {
 		}
 		if(isBcDice) {
 			try {
-				return new BCDiceV2Client(diceSeeds, errorSensitive);
+				return new BCDiceV2Client(diceSeeds, errorSensitive, new RetryPolicy(), getPatternSnapshot(), getChannelSystems());
 			}catch (IOException e) {
 				throw new IOException("ダイスボットの初期化に失敗しました", e);
 			}
@@ -32,7 +59,8 @@ public class DiceClientFactory {
 	public static DiceClient getDiceClient(String diceSeed, boolean errorSensitive) throws IOException {
 		if(diceSeed.startsWith("http")) {
 			try {
-				return new BCDiceV2Client(diceSeed, errorSensitive);
+				return new BCDiceV2Client(Collections.singletonList(diceSeed), errorSensitive, new RetryPolicy(),
+						getPatternSnapshot(), getChannelSystems());
 			}catch (IOException e) {
 				throw new IOException("ダイスボットの初期化に失敗しました", e);
 			}
@@ -6,6 +6,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Pattern;
 
 import com.hiyoko.discord.bot.BCDice.dto.DicerollResult;
@@ -14,7 +15,7 @@ import com.hiyoko.discord.bot.BCDice.dto.SystemInfo;
 import com.hiyoko.discord.bot.BCDice.dto.SystemList;
 import com.hiyoko.discord.bot.BCDice.dto.VersionInfo;
 
-public class DiceClientMock implements DiceClient {
+public class DiceClientMock implements AsyncDiceClient {
 	private final String[] systemList = {"Hiyoko", "Hitsuji", "Koneko", "hitsuji & hiyoko"};
 	private final Map<String, String> system = new HashMap<String, String>();
 	private static final String DEFAULT_CHANNEL = "general";
@@ -131,6 +132,16 @@ public class DiceClientMock implements DiceClient {
 		return new ArrayList<String>();
 	}
 
+	@Override
+	public List<String> getDiceServerStatus() {
+		return getDiceUrlList();
+	}
+
+	@Override
+	public List<String> getMetrics() {
+		return new ArrayList<String>();
+	}
+
 	@Override
 	public boolean removeDiceServer(String url) {
 		return true;
@@ -150,4 +161,34 @@ public class DiceClientMock implements DiceClient {
 	public List<String> updateDiceBotsPrefixes() {
 		return new ArrayList<String>();
 	}
+
+	@Override
+	public CompletableFuture<VersionInfo> getVersionAsync() {
+		return AsyncResults.of(() -> getVersion());
+	}
+
+	@Override
+	public CompletableFuture<SystemList> getSystemsAsync() {
+		return AsyncResults.of(() -> getSystems());
+	}
+
+	@Override
+	public CompletableFuture<SystemInfo> getSystemInfoAsync(String gameType) {
+		return AsyncResults.of(() -> getSystemInfo(gameType));
+	}
+
+	@Override
+	public CompletableFuture<DicerollResult> rollDiceAsync(String command, String system) {
+		return AsyncResults.of(() -> rollDice(command, system));
+	}
+
+	@Override
+	public CompletableFuture<DicerollResult> rollDiceWithChannelAsync(String command, String channel) {
+		return AsyncResults.of(() -> rollDiceWithChannel(command, channel));
+	}
+
+	@Override
+	public CompletableFuture<DicerollResult> rollOriginalDiceBotTableAsync(OriginalDiceBotTable diceBot) {
+		return AsyncResults.of(() -> rollOriginalDiceBotTable(diceBot));
+	}
 }
@@ -0,0 +1,48 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.util.Arrays;
+
+/**
+ * Latencies of the recent requests, used to decide when a request is late.
+ */
+public class LatencyWindow {
+	private final long[] samples;
+	private int next = 0;
+	private int size = 0;
+
+	/**
+	 * @param capacity how many recent latencies are kept
+	 */
+	public LatencyWindow(int capacity) {
+		samples = new long[capacity];
+	}
+
+	public synchronized void record(long latencyMillis) {
+		samples[next] = latencyMillis;
+		next = (next + 1) % samples.length;
+		if(size < samples.length) {
+			size++;
+		}
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @param percentile 0 - 100
+	 * @return the latency at the percentile, or -1 when there are no samples
+	 */
+	public long percentile(double percentile) {
+		long[] sorted;
+		synchronized (this) {
+			if(size == 0) {
+				return -1;
+			}
+			sorted = Arrays.copyOf(samples, size);
+		}
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+}
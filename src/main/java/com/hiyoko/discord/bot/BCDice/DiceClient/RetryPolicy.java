@@ -0,0 +1,144 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether and when a failed BCDice-API request is sent again.
+ * <p>
+ * The delay grows exponentially with full jitter so that the bots don't retry in lockstep.
+ * Each user request has an overall deadline, and all requests share a retry budget:
+ * every request deposits {@code budgetRatio} tokens and every retry takes one,
+ * so the retries stay a small part of the traffic while a server is struggling.
+ */
+public class RetryPolicy {
+	/** The status code used when no response was received */
+	public static final int NO_RESPONSE = -1;
+	private static final long TOKEN = 1000;
+	private static final long MIN_BUDGET_TOKENS = 10;
+
+	private final int maxRetries;
+	private final long baseDelayMillis;
+	private final long maxDelayMillis;
+	private final long deadlineMillis;
+	private final long depositPerRequest;
+	private final long budgetCapacity;
+	private final AtomicLong budget;
+	private final Map<Integer, Boolean> statusRules = new ConcurrentHashMap<Integer, Boolean>();
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong retryCount = new AtomicLong();
+	private final AtomicLong budgetExhaustedCount = new AtomicLong();
+	private final AtomicLong deadlineExceededCount = new AtomicLong();
+
+	/**
+	 * 5 retries from 200ms up to 5 seconds, 20 seconds for each request, and retries up to 10% of the requests.
+	 */
+	public RetryPolicy() {
+		this(5, 200, 5000, 20000, 0.1);
+	}
+
+	/**
+	 * @param maxRetries how many times a request can be retried
+	 * @param baseDelayMillis the upper bound of the first delay. It doubles on each retry.
+	 * @param maxDelayMillis the upper bound of the delay
+	 * @param deadlineMillis no retry is scheduled after this time passed since the request started
+	 * @param budgetRatio the ratio of the retries to the requests
+	 */
+	public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis, long deadlineMillis, double budgetRatio) {
+		this.maxRetries = maxRetries;
+		this.baseDelayMillis = baseDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+		this.deadlineMillis = deadlineMillis;
+		this.depositPerRequest = (long) (budgetRatio * TOKEN);
+		this.budgetCapacity = MIN_BUDGET_TOKENS * TOKEN;
+		this.budget = new AtomicLong(budgetCapacity);
+	}
+
+	/**
+	 * Override whether a response with the status code is retried.
+	 * By default, no response, 408, 429 and 5XX are retried.
+	 * @param statusCode HTTP status code or {@link #NO_RESPONSE}
+	 * @param retryable
+	 */
+	public void setRetryable(int statusCode, boolean retryable) {
+		statusRules.put(statusCode, retryable);
+	}
+
+	public boolean isRetryable(int statusCode) {
+		Boolean rule = statusRules.get(statusCode);
+		if(rule != null) {
+			return rule;
+		}
+		return statusCode == NO_RESPONSE || statusCode == 408 || statusCode == 429 || statusCode >= 500;
+	}
+
+	/**
+	 * Called once for each user request.
+	 * @return the deadline of the request in {@link System#nanoTime()}
+	 */
+	public long onRequest() {
+		requestCount.incrementAndGet();
+		budget.updateAndGet(current -> Math.min(budgetCapacity, current + depositPerRequest));
+		return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+	}
+
+	/**
+	 * @param retried how many times the request was already retried
+	 * @param statusCode the status code of the failed response or {@link #NO_RESPONSE}
+	 * @param deadlineNanos the value returned by {@link #onRequest()}
+	 * @return the delay before the next try in milliseconds, or -1 if the request should not be retried
+	 */
+	public long nextDelayMillis(int retried, int statusCode, long deadlineNanos) {
+		if(! isRetryable(statusCode) || retried >= maxRetries) {
+			return -1;
+		}
+		long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(retried, 30));
+		long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+		if(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay) > deadlineNanos) {
+			deadlineExceededCount.incrementAndGet();
+			return -1;
+		}
+		if(! withdraw()) {
+			budgetExhaustedCount.incrementAndGet();
+			return -1;
+		}
+		retryCount.incrementAndGet();
+		return delay;
+	}
+
+	private boolean withdraw() {
+		while(true) {
+			long current = budget.get();
+			if(current < TOKEN) {
+				return false;
+			}
+			if(budget.compareAndSet(current, current - TOKEN)) {
+				return true;
+			}
+		}
+	}
+
+	public long getRetryCount() {
+		return retryCount.get();
+	}
+
+	public long getBudgetExhaustedCount() {
+		return budgetExhaustedCount.get();
+	}
+
+	public long getDeadlineExceededCount() {
+		return deadlineExceededCount.get();
+	}
+
+	public List<String> getMetrics() {
+		List<String> result = new ArrayList<String>();
+		result.add(String.format("BCDice-API retry: requests: %s / retries: %s / budget exhausted: %s / deadline exceeded: %s / budget left: %.1f",
+				requestCount.get(), retryCount.get(), budgetExhaustedCount.get(), deadlineExceededCount.get(), (double) budget.get() / TOKEN));
+		return result;
+	}
+}
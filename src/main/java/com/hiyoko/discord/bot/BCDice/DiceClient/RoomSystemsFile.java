@@ -0,0 +1,95 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Room settings as a text file for moving them between instances.
+ * <p>
+ * Each line is <code>channel:system</code> in UTF-8, the same as the lines of the export command.
+ * The rooms are written and read one by one, so the memory doesn't depend on the number of rooms.
+ * The read rooms are set in batches of BATCH_SIZE, so that the store syncs its log once per batch.
+ */
+public class RoomSystemsFile {
+	private static final int BATCH_SIZE = 1000;
+	public static final int PROGRESS_INTERVAL = 10000;
+
+	/**
+	 * @param client the rooms of it are written
+	 * @param writer
+	 * @param progress called with the number of the written rooms every PROGRESS_INTERVAL rooms
+	 * @return number of the written rooms
+	 * @throws IOException
+	 */
+	public static int write(DiceClient client, Writer writer, IntConsumer progress) throws IOException {
+		int[] count = {0};
+		try {
+			client.forEachRoomSystem((channel, system) -> {
+				try {
+					writer.write(channel);
+					writer.write(':');
+					writer.write(system);
+					writer.write('\n');
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				if(++count[0] % PROGRESS_INTERVAL == 0) {
+					progress.accept(count[0]);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		writer.flush();
+		return count[0];
+	}
+
+	/**
+	 * Lines without a channel or a system, like "Room-System List" of the export command, are skipped.
+	 * @param reader
+	 * @param client the rooms are set to it
+	 * @param progress called with the number of the read rooms every PROGRESS_INTERVAL rooms
+	 * @return number of the read rooms
+	 * @throws IOException
+	 */
+	public static int read(BufferedReader reader, DiceClient client, IntConsumer progress) throws IOException {
+		Map<String, String> batch = new LinkedHashMap<String, String>();
+		int count = 0;
+		String line;
+		while((line = reader.readLine()) != null) {
+			line = line.trim();
+			int separator = line.indexOf(':');
+			if(separator <= 0 || separator == line.length() - 1) {
+				continue;
+			}
+			batch.put(line.substring(0, separator), line.substring(separator + 1));
+			if(batch.size() >= BATCH_SIZE) {
+				setSystems(client, batch);
+				batch.clear();
+			}
+			if(++count % PROGRESS_INTERVAL == 0) {
+				progress.accept(count);
+			}
+		}
+		if(! batch.isEmpty()) {
+			setSystems(client, batch);
+		}
+		return count;
+	}
+
+	/**
+	 * DiceClient#setSystems reports a failed write of the store as UncheckedIOException.
+	 */
+	private static void setSystems(DiceClient client, Map<String, String> batch) throws IOException {
+		try {
+			client.setSystems(batch);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Health of a BCDice-API server.
+ * It keeps EWMA of the latency and the error rate, and a circuit breaker.
+ * <p>
+ * CLOSED: requests are sent.<br/>
+ * OPEN: the server failed repeatedly. No requests are sent until the cool down passes.<br/>
+ * HALF_OPEN: one probe request is sent. If it succeeds the circuit is closed, if not it is opened again.
+ */
+public class ServerHealth {
+	public enum CircuitState { CLOSED, OPEN, HALF_OPEN }
+
+	private static final double LATENCY_ALPHA = 0.2;
+	private static final double ERROR_ALPHA = 0.1;
+	private static final int FAILURES_TO_OPEN = 3;
+	private static final double ERROR_RATE_TO_OPEN = 0.5;
+	private static final long DEFAULT_OPEN_MILLIS = 30 * 1000;
+
+	private final String url;
+	private final long openMillis;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private double latencyMillis = 0;
+	private boolean hasLatency = false;
+	private double errorRate = 0;
+	private int consecutiveFailures = 0;
+	private long successCount = 0;
+	private long failureCount = 0;
+	private CircuitState state = CircuitState.CLOSED;
+	private long openedAt = 0;
+	private boolean probing = false;
+
+	public ServerHealth(String url) {
+		this(url, DEFAULT_OPEN_MILLIS);
+	}
+
+	/**
+	 * @param url
+	 * @param openMillis how long the circuit stays open before a probe request is allowed
+	 */
+	public ServerHealth(String url, long openMillis) {
+		this.url = url;
+		this.openMillis = openMillis;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * @return true if a request can be sent to the server now. In HALF_OPEN, only the first caller gets true.
+	 */
+	public synchronized boolean tryAcquire() {
+		if(state == CircuitState.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+			state = CircuitState.HALF_OPEN;
+			probing = false;
+		}
+		if(state == CircuitState.OPEN) {
+			return false;
+		}
+		if(state == CircuitState.HALF_OPEN) {
+			if(probing) {
+				return false;
+			}
+			probing = true;
+		}
+		inFlight.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Send a request ignoring the circuit. Used when all servers are unavailable.
+	 */
+	public void forceAcquire() {
+		inFlight.incrementAndGet();
+	}
+
+	public synchronized boolean isAvailable() {
+		if(state == CircuitState.OPEN) {
+			return System.currentTimeMillis() - openedAt >= openMillis;
+		}
+		return ! (state == CircuitState.HALF_OPEN && probing);
+	}
+
+	public synchronized void recordSuccess(long latency) {
+		inFlight.decrementAndGet();
+		latencyMillis = hasLatency ? (LATENCY_ALPHA * latency + (1 - LATENCY_ALPHA) * latencyMillis) : latency;
+		hasLatency = true;
+		errorRate = (1 - ERROR_ALPHA) * errorRate;
+		consecutiveFailures = 0;
+		successCount++;
+		state = CircuitState.CLOSED;
+		probing = false;
+	}
+
+	public synchronized void recordFailure(long latency) {
+		inFlight.decrementAndGet();
+		if(hasLatency) {
+			latencyMillis = LATENCY_ALPHA * latency + (1 - LATENCY_ALPHA) * latencyMillis;
+		}
+		errorRate = ERROR_ALPHA + (1 - ERROR_ALPHA) * errorRate;
+		consecutiveFailures++;
+		failureCount++;
+		if(state == CircuitState.HALF_OPEN || consecutiveFailures >= FAILURES_TO_OPEN
+				|| (errorRate >= ERROR_RATE_TO_OPEN && successCount + failureCount >= 10)) {
+			state = CircuitState.OPEN;
+			openedAt = System.currentTimeMillis();
+		}
+		probing = false;
+	}
+
+	/**
+	 * Release the request which is cancelled before its result arrives.
+	 */
+	public synchronized void recordCancel() {
+		inFlight.decrementAndGet();
+		if(state == CircuitState.HALF_OPEN) {
+			probing = false;
+		}
+	}
+
+	/**
+	 * Lower is better. A server which has no samples yet gets 0 so that it is tried.
+	 * @return the score of the server
+	 */
+	public synchronized double getScore() {
+		// The last term keeps a failing server which has never answered from looking like the best one
+		return latencyMillis * (1 + 4 * errorRate) * (1 + 0.25 * inFlight.get()) + errorRate * 1000;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	public synchronized double getLatencyMillis() {
+		return latencyMillis;
+	}
+
+	public synchronized double getErrorRate() {
+		return errorRate;
+	}
+
+	public synchronized CircuitState getState() {
+		if(state == CircuitState.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+			return CircuitState.HALF_OPEN;
+		}
+		return state;
+	}
+
+	public synchronized String toString() {
+		return String.format("%s [%s] latency: %.0fms / error: %.0f%% / in-flight: %s / score: %.1f",
+				url, getState(), latencyMillis, errorRate * 100, inFlight.get(), getScore());
+	}
+}
@@ -0,0 +1,220 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses the BCDice-API server for each request based on the health of the servers.
+ */
+public class ServerRouter {
+	public enum Strategy {
+		/** The server with the lowest score (latency, error rate and in-flight requests) */
+		BEST,
+		/** The healthy servers in turn */
+		ROUND_ROBIN,
+		/** The healthy server with the fewest in-flight requests */
+		LEAST_IN_FLIGHT;
+
+		public static Strategy of(String value) {
+			if(value == null) {
+				return BEST;
+			}
+			String normalized = value.trim().toLowerCase().replaceAll("[-_ ]", "");
+			if(normalized.equals("roundrobin")) {
+				return ROUND_ROBIN;
+			}
+			if(normalized.equals("leastinflight")) {
+				return LEAST_IN_FLIGHT;
+			}
+			return BEST;
+		}
+	}
+
+	private final Strategy strategy;
+	private List<ServerHealth> servers = new ArrayList<ServerHealth>();
+	private int current = 0;
+	private final AtomicInteger roundRobinCounter = new AtomicInteger();
+
+	public ServerRouter(Strategy strategy) {
+		this.strategy = strategy;
+	}
+
+	public Strategy getStrategy() {
+		return strategy;
+	}
+
+	/**
+	 * Add the server if it's not registered.
+	 * @param url
+	 * @return index of the server
+	 */
+	public synchronized int add(String url) {
+		for(int i = 0; i < servers.size(); i++) {
+			if(servers.get(i).getUrl().equals(url)) {
+				return i;
+			}
+		}
+		List<ServerHealth> newServers = new ArrayList<ServerHealth>(servers);
+		newServers.add(new ServerHealth(url));
+		servers = newServers;
+		return servers.size() - 1;
+	}
+
+	/**
+	 * @param url
+	 * @return true if the server was registered
+	 */
+	public synchronized boolean remove(String url) {
+		List<ServerHealth> newServers = new ArrayList<ServerHealth>();
+		boolean flag = false;
+		for(ServerHealth server : servers) {
+			if(server.getUrl().equals(url)) {
+				flag = true;
+			} else {
+				newServers.add(server);
+			}
+		}
+		servers = newServers;
+		if(servers.size() <= current) {
+			current = 0;
+		}
+		return flag;
+	}
+
+	public synchronized int size() {
+		return servers.size();
+	}
+
+	public synchronized List<String> getUrls() {
+		List<String> result = new ArrayList<String>();
+		for(ServerHealth server : servers) {
+			result.add(server.getUrl());
+		}
+		return result;
+	}
+
+	/**
+	 * The current server is the one set by the admin or the one which answered last.
+	 * It is chosen when the servers are equally good.
+	 * @return index of the current server
+	 */
+	public synchronized int getCurrentIndex() {
+		return current;
+	}
+
+	public synchronized String getCurrentUrl() {
+		return servers.get(current).getUrl();
+	}
+
+	public synchronized void setCurrent(String url) {
+		current = add(url);
+	}
+
+	/**
+	 * Called when a server returns the result.
+	 * @param server
+	 */
+	public synchronized void markAnswered(ServerHealth server) {
+		int index = servers.indexOf(server);
+		if(index >= 0) {
+			current = index;
+		}
+	}
+
+	/**
+	 * Choose the server for the next request and count it as in-flight.
+	 * If all servers are unavailable, the best of them is used anyway.
+	 * @param excluded URLs which already failed in this request
+	 * @return the chosen server
+	 */
+	public ServerHealth acquire(Set<String> excluded) {
+		List<ServerHealth> currentServers;
+		int currentIndex;
+		synchronized (this) {
+			currentServers = servers;
+			currentIndex = current;
+		}
+		List<ServerHealth> candidates = new ArrayList<ServerHealth>();
+		ServerHealth preferred = currentServers.get(currentIndex);
+		for(ServerHealth server : currentServers) {
+			if(! excluded.contains(server.getUrl()) && server.isAvailable()) {
+				candidates.add(server);
+			}
+		}
+		while(! candidates.isEmpty()) {
+			ServerHealth chosen = choose(candidates, preferred);
+			if(chosen.tryAcquire()) {
+				return chosen;
+			}
+			candidates.remove(chosen);
+		}
+		// Every server is excluded or its circuit is open. Try the least bad one rather than failing at once.
+		ServerHealth fallback = null;
+		for(ServerHealth server : currentServers) {
+			if(excluded.contains(server.getUrl())) {
+				continue;
+			}
+			if(fallback == null || server.getScore() < fallback.getScore()) {
+				fallback = server;
+			}
+		}
+		if(fallback == null) {
+			fallback = preferred;
+		}
+		fallback.forceAcquire();
+		return fallback;
+	}
+
+	private ServerHealth choose(List<ServerHealth> candidates, ServerHealth preferred) {
+		if(strategy == Strategy.ROUND_ROBIN) {
+			return candidates.get(Math.floorMod(roundRobinCounter.getAndIncrement(), candidates.size()));
+		}
+		ServerHealth best = null;
+		for(ServerHealth server : candidates) {
+			if(best == null || compare(server, best, preferred) < 0) {
+				best = server;
+			}
+		}
+		return best;
+	}
+
+	private int compare(ServerHealth a, ServerHealth b, ServerHealth preferred) {
+		if(strategy == Strategy.LEAST_IN_FLIGHT) {
+			int result = Integer.compare(a.getInFlight(), b.getInFlight());
+			if(result != 0) {
+				return result;
+			}
+		}
+		int result = Double.compare(a.getScore(), b.getScore());
+		if(result != 0) {
+			return result;
+		}
+		if(a == preferred) {
+			return -1;
+		}
+		if(b == preferred) {
+			return 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * @return status line of each server
+	 */
+	public List<String> getStatus() {
+		List<ServerHealth> currentServers;
+		int currentIndex;
+		synchronized (this) {
+			currentServers = servers;
+			currentIndex = current;
+		}
+		List<String> result = new ArrayList<String>();
+		for(int i = 0; i < currentServers.size(); i++) {
+			result.add(currentServers.get(i).toString() + (i == currentIndex ? " (current)" : ""));
+		}
+		result.add(String.format("routing: %s", strategy));
+		return result;
+	}
+}
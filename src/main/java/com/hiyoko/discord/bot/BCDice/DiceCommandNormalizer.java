@@ -0,0 +1,160 @@
+package com.hiyoko.discord.bot.BCDice;
+
+/**
+ * Normalizer of the dice commands sent to BCDice-API, in one pass over the command.
+ * <p>
+ * The result is the same as the former regular expressions and URLEncoder:
+ * <ol>
+ * <li>Whitespaces (<code>\s</code> and U+3000) around &lt;, &gt; and = are removed, and a run of the same one of them becomes one.
+ * See also https://github.com/Shunshun94/discord-bcdicebot/pull/10</li>
+ * <li>The command is URL-encoded in UTF-8, except that a space is %20 instead of +, ~ is not encoded
+ * and %20 in the command is kept as it is.</li>
+ * </ol>
+ * The characters are written into a StringBuilder kept per thread, so only the resulting String is allocated.
+ */
+public class DiceCommandNormalizer {
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+	private static final int MAX_KEPT_BUFFER = 4096;
+	private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(64));
+
+	private DiceCommandNormalizer() {}
+
+	private static boolean isOperator(char c) {
+		return c == '<' || c == '>' || c == '=';
+	}
+
+	/**
+	 * @return true for <code>\s</code> of the regular expression and the full-width space
+	 */
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r' || c == '\u3000';
+	}
+
+	/**
+	 * @return true for the characters which URLEncoder doesn't encode, and ~
+	 */
+	private static boolean isUnreserved(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+				|| c == '.' || c == '-' || c == '*' || c == '_' || c == '~';
+	}
+
+	/**
+	 * @param command the command without the prefix
+	 * @return the normalized and encoded command
+	 */
+	public static String normalize(String command) {
+		StringBuilder out = BUFFER.get();
+		out.setLength(0);
+		int length = command.length();
+		int i = 0;
+		while(i < length) {
+			char c = command.charAt(i);
+			if(isOperator(c)) {
+				appendEscaped(out, c);
+				do {
+					i++;
+				} while(i < length && command.charAt(i) == c);
+				while(i < length && isWhitespace(command.charAt(i))) {
+					i++;
+				}
+				continue;
+			}
+			if(isWhitespace(c)) {
+				int end = i + 1;
+				while(end < length && isWhitespace(command.charAt(end))) {
+					end++;
+				}
+				if(end == length || ! isOperator(command.charAt(end))) {
+					for(int j = i; j < end; j++) {
+						appendEncoded(out, command.charAt(j));
+					}
+				}
+				i = end;
+				continue;
+			}
+			if(c == '%' && i + 2 < length && command.charAt(i + 1) == '2' && command.charAt(i + 2) == '0') {
+				// %20 in the command is kept
+				out.append("%20");
+				i += 3;
+				continue;
+			}
+			if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(command.charAt(i + 1))) {
+				appendUtf8(out, Character.toCodePoint(c, command.charAt(i + 1)));
+				i += 2;
+				continue;
+			}
+			appendEncoded(out, c);
+			i++;
+		}
+		String result = out.toString();
+		if(out.capacity() > MAX_KEPT_BUFFER) {
+			BUFFER.remove();
+		}
+		return result;
+	}
+
+	private static void appendEncoded(StringBuilder out, char c) {
+		if(isUnreserved(c)) {
+			out.append(c);
+		} else if(c == ' ') {
+			out.append("%20");
+		} else if(Character.isSurrogate(c)) {
+			// A lone surrogate is encoded as ? by String.getBytes
+			appendEscaped(out, '?');
+		} else {
+			appendUtf8(out, c);
+		}
+	}
+
+	private static void appendEscaped(StringBuilder out, int b) {
+		out.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+	}
+
+	private static void appendUtf8(StringBuilder out, int codePoint) {
+		if(codePoint < 0x80) {
+			appendEscaped(out, codePoint);
+		} else if(codePoint < 0x800) {
+			appendEscaped(out, 0xC0 | (codePoint >> 6));
+			appendEscaped(out, 0x80 | (codePoint & 0x3F));
+		} else if(codePoint < 0x10000) {
+			appendEscaped(out, 0xE0 | (codePoint >> 12));
+			appendEscaped(out, 0x80 | ((codePoint >> 6) & 0x3F));
+			appendEscaped(out, 0x80 | (codePoint & 0x3F));
+		} else {
+			appendEscaped(out, 0xF0 | (codePoint >> 18));
+			appendEscaped(out, 0x80 | ((codePoint >> 12) & 0x3F));
+			appendEscaped(out, 0x80 | ((codePoint >> 6) & 0x3F));
+			appendEscaped(out, 0x80 | (codePoint & 0x3F));
+		}
+	}
+
+	/**
+	 * Same as <code>input.replaceAll("\\h", " ")</code>.
+	 * @return the input itself if it has no horizontal whitespace other than the space
+	 */
+	public static String replaceHorizontalWhitespace(String input) {
+		int length = input.length();
+		int first = 0;
+		while(first < length && ! isOtherHorizontalWhitespace(input.charAt(first))) {
+			first++;
+		}
+		if(first == length) {
+			return input;
+		}
+		char[] chars = input.toCharArray();
+		for(int i = first; i < length; i++) {
+			if(isOtherHorizontalWhitespace(chars[i])) {
+				chars[i] = ' ';
+			}
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * @return true for <code>\h</code> of the regular expression except the space
+	 */
+	private static boolean isOtherHorizontalWhitespace(char c) {
+		return c == '\t' || c == '\u00A0' || c == '\u1680' || c == '\u180E' || (c >= '\u2000' && c <= '\u200A')
+				|| c == '\u202F' || c == '\u205F' || c == '\u3000';
+	}
+}
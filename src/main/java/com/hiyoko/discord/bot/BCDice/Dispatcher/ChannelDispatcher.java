@@ -0,0 +1,198 @@
+package com.hiyoko.discord.bot.BCDice.Dispatcher;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dispatches the messages to the RollExecutor keeping the order in each channel.
+ * Different channels are processed in parallel, but the messages of a channel are processed one by one.
+ * Each channel has a mailbox only while it has pending messages, so idle channels cost nothing.
+ * @author Shunshun94
+ */
+public class ChannelDispatcher {
+	private static final long HANDOFF_RETRY_MILLIS = 50;
+	private static final ScheduledExecutorService HANDOFF_TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "bcdice-dispatch-retry");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final Logger logger = LoggerFactory.getLogger(ChannelDispatcher.class);
+	private final RollExecutor executor;
+	private final int capacity;
+	// A mailbox exists in this map while its channel has a message which is waiting or running.
+	// Its queue is modified only inside ConcurrentHashMap#compute, which locks the channel's entry.
+	private final ConcurrentHashMap<String, Queue<Runnable>> mailboxes = new ConcurrentHashMap<String, Queue<Runnable>>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicInteger maxPending = new AtomicInteger();
+	private final AtomicInteger maxMailboxes = new AtomicInteger();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong deferredHandoffs = new AtomicLong();
+	private final WaitTimeStats waitTimeStats = new WaitTimeStats();
+
+	/**
+	 * @param executor executor which runs the messages
+	 */
+	public ChannelDispatcher(RollExecutor executor) {
+		this(executor, executor.getQueueCapacity());
+	}
+
+	/**
+	 * @param executor executor which runs the messages
+	 * @param capacity the number of the messages which can wait in all channels
+	 */
+	public ChannelDispatcher(RollExecutor executor, int capacity) {
+		this.executor = executor;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Enqueue the task to the channel's mailbox.
+	 * @param channel channel ID
+	 * @param task the task to run after the former tasks of the channel
+	 * @throws RejectedExecutionException When too many messages are waiting
+	 */
+	public void dispatch(String channel, Runnable task) throws RejectedExecutionException {
+		if(pending.incrementAndGet() > capacity) {
+			pending.decrementAndGet();
+			rejected.incrementAndGet();
+			throw new RejectedExecutionException(String.format("Too many messages are waiting (%s)", capacity));
+		}
+		RollExecutor.updateMax(maxPending, pending.get());
+		long enqueuedAt = System.nanoTime();
+		Runnable timedTask = () -> {
+			waitTimeStats.record(System.nanoTime() - enqueuedAt);
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				logger.warn(String.format("Unexpected error in the channel %s", channel), e);
+			} finally {
+				pending.decrementAndGet();
+			}
+		};
+		boolean[] isNewMailbox = {false};
+		mailboxes.compute(channel, (key, current)->{
+			Queue<Runnable> target = current;
+			if(target == null) {
+				target = new ArrayDeque<Runnable>();
+				isNewMailbox[0] = true;
+			}
+			target.add(timedTask);
+			return target;
+		});
+		RollExecutor.updateMax(maxMailboxes, mailboxes.size());
+		if(isNewMailbox[0]) {
+			schedule(channel);
+		}
+	}
+
+	private void schedule(String channel) {
+		try {
+			executor.execute(() -> drain(channel));
+		} catch (RejectedExecutionException e) {
+			boolean[] isOnlyTask = {false};
+			mailboxes.computeIfPresent(channel, (key, current)->{
+				isOnlyTask[0] = (current.size() == 1);
+				return isOnlyTask[0] ? null : current;
+			});
+			if(isOnlyTask[0]) {
+				pending.decrementAndGet();
+				rejected.incrementAndGet();
+				throw e;
+			}
+			// Another message already waits behind this one and relies on this schedule.
+			// It was accepted, so hand the mailbox to a worker later instead of running the rolls on this (listener) thread.
+			deferHandoff(channel);
+		}
+	}
+
+	private void deferHandoff(String channel) {
+		deferredHandoffs.incrementAndGet();
+		HANDOFF_TIMER.schedule(() -> retryHandoff(channel), HANDOFF_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	private void retryHandoff(String channel) {
+		try {
+			executor.execute(() -> drain(channel));
+		} catch (RejectedExecutionException e) {
+			if(! executor.isShutdown()) {
+				deferHandoff(channel);
+				return;
+			}
+			Queue<Runnable> dropped = mailboxes.remove(channel);
+			int count = (dropped == null) ? 0 : dropped.size();
+			pending.addAndGet(-count);
+			logger.warn(String.format("The executor is shut down. %s messages of the channel %s are dropped", count, channel));
+		}
+	}
+
+	/**
+	 * Run the head of the mailbox, then give the worker back to the other channels.
+	 */
+	private void drain(String channel) {
+		while(true) {
+			peek(channel).run();
+			boolean[] hasNext = {false};
+			mailboxes.computeIfPresent(channel, (key, current)->{
+				current.poll();
+				hasNext[0] = ! current.isEmpty();
+				return hasNext[0] ? current : null;
+			});
+			if(! hasNext[0]) {
+				return;
+			}
+			try {
+				executor.execute(() -> drain(channel));
+				return;
+			} catch (RejectedExecutionException e) {
+				// The executor is full. Continue in this worker to keep the order.
+			}
+		}
+	}
+
+	private Runnable peek(String channel) {
+		Runnable[] head = {null};
+		mailboxes.computeIfPresent(channel, (key, current)->{
+			head[0] = current.peek();
+			return current;
+		});
+		return head[0];
+	}
+
+	/**
+	 * @return the number of the messages which are waiting or running
+	 */
+	public int getPendingCount() {
+		return pending.get();
+	}
+
+	/**
+	 * @return the number of the channels which have pending messages
+	 */
+	public int getActiveChannelCount() {
+		return mailboxes.size();
+	}
+
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	public List<String> getMetrics() {
+		List<String> result = new ArrayList<String>();
+		result.add(String.format("[ChannelDispatcher] pending: %s/%s (peak %s) / active channels: %s (peak %s) / rejected: %s / deferred: %s",
+				pending.get(), capacity, maxPending.get(), mailboxes.size(), maxMailboxes.get(), rejected.get(), deferredHandoffs.get()));
+		result.add(String.format("[ChannelDispatcher] %s", waitTimeStats));
+		return result;
+	}
+}
@@ -0,0 +1,158 @@
+package com.hiyoko.discord.bot.BCDice.Dispatcher;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded worker pool which runs dice requests outside of the Javacord listener thread.
+ * When the JVM supports virtual threads, the workers are virtual threads.
+ * @author Shunshun94
+ */
+public class RollExecutor {
+	private static final String THREAD_NAME_PREFIX = "bcdice-roll-";
+	private final Logger logger = LoggerFactory.getLogger(RollExecutor.class);
+	private final ThreadPoolExecutor executor;
+	private final int workers;
+	private final int queueCapacity;
+	private final boolean virtualThreads;
+
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final WaitTimeStats waitTimeStats = new WaitTimeStats();
+	private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+	/**
+	 * @param workers the number of the worker threads
+	 * @param queueCapacity the number of the requests which can wait for a worker
+	 * @param useVirtualThreads If true and the JVM supports, virtual threads are used as workers
+	 */
+	public RollExecutor(int workers, int queueCapacity, boolean useVirtualThreads) {
+		this.workers = workers;
+		this.queueCapacity = queueCapacity;
+		ThreadFactory virtualThreadFactory = useVirtualThreads ? getVirtualThreadFactory() : null;
+		this.virtualThreads = (virtualThreadFactory != null);
+		ThreadFactory threadFactory = virtualThreads ? virtualThreadFactory : getPlatformThreadFactory();
+		executor = new ThreadPoolExecutor(workers, workers, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		logger.info(String.format("RollExecutor: %s workers (%s), queue capacity %s",
+				workers, virtualThreads ? "virtual threads" : "platform threads", queueCapacity));
+	}
+
+	private static ThreadFactory getVirtualThreadFactory() {
+		try {
+			// Thread.ofVirtual() exists since Java 21. This project is built for Java 8, so it is called via reflection.
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, THREAD_NAME_PREFIX, 0L);
+			Method factory = builderClass.getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static ThreadFactory getPlatformThreadFactory() {
+		AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Enqueue the task.
+	 * @param task task to run on a worker
+	 * @throws RejectedExecutionException When the queue is full
+	 */
+	public void execute(Runnable task) throws RejectedExecutionException {
+		long enqueuedAt = System.nanoTime();
+		try {
+			executor.execute(() -> {
+				waitTimeStats.record(System.nanoTime() - enqueuedAt);
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					logger.warn("Unexpected error in the roll worker", e);
+				} finally {
+					completed.incrementAndGet();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			throw e;
+		}
+		updateMax(maxQueueDepth, getQueueDepth());
+	}
+
+	static void updateMax(AtomicInteger max, int value) {
+		int current = max.get();
+		while(value > current && ! max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * @return the number of the tasks waiting for a worker
+	 */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public int getWorkers() {
+		return workers;
+	}
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return average waiting time in the queue as milliseconds
+	 */
+	public double getAverageWaitMillis() {
+		return waitTimeStats.getAverageMillis();
+	}
+
+	public double getMaxWaitMillis() {
+		return waitTimeStats.getMaxMillis();
+	}
+
+	public List<String> getMetrics() {
+		List<String> result = new ArrayList<String>();
+		result.add(String.format("[RollExecutor] workers: %s (%s) / active: %s",
+				workers, virtualThreads ? "virtual threads" : "platform threads", executor.getActiveCount()));
+		result.add(String.format("[RollExecutor] queue: %s/%s (peak %s) / completed: %s / rejected: %s",
+				getQueueDepth(), queueCapacity, maxQueueDepth.get(), completed.get(), rejected.get()));
+		result.add(String.format("[RollExecutor] %s", waitTimeStats));
+		return result;
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	public boolean isShutdown() {
+		return executor.isShutdown();
+	}
+}
@@ -0,0 +1,25 @@
+package com.hiyoko.discord.bot.BCDice.Dispatcher;
+
+public class RollExecutorFactory {
+	private static final int DEFAULT_QUEUE_SIZE = 256;
+
+	private static int getIntEnv(String name, int defaultValue) {
+		String value = System.getenv(name);
+		if(value == null) {
+			return defaultValue;
+		}
+		try {
+			int result = Integer.parseInt(value.trim());
+			return (result > 0) ? result : defaultValue;
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	public static RollExecutor getRollExecutor() {
+		int workers = getIntEnv("BCDICE_ROLL_WORKERS", Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+		int queueSize = getIntEnv("BCDICE_ROLL_QUEUE_SIZE", DEFAULT_QUEUE_SIZE);
+		boolean useVirtualThreads = ! "0".equals(System.getenv("BCDICE_ROLL_VIRTUAL_THREADS"));
+		return new RollExecutor(workers, queueSize, useVirtualThreads);
+	}
+}
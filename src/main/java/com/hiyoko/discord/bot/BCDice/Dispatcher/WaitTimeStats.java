@@ -0,0 +1,38 @@
+package com.hiyoko.discord.bot.BCDice.Dispatcher;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free counter of the time the tasks waited before they started.
+ */
+class WaitTimeStats {
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	void record(long waitNanos) {
+		count.incrementAndGet();
+		totalNanos.addAndGet(waitNanos);
+		long current = maxNanos.get();
+		while(waitNanos > current && ! maxNanos.compareAndSet(current, waitNanos)) {
+			current = maxNanos.get();
+		}
+	}
+
+	/**
+	 * @return average waiting time as milliseconds
+	 */
+	double getAverageMillis() {
+		long currentCount = count.get();
+		if(currentCount == 0) { return 0; }
+		return totalNanos.get() / (double) currentCount / 1000000.0;
+	}
+
+	double getMaxMillis() {
+		return maxNanos.get() / 1000000.0;
+	}
+
+	public String toString() {
+		return String.format("wait avg: %.1fms / max: %.1fms", getAverageMillis(), getMaxMillis());
+	}
+}
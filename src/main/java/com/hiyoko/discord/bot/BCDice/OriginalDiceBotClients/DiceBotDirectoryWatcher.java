@@ -0,0 +1,134 @@
+package com.hiyoko.discord.bot.BCDice.OriginalDiceBotClients;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watcher of a dicebot directory, shared by the clients of the directory.
+ * <p>
+ * Only one WatchService and one thread are used per directory however many clients are made.
+ * The watcher is started by the first client and closed when the last client is closed.
+ */
+class DiceBotDirectoryWatcher {
+	private static final Map<Path, DiceBotDirectoryWatcher> WATCHERS = new HashMap<Path, DiceBotDirectoryWatcher>();
+	private static final Logger logger = LoggerFactory.getLogger(DiceBotDirectoryWatcher.class);
+	private final Path directory;
+	private final WatchService watchService;
+	private final Set<Listener> listeners = new CopyOnWriteArraySet<Listener>();
+
+	interface Listener {
+		/**
+		 * Called on the watcher thread after each batch of the events.
+		 * @param fileNames names of the changed files, or null if the events overflowed and any file may have changed
+		 */
+		void changed(Set<String> fileNames);
+	}
+
+	private DiceBotDirectoryWatcher(Path directory) throws IOException {
+		this.directory = directory;
+		watchService = FileSystems.getDefault().newWatchService();
+		try {
+			directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+		} catch (IOException | RuntimeException e) {
+			watchService.close();
+			throw e;
+		}
+		Thread watcher = new Thread(this::watch, "original-dicebot-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/**
+	 * @param directory the dicebot directory
+	 * @param listener called when the files in the directory are changed
+	 * @return the watcher of the directory
+	 * @throws IOException When the directory can't be watched
+	 */
+	static synchronized DiceBotDirectoryWatcher register(Path directory, Listener listener) throws IOException {
+		Path key = directory.toAbsolutePath().normalize();
+		DiceBotDirectoryWatcher watcher = WATCHERS.get(key);
+		if(watcher == null) {
+			watcher = new DiceBotDirectoryWatcher(key);
+			WATCHERS.put(key, watcher);
+		}
+		watcher.listeners.add(listener);
+		return watcher;
+	}
+
+	/**
+	 * Remove the listener. The watcher is closed when it has no listener.
+	 */
+	void unregister(Listener listener) {
+		synchronized (DiceBotDirectoryWatcher.class) {
+			listeners.remove(listener);
+			if(! listeners.isEmpty() || WATCHERS.get(directory) != this) {
+				return;
+			}
+			WATCHERS.remove(directory);
+		}
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			logger.warn(String.format("ダイスボット表のディレクトリ %s の監視を終了できませんでした", directory), e);
+		}
+	}
+
+	/**
+	 * @return true if a watcher is running for the directory
+	 */
+	static synchronized boolean isWatched(Path directory) {
+		return WATCHERS.containsKey(directory.toAbsolutePath().normalize());
+	}
+
+	private void watch() {
+		try {
+			while(true) {
+				WatchKey key = watchService.take();
+				Set<String> fileNames = new HashSet<String>();
+				for(WatchEvent<?> event : key.pollEvents()) {
+					if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						fileNames = null;
+					} else if(fileNames != null) {
+						fileNames.add(((Path) event.context()).getFileName().toString());
+					}
+				}
+				for(Listener listener : listeners) {
+					try {
+						listener.changed(fileNames);
+					} catch (RuntimeException e) {
+						logger.warn(String.format("ダイスボット表のディレクトリ %s の変更を反映できませんでした", directory), e);
+					}
+				}
+				if(! key.reset()) {
+					logger.warn(String.format("ダイスボット表のディレクトリ %s の監視を終了しました", directory));
+					synchronized (DiceBotDirectoryWatcher.class) {
+						if(WATCHERS.get(directory) == this) {
+							WATCHERS.remove(directory);
+						}
+					}
+					watchService.close();
+					return;
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			return;
+		} catch (IOException e) {
+			logger.warn(String.format("ダイスボット表のディレクトリ %s の監視を終了できませんでした", directory), e);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package com.hiyoko.discord.bot.BCDice.OriginalDiceBotClients;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable prefix trie of the original dicebot names.
+ * <p>
+ * The longest name which a message starts with is found in O(length of the message) regardless of the number of tables.
+ * The children of a node are kept as a sorted char array for a binary search.
+ * A new index is built when the directory is changed, and it is replaced as a whole.
+ */
+public class DiceBotNameIndex {
+	private static final char[] NO_LABELS = new char[0];
+	private static final Node[] NO_CHILDREN = new Node[0];
+	private final List<String> names;
+	private final Node root;
+
+	private static class Node {
+		private char[] labels = NO_LABELS;
+		private Node[] children = NO_CHILDREN;
+		private String name = null;
+
+		private Node child(char c) {
+			int index = Arrays.binarySearch(labels, c);
+			return (index >= 0) ? children[index] : null;
+		}
+
+		private Node addChild(char c) {
+			int index = Arrays.binarySearch(labels, c);
+			if(index >= 0) {
+				return children[index];
+			}
+			int insertAt = -index - 1;
+			char[] newLabels = new char[labels.length + 1];
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(labels, 0, newLabels, 0, insertAt);
+			System.arraycopy(children, 0, newChildren, 0, insertAt);
+			newLabels[insertAt] = c;
+			newChildren[insertAt] = new Node();
+			System.arraycopy(labels, insertAt, newLabels, insertAt + 1, labels.length - insertAt);
+			System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+			labels = newLabels;
+			children = newChildren;
+			return newChildren[insertAt];
+		}
+	}
+
+	/**
+	 * @param names names of the tables. The list is kept as it is for getNames().
+	 */
+	public DiceBotNameIndex(List<String> names) {
+		this.names = Collections.unmodifiableList(new ArrayList<String>(names));
+		root = new Node();
+		for(String name : names) {
+			Node node = root;
+			for(int i = 0; i < name.length(); i++) {
+				node = node.addChild(name.charAt(i));
+			}
+			node.name = name;
+		}
+	}
+
+	/**
+	 * @param input
+	 * @return the longest name which the input starts with, or empty string
+	 */
+	public String findLongestPrefix(CharSequence input) {
+		String result = (root.name == null) ? "" : root.name;
+		Node node = root;
+		for(int i = 0; i < input.length(); i++) {
+			node = node.child(input.charAt(i));
+			if(node == null) {
+				break;
+			}
+			if(node.name != null) {
+				result = node.name;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param name
+	 * @return true if the table is registered
+	 */
+	public boolean contains(String name) {
+		Node node = root;
+		for(int i = 0; i < name.length() && node != null; i++) {
+			node = node.child(name.charAt(i));
+		}
+		return node != null && node.name != null;
+	}
+
+	public List<String> getNames() {
+		return names;
+	}
+}
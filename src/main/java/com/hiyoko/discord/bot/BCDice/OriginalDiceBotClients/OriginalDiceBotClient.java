@@ -1,32 +1,77 @@
 package com.hiyoko.discord.bot.BCDice.OriginalDiceBotClients;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URL;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.hiyoko.discord.bot.BCDice.DiceClient.AsyncResults;
+import com.hiyoko.discord.bot.BCDice.dto.IndexedDiceTable;
 import com.hiyoko.discord.bot.BCDice.dto.OriginalDiceBotTable;
 
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 public class OriginalDiceBotClient {
 	private final OkHttpClient client;;
 	private static final String DEFAULT_DICEBOT_DIRECTORY_PATH = "./originalDiceBots";
+	private static final long DEFAULT_MAX_DICEBOT_SIZE = 10L * 1024 * 1024;
+	private static final String UPLOAD_FILE_PREFIX = ".upload-";
+	private static final long INDEXED_TABLE_MIN_SIZE = 256 * 1024;
+	private final long maxDiceBotSize = getMaxDiceBotSize();
 	private final String dicebotDirectoryPath;
 	private final File dicebotDirectory;
-	private List<String> diceBotList;
+	private volatile DiceBotNameIndex nameIndex;
+	private volatile long indexedDirectoryModified;
+	private final Map<String, CachedTable> tableCache = new ConcurrentHashMap<String, CachedTable>();
+	private final AtomicLong cacheHitCount = new AtomicLong();
+	private final AtomicLong cacheMissCount = new AtomicLong();
+	private volatile Set<String> localTables = parseLocalTables(System.getenv("BCDICE_LOCAL_TABLE"));
 	private final Logger logger = LoggerFactory.getLogger(OriginalDiceBotClient.class);
+	private final DiceBotDirectoryWatcher.Listener watchListener = this::onDirectoryChanged;
+	private volatile DiceBotDirectoryWatcher watcher;
+
+	/**
+	 * Parsed table and the modification time of the file it was read from.
+	 */
+	private static class CachedTable {
+		private final long lastModified;
+		private final long length;
+		private final OriginalDiceBotTable table;
+
+		private CachedTable(long lastModified, long length, OriginalDiceBotTable table) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.table = table;
+		}
+	}
 	
 	public OriginalDiceBotClient() {
 		dicebotDirectoryPath = DEFAULT_DICEBOT_DIRECTORY_PATH;
@@ -35,7 +80,8 @@ public class OriginalDiceBotClient {
 		if( ! dicebotDirectory.exists() ) {
 			dicebotDirectory.mkdir();
 		}
-		diceBotList = getRawDiceBotList();
+		rebuildNameIndex();
+		watchDirectory();
 	}
 	
 	public OriginalDiceBotClient(String path) {
@@ -45,46 +91,208 @@ public class OriginalDiceBotClient {
 		if( ! dicebotDirectory.exists() ) {
 			dicebotDirectory.mkdir();
 		}
-		diceBotList = getRawDiceBotList();
+		rebuildNameIndex();
+		watchDirectory();
+	}
+
+	private static long getMaxDiceBotSize() {
+		String value = System.getenv("BCDICE_DICEBOT_MAX_SIZE");
+		try {
+			return value == null ? DEFAULT_MAX_DICEBOT_SIZE : Math.max(1, Long.parseLong(value.trim()));
+		} catch (NumberFormatException e) {
+			System.err.println(String.format("BCDICE_DICEBOT_MAX_SIZE is ignored: %s", value));
+			return DEFAULT_MAX_DICEBOT_SIZE;
+		}
+	}
+
+	/**
+	 * Stream which fails when more than the limit is read from it.
+	 */
+	private static class LimitedInputStream extends FilterInputStream {
+		private final long limit;
+		private final String name;
+		private long count = 0;
+
+		private LimitedInputStream(InputStream in, long limit, String name) {
+			super(in);
+			this.limit = limit;
+			this.name = name;
+		}
+
+		private void count(long read) throws IOException {
+			if(read > 0) {
+				count += read;
+				if(count > limit) {
+					throw new IOException(String.format("ダイスボット表 [%s] が大きすぎます (上限 %s バイト)", name, limit));
+				}
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			int result = super.read();
+			count(result < 0 ? 0 : 1);
+			return result;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int result = super.read(b, off, len);
+			count(result);
+			return result;
+		}
+	}
+
+	/**
+	 * Drop the cached tables when the files are changed, also by hand.
+	 * The watcher is shared with the other clients of the same directory.
+	 */
+	private void watchDirectory() {
+		try {
+			watcher = DiceBotDirectoryWatcher.register(dicebotDirectory.toPath(), watchListener);
+		} catch (IOException e) {
+			logger.warn(String.format("ダイスボット表のディレクトリ %s を監視できません。ファイルの更新日時で変更を確認します", dicebotDirectoryPath), e);
+		}
+	}
+
+	private void onDirectoryChanged(Set<String> fileNames) {
+		if(fileNames == null) {
+			tableCache.clear();
+		} else {
+			fileNames.forEach(tableCache::remove);
+		}
+		rebuildNameIndex();
 	}
 
-	private String getAttachedFile(URL url) throws IOException {
-		Request request = new Request.Builder().url(url.toString()).build();
-		return client.newCall(request).execute().body().string();
+	private void rebuildNameIndex() {
+		// Taken before the listing, so that a change during the listing is found next time
+		indexedDirectoryModified = dicebotDirectory.lastModified();
+		nameIndex = new DiceBotNameIndex(getRawDiceBotList());
 	}
 
+	/**
+	 * @return the index of the table names. Without the watcher, it is rebuilt when the directory is modified.
+	 */
+	private DiceBotNameIndex getNameIndex() {
+		if(watcher == null && dicebotDirectory.lastModified() != indexedDirectoryModified) {
+			rebuildNameIndex();
+		}
+		return nameIndex;
+	}
+
+	/**
+	 * Stop watching the directory. The watcher is shut down when no client of the directory is left.
+	 * The tables are still read after this, and their changes are found by the modification time.
+	 */
+	public void close() {
+		DiceBotDirectoryWatcher current = watcher;
+		watcher = null;
+		if(current != null) {
+			current.unregister(watchListener);
+		}
+	}
+
+
 	private boolean isExist(String targetName) {
 		File targetFile = new File(String.format("%s/%s", dicebotDirectoryPath, targetName));
 		return targetFile.exists();
 	}
 
-	private void writeFile(String title, String body) throws IOException {
-		File newDiceBotFile = new File(String.format("%s/%s", dicebotDirectoryPath, title));
-		try (
-				OutputStreamWriter osw = new OutputStreamWriter(new FileOutputStream(newDiceBotFile), "UTF-8");
-				PrintWriter pw = new PrintWriter(new BufferedWriter(osw));) {
-			pw.print(body);
-		} catch (IOException e) {
-			throw new IOException(String.format("ダイスボット [%s] の作成に失敗しました", title), e);
+	private boolean isValidName(String name) {
+		return ! (name.isEmpty() || name.startsWith(".") || name.contains("/") || name.contains("\\"));
+	}
+
+	/**
+	 * Write the uploaded table to a temporary file in the directory line by line, and move it to the table
+	 * only when the whole file is valid. The file is never held in memory. Each line is checked as it is read,
+	 * and the download is stopped at the first bad line or when it gets larger than BCDICE_DICEBOT_MAX_SIZE.
+	 */
+	private void saveDiceBot(Response response, String fileName) throws IOException {
+		if(! response.isSuccessful()) {
+			throw new IOException(String.format("ダイスボット表 [%s] のダウンロードに失敗しました (HTTP %s)", fileName, response.code()));
+		}
+		ResponseBody body = response.body();
+		if(body.contentLength() > maxDiceBotSize) {
+			throw new IOException(String.format("ダイスボット表 [%s] が大きすぎます (上限 %s バイト)", fileName, maxDiceBotSize));
+		}
+		Path temp = Files.createTempFile(dicebotDirectory.toPath(), UPLOAD_FILE_PREFIX, ".tmp");
+		try {
+			OriginalDiceBotTable.LineChecker checker = new OriginalDiceBotTable.LineChecker(fileName);
+			InputStream input = new LimitedInputStream(body.byteStream(), maxDiceBotSize, fileName);
+			try (
+					BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8.newDecoder()
+							.onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT)));
+					BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8);) {
+				String line;
+				while((line = reader.readLine()) != null) {
+					checker.check(line);
+					writer.write(line);
+					writer.write('\n');
+				}
+			} catch (CharacterCodingException e) {
+				throw new IOException(String.format("ダイスボット表 [%s] が UTF-8 のテキストではありません", fileName), e);
+			}
+			checker.finish();
+			Path target = new File(dicebotDirectory, fileName).toPath();
+			try {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		tableCache.remove(fileName);
+		rebuildNameIndex();
+		logger.info(String.format("ダイスボット [%s] を登録しました", fileName));
+	}
+
+	/**
+	 * Download the uploaded table without blocking the caller.
+	 * @param fileUrl
+	 * @param fileName name of the table
+	 * @return the future which is completed when the table is registered
+	 */
+	public CompletableFuture<Void> registerDiceBotAsync(URL fileUrl, String fileName) {
+		if(! isValidName(fileName)) {
+			return AsyncResults.failed(new IOException(String.format("ダイスボット表の名前 [%s] は使えません", fileName)));
 		}
+		CompletableFuture<Void> result = new CompletableFuture<Void>();
+		Request request = new Request.Builder().url(fileUrl.toString()).build();
+		client.newCall(request).enqueue(new Callback() {
+			@Override
+			public void onFailure(Call call, IOException e) {
+				result.completeExceptionally(new IOException(String.format("ダイスボット表 [%s] のダウンロードに失敗しました", fileName), e));
+			}
+
+			@Override
+			public void onResponse(Call call, Response response) {
+				try (Response r = response) {
+					saveDiceBot(r, fileName);
+					result.complete(null);
+				} catch (IOException | RuntimeException e) {
+					result.completeExceptionally(e);
+				}
+			}
+		});
+		return result;
 	}
 
 	public void registerDiceBot(URL fileUrl, String fileName) throws IOException {
-		String diceBotFile = getAttachedFile(fileUrl);
-		writeFile(fileName, diceBotFile);
-		diceBotList = getRawDiceBotList();
-		logger.info(String.format("ダイスボット [%s] を登録しました", fileName));
+		AsyncResults.await(registerDiceBotAsync(fileUrl, fileName));
 	}
 
 	public void unregisterDiceBot(String fileName) throws IOException {
 		if(isExist(fileName)) {
 			try {
 				(new File(String.format("%s/%s", dicebotDirectoryPath, fileName))).delete();
+				getIndexFile(fileName).delete();
+				tableCache.remove(fileName);
 			} catch (Exception e) {
 				throw new IOException(String.format("ダイスボット[%s] の削除に失敗しました", fileName), e);
 			}
 			try {
-				diceBotList = getRawDiceBotList();
+				rebuildNameIndex();
 			} catch (Exception e) {
 				throw new IOException(String.format("ダイスボット[%s] の削除には成功しましたがダイスボット一覧の更新に失敗しました", fileName), e);
 			}			
@@ -93,28 +301,107 @@ public class OriginalDiceBotClient {
 		}
 	}
 
+	/**
+	 * @return the index file of a large table. It is hidden from the table list by the dot.
+	 */
+	private File getIndexFile(String name) {
+		return new File(dicebotDirectory, String.format(".%s.idx", name));
+	}
+
+	/**
+	 * The parsed table is reused while the modification time and the size of the file are the same.
+	 * A file larger than 256KB is read through IndexedDiceTable, so that its rows are not kept in the memory.
+	 * @param name
+	 * @return the table
+	 * @throws IOException
+	 */
 	public OriginalDiceBotTable getDiceBot(String name) throws IOException {
-		if(! diceBotList.contains(name)) {
+		if(! getNameIndex().contains(name)) {
 			throw new IOException(String.format("ダイスボット [%s] が見つかりませんでした", name));
 		}
+		File file = new File(dicebotDirectory, name);
+		long lastModified = file.lastModified();
+		long length = file.length();
+		CachedTable cached = tableCache.get(name);
+		if(cached != null && cached.lastModified == lastModified && cached.length == length) {
+			cacheHitCount.incrementAndGet();
+			return cached.table;
+		}
+		cacheMissCount.incrementAndGet();
 		try {
-			return new OriginalDiceBotTable(Files.readAllLines(FileSystems.getDefault().getPath(dicebotDirectoryPath, name)), name);
+			OriginalDiceBotTable table = (length > INDEXED_TABLE_MIN_SIZE) ? IndexedDiceTable.load(file, getIndexFile(name), name) : null;
+			if(table == null) {
+				table = new OriginalDiceBotTable(Files.readAllLines(FileSystems.getDefault().getPath(dicebotDirectoryPath, name)), name);
+			}
+			tableCache.put(name, new CachedTable(lastModified, length, table));
+			return table;
 		} catch (IOException e) {
 			throw new IOException(String.format("ダイスボット [%s] の読み込みに失敗しました", name), e);
 		}
 	}
 
+	/**
+	 * @param value "all" for every table, or comma separated table names. null or "none" for no table.
+	 * @return table names to roll locally. null means every table.
+	 */
+	static Set<String> parseLocalTables(String value) {
+		if(value == null || value.trim().isEmpty() || value.trim().equalsIgnoreCase("none")) {
+			return new HashSet<String>();
+		}
+		if(value.trim().equalsIgnoreCase("all")) {
+			return null;
+		}
+		Set<String> result = new HashSet<String>();
+		for(String name : value.split(",")) {
+			if(! name.trim().isEmpty()) {
+				result.add(name.trim());
+			}
+		}
+		return result;
+	}
+
+	void setLocalTables(String value) {
+		localTables = parseLocalTables(value);
+	}
+
+	/**
+	 * @param name
+	 * @return true if the table is rolled by the bot itself instead of BCDice-API (BCDICE_LOCAL_TABLE)
+	 */
+	public boolean isLocalRoll(String name) {
+		Set<String> tables = localTables;
+		return tables == null || tables.contains(name);
+	}
+
+	public List<String> getMetrics() {
+		List<String> result = new ArrayList<String>();
+		result.add(String.format("ダイスボット表 cache: size: %s / hit: %s / miss: %s",
+				tableCache.size(), cacheHitCount.get(), cacheMissCount.get()));
+		return result;
+	}
+
 	public List<String> getRawDiceBotList() {
 		File[] list = dicebotDirectory.listFiles();
 		List<String> fileList = new ArrayList<String>();
 		for(File target : list) {
-			fileList.add(target.getName());
+			// Files being uploaded start with a dot
+			if(target.isFile() && ! target.getName().startsWith(".")) {
+				fileList.add(target.getName());
+			}
 		}
 		fileList.sort((a, b)-> b.length() - a.length());
 		return fileList;
 	}
 
+	/**
+	 * @param input message without the roll command prefix
+	 * @return the longest table name which the input starts with, or empty string
+	 */
+	public String findDiceBot(String input) {
+		return getNameIndex().findLongestPrefix(input);
+	}
+
 	public List<String> getDiceBotList() {
-		return diceBotList;
+		return getNameIndex().getNames();
 	}
 }
@@ -0,0 +1,256 @@
+package com.hiyoko.discord.bot.BCDice;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Dice roll request parsed from a message.
+ * <p>
+ * The message is one of:
+ * <ul>
+ * <li>PLAIN: <code>2d6</code></li>
+ * <li>REPEAT: <code>x3 2d6</code>, <code>rep3 2d6</code>, <code>repeat3 2d6</code> or <code>3 2d6</code>.
+ * With an original dicebot table, the table is rolled the times. Otherwise the command is sent to BCDice-API,
+ * and <code>3 2d6</code> is sent as <code>repeat3 2d6</code>.</li>
+ * <li>TARGETS: <code>[PC1,PC2,PC3] 2d6</code>. The command is rolled for each target.</li>
+ * </ul>
+ * It is parsed by looking at the characters once, instead of the regular expressions, replaceFirst and String.format
+ * which rolls used to run for each form. When a roll command like /r is required, a message without it is rejected
+ * before anything is allocated. Without a roll command, every message becomes a request, and whether it is a dice command
+ * is decided later by the client.
+ */
+public final class RollRequest {
+	public enum Type {
+		PLAIN, REPEAT, TARGETS
+	}
+
+	private static final String[] REPEAT_WORDS = {"repeat", "rep", "x"};
+	private final Type type;
+	private final String prefix;
+	private final int repeatCount;
+	private final List<String> targets;
+	private final String table;
+	private final String command;
+	private String normalizedCommand;
+
+	private RollRequest(Type type, String prefix, int repeatCount, List<String> targets, String table, String command) {
+		this.type = type;
+		this.prefix = prefix;
+		this.repeatCount = repeatCount;
+		this.targets = targets;
+		this.table = table;
+		this.command = command;
+	}
+
+	/**
+	 * @param message the message
+	 * @param rollCommand the prefix required for the dice, like /r. Empty if any message can be a dice command.
+	 * @param tableFinder returns the name of the original dicebot table which the text starts with, or an empty string
+	 * @return the request, or null if the message doesn't start with the roll command
+	 */
+	public static RollRequest parse(String message, String rollCommand, Function<String, String> tableFinder) {
+		String input = removeRollCommand(message, rollCommand);
+		if(input == null) {
+			return null;
+		}
+		if(input.isEmpty()) {
+			return plain(rollCommand, input, tableFinder);
+		}
+		char first = input.charAt(0);
+		if(first == '[') {
+			return parseTargets(rollCommand, input, tableFinder);
+		}
+		int digitsStart = 0;
+		if(! isDigit(first)) {
+			digitsStart = getRepeatWordLength(input);
+			if(digitsStart == 0) {
+				return plain(rollCommand, input, tableFinder);
+			}
+		}
+		int digitsEnd = digitsStart;
+		while(digitsEnd < input.length() && isDigit(input.charAt(digitsEnd))) {
+			digitsEnd++;
+		}
+		int count = parseCount(input, digitsStart, digitsEnd);
+		if(count < 0) {
+			// Too large for a repeat. BCDice-API answers it as it is.
+			return plain(rollCommand, input, tableFinder);
+		}
+		String command;
+		String body;
+		if(digitsStart == 0) {
+			if(digitsEnd == input.length() || input.charAt(digitsEnd) != ' ') {
+				return plain(rollCommand, input, tableFinder);
+			}
+			body = trim(input, digitsEnd, input.length());
+			command = "repeat" + input.substring(0, digitsEnd) + " " + body;
+		} else {
+			body = trim(input, digitsEnd, input.length());
+			command = input;
+		}
+		String table = tableFinder.apply(body);
+		if(table.isEmpty()) {
+			// The whole command may still be the name of a table, which is rolled once
+			table = tableFinder.apply(command);
+			count = table.isEmpty() ? count : 1;
+		}
+		return new RollRequest(Type.REPEAT, rollCommand, count, Collections.<String>emptyList(), table, command);
+	}
+
+	/**
+	 * Parse the message as one command, without the repeat and the targets.
+	 * @param message the message
+	 * @param rollCommand the prefix required for the dice, like /r. Empty if any message can be a dice command.
+	 * @param tableFinder returns the name of the original dicebot table which the text starts with, or an empty string
+	 * @return the PLAIN request, or null if the message doesn't start with the roll command
+	 */
+	public static RollRequest parsePlain(String message, String rollCommand, Function<String, String> tableFinder) {
+		String input = removeRollCommand(message, rollCommand);
+		return (input == null) ? null : plain(rollCommand, input, tableFinder);
+	}
+
+	/**
+	 * @return the trimmed text after the roll command, or null if the message doesn't start with it
+	 */
+	private static String removeRollCommand(String message, String rollCommand) {
+		int start = 0;
+		while(start < message.length() && message.charAt(start) <= ' ') {
+			start++;
+		}
+		if(! message.startsWith(rollCommand, start)) {
+			return null;
+		}
+		return trim(DiceCommandNormalizer.replaceHorizontalWhitespace(message), start + rollCommand.length(), message.length());
+	}
+
+	private static RollRequest plain(String rollCommand, String input, Function<String, String> tableFinder) {
+		return new RollRequest(Type.PLAIN, rollCommand, 1, Collections.<String>emptyList(), tableFinder.apply(input), input);
+	}
+
+	/**
+	 * [TARGET1,TARGET2] COMMAND. The targets end at the last "] " in the first line.
+	 */
+	private static RollRequest parseTargets(String rollCommand, String input, Function<String, String> tableFinder) {
+		int end = -1;
+		for(int i = 1; i < input.length() && ! isLineTerminator(input.charAt(i)); i++) {
+			if(i >= 2 && input.charAt(i) == ']' && i + 1 < input.length() && input.charAt(i + 1) == ' ') {
+				end = i;
+			}
+		}
+		if(end < 0) {
+			return plain(rollCommand, input, tableFinder);
+		}
+		// Same as String#split, which drops the empty targets at the end
+		List<String> targets = Collections.unmodifiableList(Arrays.asList(input.substring(1, end).split(",")));
+		String command = trim(input, end + 2, input.length());
+		return new RollRequest(Type.TARGETS, rollCommand, 1, targets, tableFinder.apply(command), command);
+	}
+
+	/**
+	 * @return length of x, rep or repeat followed by a digit, or 0
+	 */
+	private static int getRepeatWordLength(String input) {
+		for(String word : REPEAT_WORDS) {
+			if(input.startsWith(word) && word.length() < input.length() && isDigit(input.charAt(word.length()))) {
+				return word.length();
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the number, or -1 if it is larger than Integer.MAX_VALUE
+	 */
+	private static int parseCount(String input, int start, int end) {
+		long count = 0;
+		for(int i = start; i < end; i++) {
+			count = count * 10 + (input.charAt(i) - '0');
+			if(count > Integer.MAX_VALUE) {
+				return -1;
+			}
+		}
+		return (int) count;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * @return true for the characters which . of the regular expression doesn't match
+	 */
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	/**
+	 * Same as <code>text.substring(start, end).trim()</code>, without the copy in between.
+	 */
+	private static String trim(String text, int start, int end) {
+		while(start < end && text.charAt(start) <= ' ') {
+			start++;
+		}
+		while(start < end && text.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		return text.substring(start, end);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return the roll command the message started with. Empty if no roll command is required.
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * @return the times in x3, rep3, repeat3 or 3. It is 1 without them.
+	 */
+	public int getRepeatCount() {
+		return repeatCount;
+	}
+
+	/**
+	 * @return the targets in [TARGET1,TARGET2]. Empty unless the type is TARGETS.
+	 */
+	public List<String> getTargets() {
+		return targets;
+	}
+
+	/**
+	 * @return the name of the original dicebot table to roll, or an empty string if the command is sent to BCDice-API
+	 */
+	public String getTable() {
+		return table;
+	}
+
+	/**
+	 * @return the command sent to BCDice-API, without the roll command
+	 */
+	public String getCommand() {
+		return command;
+	}
+
+	/**
+	 * @return the command encoded by DiceCommandNormalizer. It is made on the first call.
+	 */
+	public String getNormalizedCommand() {
+		String result = normalizedCommand;
+		if(result == null) {
+			result = DiceCommandNormalizer.normalize(command);
+			normalizedCommand = result;
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s%s x%s %s table:[%s] %s", prefix, type, repeatCount, targets, table, command);
+	}
+}
@@ -0,0 +1,45 @@
+package com.hiyoko.discord.bot.BCDice.SecretMessages;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keys of the secret dice results for <code>bcdice load</code>.
+ * <p>
+ * A key is 40 random bits and a counter of the process in base 32 (0-9 and a-z without i, l, o, u), like "k3q9z0cw1".
+ * The counter makes the keys unique in the process, and the random part makes them hard to guess.
+ * Unlike the limit of the message, the key doesn't tell when the dice was rolled.
+ */
+class SecretKeyGenerator {
+	private static final char[] DIGITS = "0123456789abcdefghjkmnpqrstvwxyz".toCharArray();
+	private static final int RANDOM_CHARS = 8;
+	private final SecureRandom random = new SecureRandom();
+	private final AtomicLong counter = new AtomicLong();
+
+	/**
+	 * @return a new key
+	 */
+	String next() {
+		long count = counter.getAndIncrement();
+		long bits = random.nextLong();
+		char[] key = new char[RANDOM_CHARS + 13];
+		int length = 0;
+		for(int i = 0; i < RANDOM_CHARS; i++) {
+			key[length++] = DIGITS[(int) (bits & 31)];
+			bits >>>= 5;
+		}
+		do {
+			key[length++] = DIGITS[(int) (count & 31)];
+			count >>>= 5;
+		} while(count != 0);
+		return new String(key, 0, length);
+	}
+
+	/**
+	 * @param input key typed by the user
+	 * @return the key as it is generated. Upper case letters are accepted.
+	 */
+	static String normalize(String input) {
+		return input.trim().toLowerCase();
+	}
+}
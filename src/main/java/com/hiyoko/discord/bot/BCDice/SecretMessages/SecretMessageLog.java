@@ -0,0 +1,317 @@
+package com.hiyoko.discord.bot.BCDice.SecretMessages;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hiyoko.discord.bot.BCDice.dto.SecretMessage;
+
+/**
+ * Append-only file of the saved secret dice results, so that they can be loaded after a restart.
+ * <p>
+ * Each record is <code>int length, int CRC32, payload</code>. A broken or partially written record at the end,
+ * left by a crash, is cut off when the file is read. Only saved messages are written.
+ * The expired ones are skipped on replay and dropped by compaction, which rewrites the file with the live messages.
+ * <p>
+ * The records are written by a single thread. It writes every record in the queue and then syncs the file once,
+ * so the caller doesn't wait for the disk and a burst of secret dice is one sync.
+ */
+public class SecretMessageLog {
+	private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+	private final File file;
+	private final BlockingQueue<Object> queue = new LinkedBlockingQueue<Object>();
+	private final Logger logger = LoggerFactory.getLogger(SecretMessageLog.class);
+	private volatile int recordCount = 0;
+	private FileOutputStream output;
+	private Thread writer;
+
+	/**
+	 * A saved message.
+	 */
+	static class Record {
+		final String userId;
+		final String key;
+		final SecretMessage message;
+
+		Record(String userId, String key, SecretMessage message) {
+			this.userId = userId;
+			this.key = key;
+			this.message = message;
+		}
+	}
+
+	private static class Compaction {
+		private final List<Record> records;
+
+		private Compaction(List<Record> records) {
+			this.records = records;
+		}
+	}
+
+	private static class Flush {
+		private final CountDownLatch done = new CountDownLatch(1);
+	}
+
+	private static class Close extends Flush {}
+
+	/**
+	 * @param path the log file
+	 */
+	public SecretMessageLog(String path) {
+		file = new File(path);
+	}
+
+	/**
+	 * @return the log at BCDICE_SECRET_LOG, or null if it is not set
+	 */
+	public static SecretMessageLog getDefault() {
+		String path = System.getenv("BCDICE_SECRET_LOG");
+		return (path == null || path.trim().isEmpty()) ? null : new SecretMessageLog(path.trim());
+	}
+
+	/**
+	 * Read the records and start writing. The broken end of the file is cut off.
+	 * @return the records in the file
+	 * @throws IOException
+	 */
+	public synchronized List<Record> open() throws IOException {
+		List<Record> result = new ArrayList<Record>();
+		long validLength = 0;
+		if(file.exists()) {
+			try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+				while(true) {
+					byte[] payload = readRecord(input);
+					if(payload == null) {
+						break;
+					}
+					result.add(decode(payload));
+					validLength += 8 + payload.length;
+				}
+			}
+			if(validLength < file.length()) {
+				logger.warn(String.format("シークレットダイスのログ %s の末尾 %s バイトが壊れているため切り捨てます", file, file.length() - validLength));
+				try (RandomAccessFile truncate = new RandomAccessFile(file, "rw")) {
+					truncate.setLength(validLength);
+				}
+			}
+		}
+		recordCount = result.size();
+		output = new FileOutputStream(file, true);
+		writer = new Thread(this::write, "secret-message-log");
+		writer.setDaemon(true);
+		writer.start();
+		return result;
+	}
+
+	/**
+	 * @return the payload, or null at the end of the valid records
+	 */
+	private static byte[] readRecord(DataInputStream input) throws IOException {
+		try {
+			int length = input.readInt();
+			int checksum = input.readInt();
+			if(length < 0 || length > MAX_RECORD_SIZE) {
+				return null;
+			}
+			byte[] payload = new byte[length];
+			input.readFully(payload);
+			return (checksum(payload) == checksum) ? payload : null;
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+
+	private static int checksum(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+		return (int) crc.getValue();
+	}
+
+	private static void writeString(DataOutputStream output, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	private static String readString(DataInputStream input) throws IOException {
+		byte[] bytes = new byte[input.readInt()];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static byte[] encode(Record record) throws IOException {
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(payload);
+		writeString(data, record.userId);
+		writeString(data, record.key);
+		data.writeLong(record.message.getLimit());
+		data.writeInt(record.message.getMessages().size());
+		for(String message : record.message.getMessages()) {
+			writeString(data, message);
+		}
+		data.flush();
+		byte[] bytes = payload.toByteArray();
+		ByteArrayOutputStream result = new ByteArrayOutputStream(bytes.length + 8);
+		DataOutputStream resultData = new DataOutputStream(result);
+		resultData.writeInt(bytes.length);
+		resultData.writeInt(checksum(bytes));
+		resultData.write(bytes);
+		return result.toByteArray();
+	}
+
+	private static Record decode(byte[] payload) throws IOException {
+		DataInputStream data = new DataInputStream(new ByteArrayInputStream(payload));
+		String userId = readString(data);
+		String key = readString(data);
+		long limit = data.readLong();
+		int count = data.readInt();
+		List<String> messages = new ArrayList<String>();
+		for(int i = 0; i < count; i++) {
+			messages.add(readString(data));
+		}
+		return new Record(userId, key, new SecretMessage(messages, limit));
+	}
+
+	/**
+	 * Queue the saved message. It returns at once.
+	 */
+	public void append(String userId, String key, SecretMessage message) {
+		queue.add(new Record(userId, key, message));
+	}
+
+	/**
+	 * Queue the rewrite of the file with the live messages. The records queued before this are included in them.
+	 * @param records all the messages in the store
+	 */
+	public void compact(List<Record> records) {
+		queue.add(new Compaction(records));
+	}
+
+	/**
+	 * @return number of the records in the file
+	 */
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Wait until the queued records are written.
+	 */
+	public void flush() throws InterruptedException {
+		Flush flush = new Flush();
+		queue.add(flush);
+		flush.done.await();
+	}
+
+	/**
+	 * Write the queued records, stop the writer thread and close the file. The records appended after this are not written.
+	 */
+	public void close() throws InterruptedException {
+		synchronized (this) {
+			if(writer == null) {
+				return;
+			}
+			writer = null;
+		}
+		Flush close = new Close();
+		queue.add(close);
+		close.done.await();
+	}
+
+	private void write() {
+		List<Object> batch = new ArrayList<Object>();
+		boolean closing = false;
+		while(! closing) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+			queue.drainTo(batch);
+			List<Flush> flushes = new ArrayList<Flush>();
+			try {
+				BufferedOutputStream buffered = new BufferedOutputStream(output);
+				for(Object item : batch) {
+					if(item instanceof Record) {
+						buffered.write(encode((Record) item));
+						recordCount++;
+					} else if(item instanceof Compaction) {
+						buffered.flush();
+						rewrite(((Compaction) item).records);
+						buffered = new BufferedOutputStream(output);
+					} else if(item instanceof Flush) {
+						flushes.add((Flush) item);
+						closing |= item instanceof Close;
+					}
+				}
+				buffered.flush();
+				output.getFD().sync();
+			} catch (IOException e) {
+				logger.warn(String.format("シークレットダイスのログ %s に書き込めませんでした", file), e);
+			}
+			if(closing) {
+				try {
+					output.close();
+				} catch (IOException e) {
+					logger.warn(String.format("シークレットダイスのログ %s を閉じられませんでした", file), e);
+				}
+			}
+			for(Flush flush : flushes) {
+				flush.done.countDown();
+			}
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Write the records to a temporary file and move it over the log.
+	 */
+	private void rewrite(List<Record> records) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile(file.getName(), ".tmp", directory);
+		try {
+			try (FileOutputStream tempOutput = new FileOutputStream(temp)) {
+				BufferedOutputStream buffered = new BufferedOutputStream(tempOutput);
+				for(Record record : records) {
+					buffered.write(encode(record));
+				}
+				buffered.flush();
+				tempOutput.getFD().sync();
+			}
+			output.close();
+			try {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			recordCount = records.size();
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+			if(! output.getFD().valid()) {
+				output = new FileOutputStream(file, true);
+			}
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package com.hiyoko.discord.bot.BCDice.SecretMessages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hiyoko.discord.bot.BCDice.dto.SecretMessage;
+
+/**
+ * Results of the secret dice by user.
+ * <p>
+ * A message is removed when its limit passes. The expired messages are found from a priority queue ordered by the limit,
+ * by a timer every minute and on every save, so the store doesn't grow while nobody runs refreshSecretDice.
+ * The number of messages is bounded per user and in total. When a bound is reached, the oldest message is dropped.
+ * All the methods are synchronized because they are called from the threads of Javacord.
+ * <p>
+ * With BCDICE_SECRET_LOG, the saved messages are also written to SecretMessageLog and read again on start.
+ */
+public class SecretMessageStore {
+	private static final long TTL_MILLIS = TimeUnit.DAYS.toMillis(3);
+	private static final int DEFAULT_MAX_PER_USER = 100;
+	private static final int DEFAULT_MAX_TOTAL = 10000;
+	private static final int MIN_RECORDS_TO_COMPACT = 1000;
+	private static final ScheduledExecutorService EXPIRY_TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "secret-message-expiry");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final Map<String, LinkedHashMap<String, SecretMessage>> messages = new HashMap<String, LinkedHashMap<String, SecretMessage>>();
+	private final PriorityQueue<Expiry> expiries = new PriorityQueue<Expiry>((a, b) -> Long.compare(a.limit, b.limit));
+	private final LongSupplier clock;
+	private final int maxPerUser;
+	private final int maxTotal;
+	private final SecretMessageLog log;
+	private final SecretKeyGenerator keys = new SecretKeyGenerator();
+	private final Logger logger = LoggerFactory.getLogger(SecretMessageStore.class);
+	private int size = 0;
+	private long expiredCount = 0;
+	private long evictedCount = 0;
+
+	/**
+	 * Entry of the expiry queue. It is skipped if the message is already removed.
+	 */
+	private static class Expiry {
+		private final long limit;
+		private final String userId;
+		private final String key;
+
+		private Expiry(long limit, String userId, String key) {
+			this.limit = limit;
+			this.userId = userId;
+			this.key = key;
+		}
+	}
+
+	public SecretMessageStore() {
+		this(System::currentTimeMillis, getMax("BCDICE_SECRET_MAX_PER_USER", DEFAULT_MAX_PER_USER),
+				getMax("BCDICE_SECRET_MAX_TOTAL", DEFAULT_MAX_TOTAL), SecretMessageLog.getDefault());
+		EXPIRY_TIMER.scheduleWithFixedDelay(this::maintain, 1, 1, TimeUnit.MINUTES);
+		if(log != null) {
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					log.flush();
+				} catch (InterruptedException e) {
+					return;
+				}
+			}, "secret-message-log-flush"));
+		}
+	}
+
+	SecretMessageStore(LongSupplier clock, int maxPerUser, int maxTotal) {
+		this(clock, maxPerUser, maxTotal, null);
+	}
+
+	/**
+	 * @param log the messages in it are loaded. If it can't be read, the messages are kept only in the memory.
+	 */
+	SecretMessageStore(LongSupplier clock, int maxPerUser, int maxTotal, SecretMessageLog log) {
+		this.clock = clock;
+		this.maxPerUser = maxPerUser;
+		this.maxTotal = maxTotal;
+		SecretMessageLog openedLog = null;
+		if(log != null) {
+			try {
+				long now = clock.getAsLong();
+				for(SecretMessageLog.Record record : log.open()) {
+					if(record.message.getLimit() >= now) {
+						put(record.userId, record.key, record.message);
+					}
+				}
+				openedLog = log;
+				logger.info(String.format("%s件のシークレットダイスの結果を読み込みました", size));
+			} catch (IOException e) {
+				logger.warn("シークレットダイスのログを読み込めませんでした。結果はメモリにのみ保存します", e);
+			}
+		}
+		this.log = openedLog;
+	}
+
+	private static int getMax(String name, int defaultValue) {
+		String value = System.getenv(name);
+		try {
+			return value == null ? defaultValue : Math.max(1, Integer.parseInt(value.trim()));
+		} catch (NumberFormatException e) {
+			System.err.println(String.format("%s is ignored: %s", name, value));
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * @param userId
+	 * @param userMessages the result of the secret dice
+	 * @return the key to load the messages
+	 */
+	public synchronized String save(String userId, List<String> userMessages) {
+		removeExpired();
+		SecretMessage secretMessage = new SecretMessage(userMessages, clock.getAsLong() + TTL_MILLIS);
+		Map<String, SecretMessage> userMap = messages.get(userId);
+		String key = keys.next();
+		while(userMap != null && userMap.containsKey(key)) {
+			// Only with a key loaded from the log of another process
+			key = keys.next();
+		}
+		put(userId, key, secretMessage);
+		if(log != null) {
+			log.append(userId, key, secretMessage);
+		}
+		return key;
+	}
+
+	private void put(String userId, String key, SecretMessage secretMessage) {
+		LinkedHashMap<String, SecretMessage> userMap = messages.get(userId);
+		if(userMap == null) {
+			userMap = new LinkedHashMap<String, SecretMessage>();
+			messages.put(userId, userMap);
+		}
+		userMap.put(key, secretMessage);
+		expiries.add(new Expiry(secretMessage.getLimit(), userId, key));
+		size++;
+		if(userMap.size() > maxPerUser) {
+			// The first one is the oldest because the map keeps the order of insertion
+			remove(userId, userMap.keySet().iterator().next());
+			evictedCount++;
+		}
+		while(size > maxTotal) {
+			Expiry oldest = expiries.poll();
+			if(remove(oldest.userId, oldest.key)) {
+				evictedCount++;
+			}
+		}
+	}
+
+	/**
+	 * @param userId
+	 * @param key
+	 * @return the message, or null if it doesn't exist or is expired
+	 */
+	public synchronized SecretMessage get(String userId, String key) {
+		Map<String, SecretMessage> userMap = messages.get(userId);
+		if(userMap == null) {
+			return null;
+		}
+		SecretMessage secretMessage = userMap.get(SecretKeyGenerator.normalize(key));
+		if(secretMessage == null || secretMessage.getLimit() < clock.getAsLong()) {
+			return null;
+		}
+		return secretMessage;
+	}
+
+	private boolean remove(String userId, String key) {
+		Map<String, SecretMessage> userMap = messages.get(userId);
+		if(userMap == null || userMap.remove(key) == null) {
+			return false;
+		}
+		size--;
+		if(userMap.isEmpty()) {
+			messages.remove(userId);
+		}
+		return true;
+	}
+
+	/**
+	 * @return "user/key" of the removed messages
+	 */
+	public synchronized List<String> removeExpired() {
+		List<String> result = new ArrayList<String>();
+		long now = clock.getAsLong();
+		while(! expiries.isEmpty() && expiries.peek().limit < now) {
+			Expiry expiry = expiries.poll();
+			if(remove(expiry.userId, expiry.key)) {
+				expiredCount++;
+				result.add(String.format("%s/%s", expiry.userId, expiry.key));
+			}
+		}
+		if(expiries.size() > size * 2 + 64) {
+			// Drop the entries of the messages which were evicted, so that the queue doesn't grow
+			Iterator<Expiry> iterator = expiries.iterator();
+			while(iterator.hasNext()) {
+				Expiry expiry = iterator.next();
+				Map<String, SecretMessage> userMap = messages.get(expiry.userId);
+				if(userMap == null || ! userMap.containsKey(expiry.key)) {
+					iterator.remove();
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Remove the expired messages, and compact the log when most of its records are not needed.
+	 */
+	private synchronized void maintain() {
+		removeExpired();
+		if(log != null && log.getRecordCount() > Math.max(MIN_RECORDS_TO_COMPACT, size * 2)) {
+			List<SecretMessageLog.Record> records = new ArrayList<SecretMessageLog.Record>();
+			for(Map.Entry<String, LinkedHashMap<String, SecretMessage>> user : messages.entrySet()) {
+				for(Map.Entry<String, SecretMessage> message : user.getValue().entrySet()) {
+					records.add(new SecretMessageLog.Record(user.getKey(), message.getKey(), message.getValue()));
+				}
+			}
+			log.compact(records);
+		}
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized List<String> getMetrics() {
+		List<String> result = new ArrayList<String>();
+		result.add(String.format("シークレットダイス: size: %s / users: %s / expired: %s / evicted: %s",
+				size, messages.size(), expiredCount, evictedCount));
+		return result;
+	}
+}
@@ -0,0 +1,258 @@
+package com.hiyoko.discord.bot.BCDice.dto;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Large original table compiled into an index file next to the text file.
+ * <p>
+ * The index file is memory-mapped, and only the text of the rolled value is decoded, so a table of 100k rows
+ * doesn't become 100k Strings in the heap. It is rebuilt when the modification time or the size of the text file changes.
+ * <p>
+ * Format (big endian): magic "BCDT", version, lastModified and length of the text file,
+ * title, command and help (int length + UTF-8), number of values,
+ * (int offset, int length) for each value (length -1 if the table doesn't have the value), then the UTF-8 texts.
+ * <p>
+ * An index which doesn't fit in its file, like one left by a crash or a full disk, is treated as stale and rebuilt.
+ */
+public class IndexedDiceTable implements LocalDiceTable.TableTexts {
+	private static final int MAGIC = 0x42434454;
+	private static final int VERSION = 1;
+	private static final int MISSING = -1;
+	private final ByteBuffer buffer;
+	private final String title;
+	private final String command;
+	private final String help;
+	private final int count;
+	private final int indexOffset;
+	private final int textOffset;
+
+	/**
+	 * @throws IllegalArgumentException When the index doesn't fit in the buffer
+	 */
+	private IndexedDiceTable(ByteBuffer buffer) {
+		this.buffer = buffer;
+		buffer.getInt();
+		buffer.getInt();
+		buffer.getLong();
+		buffer.getLong();
+		title = readString(buffer);
+		command = readString(buffer);
+		help = readString(buffer);
+		count = readInt(buffer);
+		indexOffset = buffer.position();
+		if(count < 0 || count > (buffer.limit() - indexOffset) / 8) {
+			throw new IllegalArgumentException(String.format("The index has %s values, but it is too short", count));
+		}
+		textOffset = indexOffset + count * 8;
+		long textLength = buffer.limit() - textOffset;
+		for(int value = 0; value < count; value++) {
+			int offset = buffer.getInt(indexOffset + value * 8);
+			int length = buffer.getInt(indexOffset + value * 8 + 4);
+			if(length != MISSING && (offset < 0 || length < 0 || (long) offset + length > textLength)) {
+				throw new IllegalArgumentException(String.format("The text of %s is out of the index", value));
+			}
+		}
+	}
+
+	private static int readInt(ByteBuffer buffer) {
+		if(buffer.remaining() < 4) {
+			throw new IllegalArgumentException("The index is too short");
+		}
+		return buffer.getInt();
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = readInt(buffer);
+		if(length < 0 || length > buffer.remaining()) {
+			throw new IllegalArgumentException(String.format("The string of %s bytes is out of the index", length));
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeString(DataOutputStream output, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	/**
+	 * @param source text file of the table
+	 * @param index index file. It is created or rebuilt if needed.
+	 * @param name name of the table
+	 * @return the table, or null if it can't be compiled because of its dice type
+	 * @throws IOException
+	 */
+	public static OriginalDiceBotTable load(File source, File index, String name) throws IOException {
+		long lastModified = source.lastModified();
+		long length = source.length();
+		IndexedDiceTable table = open(index, lastModified, length);
+		if(table == null) {
+			if(! build(source, index, name, lastModified, length)) {
+				return null;
+			}
+			table = open(index, lastModified, length);
+			if(table == null) {
+				throw new IOException(String.format("ダイスボット表 [%s] のインデックスを読み込めませんでした", name));
+			}
+		}
+		return new OriginalDiceBotTable(name, table.command, table.help, LocalDiceTable.of(table.title, table.command, table));
+	}
+
+	/**
+	 * @return the table, or null if the index file doesn't exist, is for another version of the text file or is broken
+	 */
+	private static IndexedDiceTable open(File index, long lastModified, long length) throws IOException {
+		if(! index.exists()) {
+			return null;
+		}
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(index.toPath(), StandardOpenOption.READ)) {
+			// The mapping is kept after the channel is closed
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if(buffer.limit() < 24 || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+				|| buffer.getLong(8) != lastModified || buffer.getLong(16) != length) {
+			return null;
+		}
+		try {
+			return new IndexedDiceTable(buffer);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Read the text file line by line, and write the index file. The texts go to a temporary file first
+	 * because the offsets are written before them.
+	 * @return false if the table can't be compiled
+	 */
+	private static boolean build(File source, File index, String name, long lastModified, long length) throws IOException {
+		File directory = index.getAbsoluteFile().getParentFile();
+		Path texts = Files.createTempFile(directory.toPath(), index.getName(), ".texts");
+		Path temp = Files.createTempFile(directory.toPath(), index.getName(), ".tmp");
+		try {
+			String title;
+			String command;
+			String lastLine;
+			int[] offsets;
+			int[] lengths;
+			try (
+					BufferedReader reader = Files.newBufferedReader(source.toPath(), StandardCharsets.UTF_8);
+					OutputStream textOutput = new BufferedOutputStream(Files.newOutputStream(texts));) {
+				String first = reader.readLine();
+				if(first == null) {
+					return false;
+				}
+				boolean isFirstLineCommand = OriginalDiceBotTable.DICE_COMMAND_PATTERN.matcher(first.trim()).find();
+				String second = isFirstLineCommand ? null : reader.readLine();
+				if(! isFirstLineCommand && second == null) {
+					return false;
+				}
+				title = isFirstLineCommand ? name : first.trim();
+				command = isFirstLineCommand ? first : second;
+				int maxValue = LocalDiceTable.getMaxValue(command);
+				if(maxValue < 0) {
+					return false;
+				}
+				offsets = new int[maxValue + 1];
+				lengths = new int[maxValue + 1];
+				Arrays.fill(lengths, MISSING);
+				long position = 0;
+				lastLine = (second == null) ? first : second;
+				String line;
+				while((line = reader.readLine()) != null) {
+					lastLine = line;
+					if(! OriginalDiceBotTable.ORIGINAL_DICEBOT_VALUE_LINE.matcher(line).find()) {
+						continue;
+					}
+					String[] row = line.split(":", 2);
+					int value;
+					try {
+						value = Integer.parseInt(row[0]);
+					} catch (NumberFormatException e) {
+						return false;
+					}
+					if(value > maxValue) {
+						continue;
+					}
+					byte[] bytes = LocalDiceTable.toText(row[1]).getBytes(StandardCharsets.UTF_8);
+					if(position + bytes.length > Integer.MAX_VALUE - 1024L * 1024) {
+						throw new IOException(String.format("ダイスボット表 %s が大きすぎます", source.getName()));
+					}
+					offsets[value] = (int) position;
+					lengths[value] = bytes.length;
+					textOutput.write(bytes);
+					position += bytes.length;
+				}
+			}
+			lastLine = lastLine.trim();
+			String help = OriginalDiceBotTable.ORIGINAL_DICEBOT_VALUE_LINE.matcher(lastLine).find() ? "" : lastLine.replaceAll("\\\\n", "\n");
+			try (
+					DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)));
+					InputStream textInput = new BufferedInputStream(Files.newInputStream(texts));) {
+				output.writeInt(MAGIC);
+				output.writeInt(VERSION);
+				output.writeLong(lastModified);
+				output.writeLong(length);
+				writeString(output, title);
+				writeString(output, command);
+				writeString(output, help);
+				output.writeInt(offsets.length);
+				for(int i = 0; i < offsets.length; i++) {
+					output.writeInt(offsets[i]);
+					output.writeInt(lengths[i]);
+				}
+				byte[] chunk = new byte[8192];
+				int read;
+				while((read = textInput.read(chunk)) > 0) {
+					output.write(chunk, 0, read);
+				}
+			}
+			try {
+				Files.move(temp, index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			return true;
+		} finally {
+			Files.deleteIfExists(texts);
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	@Override
+	public String get(int value) {
+		if(value < 0 || value >= count) {
+			return null;
+		}
+		int length = buffer.getInt(indexOffset + value * 8 + 4);
+		if(length == MISSING) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		ByteBuffer text = buffer.duplicate();
+		// Cast for Java 8, where position returns Buffer
+		((Buffer) text).position(textOffset + buffer.getInt(indexOffset + value * 8));
+		text.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,196 @@
+package com.hiyoko.discord.bot.BCDice.dto;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Original table compiled to be rolled without BCDice-API.
+ * <p>
+ * The texts are kept in an array indexed by the rolled value, so a roll is a few random numbers and an array access.
+ * The dice types are the same as the original tables of BCDice: xDy (sum) and D66, D66a, D66s, D66n, D66d.
+ * The result is formatted as BCDice does: <code>name(value) ＞ text</code>
+ */
+public class LocalDiceTable {
+	private static final Pattern SUM_DICE = Pattern.compile("^(\\d*)D(\\d+)$");
+	private static final Pattern D66_DICE = Pattern.compile("^D66([ANSD]?)$");
+	private static final int MAX_DICE = 1000;
+	private static final int MAX_VALUE = 1000000;
+
+	private enum D66Order {NONE, ASC, DESC}
+
+	/**
+	 * Texts of the table by the rolled value.
+	 */
+	interface TableTexts {
+		/**
+		 * @return the text, or null if the table doesn't have the value
+		 */
+		String get(int value);
+	}
+
+	/**
+	 * Dice type of a table.
+	 */
+	private static class DiceType {
+		private final int times;
+		private final int sides;
+		private final D66Order d66Order;
+
+		private DiceType(int times, int sides, D66Order d66Order) {
+			this.times = times;
+			this.sides = sides;
+			this.d66Order = d66Order;
+		}
+
+		private int getMaxValue() {
+			return (d66Order == null) ? times * sides : 66;
+		}
+
+		private boolean isPossible(int value) {
+			if(d66Order == null) {
+				return value >= times && value <= times * sides;
+			}
+			return value / 10 >= 1 && value / 10 <= 6 && value % 10 >= 1 && value % 10 <= 6;
+		}
+	}
+
+	private final String name;
+	private final String command;
+	private final DiceType type;
+	private final TableTexts texts;
+
+	private LocalDiceTable(String name, String command, DiceType type, TableTexts texts) {
+		this.name = name;
+		this.command = command;
+		this.type = type;
+		this.texts = texts;
+	}
+
+	private static DiceType parseType(String command) {
+		String type = command.trim().toUpperCase();
+		Matcher d66 = D66_DICE.matcher(type);
+		if(d66.find()) {
+			D66Order order = D66Order.NONE;
+			if(d66.group(1).equals("A") || d66.group(1).equals("S")) {
+				order = D66Order.ASC;
+			} else if(d66.group(1).equals("D")) {
+				order = D66Order.DESC;
+			}
+			return new DiceType(2, 6, order);
+		}
+		Matcher sum = SUM_DICE.matcher(type);
+		if(! sum.find()) {
+			return null;
+		}
+		try {
+			int times = sum.group(1).isEmpty() ? 1 : Integer.parseInt(sum.group(1));
+			int sides = Integer.parseInt(sum.group(2));
+			if(times < 1 || sides < 1 || times > MAX_DICE || (long) times * sides > MAX_VALUE) {
+				return null;
+			}
+			return new DiceType(times, sides, null);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param command dice type of the table
+	 * @return the largest value of the dice, or -1 if the dice type can't be rolled locally
+	 */
+	static int getMaxValue(String command) {
+		DiceType type = parseType(command);
+		return (type == null) ? -1 : type.getMaxValue();
+	}
+
+	/**
+	 * @param command dice type of the table
+	 * @return tests whether the dice can roll a value, or null if the dice type can't be rolled locally
+	 */
+	static IntPredicate getPossibleValues(String command) {
+		DiceType type = parseType(command);
+		return (type == null) ? null : type::isPossible;
+	}
+
+	/**
+	 * @param name name of the table in the result
+	 * @param command dice type of the table like 2D6 or D66s
+	 * @param rows value to text. "\n" in the text is a line break.
+	 * @return compiled table, or null if the dice type can't be rolled locally
+	 */
+	public static LocalDiceTable compile(String name, String command, Map<Integer, String> rows) {
+		DiceType type = parseType(command);
+		if(type == null) {
+			return null;
+		}
+		String[] array = new String[type.getMaxValue() + 1];
+		for(Map.Entry<Integer, String> row : rows.entrySet()) {
+			int value = row.getKey();
+			if(value >= 0 && value < array.length) {
+				array[value] = toText(row.getValue());
+			}
+		}
+		return new LocalDiceTable(name, command, type, value -> (value >= 0 && value < array.length) ? array[value] : null);
+	}
+
+	/**
+	 * @param texts texts which are already converted by toText
+	 * @return the table, or null if the dice type can't be rolled locally
+	 */
+	static LocalDiceTable of(String name, String command, TableTexts texts) {
+		DiceType type = parseType(command);
+		return (type == null) ? null : new LocalDiceTable(name, command, type, texts);
+	}
+
+	/**
+	 * @param raw the part after "value:" in the file
+	 * @return the text to show
+	 */
+	static String toText(String raw) {
+		return raw.replace("\\n", "\n");
+	}
+
+	/**
+	 * @return the rolled value
+	 */
+	int rollValue() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		if(type.d66Order != null) {
+			int first = random.nextInt(6) + 1;
+			int second = random.nextInt(6) + 1;
+			if((type.d66Order == D66Order.ASC && first > second) || (type.d66Order == D66Order.DESC && first < second)) {
+				return second * 10 + first;
+			}
+			return first * 10 + second;
+		}
+		int value = 0;
+		for(int i = 0; i < type.times; i++) {
+			value += random.nextInt(type.sides) + 1;
+		}
+		return value;
+	}
+
+	/**
+	 * @return the text of the value, or null if the table doesn't have it
+	 */
+	String getText(int value) {
+		return texts.get(value);
+	}
+
+	/**
+	 * @return the result in the same format as BCDice
+	 * @throws IOException When the table doesn't have the rolled value
+	 */
+	public String roll() throws IOException {
+		int value = rollValue();
+		String text = getText(value);
+		if(text == null) {
+			throw new IOException(String.format("ダイスの結果が取得できませんでした (振った結果:%s / ダイスコマンド:%s)", value, command.trim()));
+		}
+		return String.format("%s(%s) ＞ %s", name, value, text);
+	}
+}
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.IntPredicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -12,8 +13,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class OriginalDiceBotTable {
-	private static final Pattern ORIGINAL_DICEBOT_VALUE_LINE = Pattern.compile("^\\d+:");
-	private static final Pattern DICE_COMMAND_PATTERN = Pattern.compile("\\d*[Dd]\\d+[AaNnSsDd]?");
+	static final Pattern ORIGINAL_DICEBOT_VALUE_LINE = Pattern.compile("^\\d+:");
+	static final Pattern DICE_COMMAND_PATTERN = Pattern.compile("\\d*[Dd]\\d+[AaNnSsDd]?");
 	private static final Pattern RESULT_VALUE_REGEXP = Pattern.compile("(\\d+)$");
 	private static final Logger logger = LoggerFactory.getLogger(OriginalDiceBotTable.class);
 	public final boolean isValid;
@@ -21,6 +22,7 @@ public class OriginalDiceBotTable {
 	private final String command;
 	private final Map<String, String> invalidTableMap;
 	private final String name;
+	private final LocalDiceTable localTable;
 	public OriginalDiceBotTable(List<String> fileContents, String name) {
 		this.name = name;
 		Matcher isDiceCommandMatcher = DICE_COMMAND_PATTERN.matcher(fileContents.get(0).trim());
@@ -55,6 +57,42 @@ public class OriginalDiceBotTable {
 			this.invalidTableMap = getInvalidTableMap(fileContents);
 			this.command = isFirstLineCommand ? fileContents.get(0) : fileContents.get(1);
 		}
+		this.localTable = compileLocalTable(fileContents, isFirstLineCommand);
+	}
+
+	/**
+	 * The table is compiled regardless of its size, so that a table longer than 1000 characters can be rolled locally.
+	 */
+	private LocalDiceTable compileLocalTable(List<String> fileContents, boolean isFirstLineCommand) {
+		if(! isFirstLineCommand && fileContents.size() < 2) {
+			return null;
+		}
+		String title = isFirstLineCommand ? name : fileContents.get(0).trim();
+		String diceCommand = isFirstLineCommand ? fileContents.get(0) : fileContents.get(1);
+		Map<Integer, String> rows = new HashMap<Integer, String>();
+		for(String line : fileContents) {
+			if(ORIGINAL_DICEBOT_VALUE_LINE.matcher(line).find()) {
+				String[] tmp = line.split(":", 2);
+				try {
+					rows.put(Integer.parseInt(tmp[0]), tmp[1]);
+				} catch (NumberFormatException e) {
+					return null;
+				}
+			}
+		}
+		return LocalDiceTable.compile(title, diceCommand, rows);
+	}
+
+	/**
+	 * Table compiled into an index file. Its rows are not kept in the memory, and it is too large for BCDice-API.
+	 */
+	OriginalDiceBotTable(String name, String command, String help, LocalDiceTable localTable) {
+		this.name = name;
+		this.command = command;
+		this.body = help;
+		this.localTable = localTable;
+		this.invalidTableMap = null;
+		this.isValid = false;
 	}
 
 	private Map<String, String> getInvalidTableMap(List<String> fileContents) {
@@ -83,14 +121,110 @@ public class OriginalDiceBotTable {
 		Matcher rollResult = RESULT_VALUE_REGEXP.matcher(result);
 		if(rollResult.find()) {
 			String diceValue = rollResult.group(1);
-			String tableValue = this.invalidTableMap.get(diceValue);
+			// The texts of the index are already converted by toText
+			String tableValue = (this.invalidTableMap == null) ? getIndexedText(diceValue) : getMapText(diceValue);
 			if(tableValue != null) {
-				return String.format("%s(%s) ＞ %s", this.name, diceValue, tableValue.replaceAll("\\\\n", "\n"));
+				return String.format("%s(%s) ＞ %s", this.name, diceValue, tableValue);
 			}
 		}
 		throw new IOException(String.format("ダイスの結果が取得できませんでした (振った結果:%s / ダイスコマンド:%s)", result, command));
 	}
 
+	/**
+	 * @return the table compiled to be rolled without BCDice-API, or null if its dice type isn't supported
+	 */
+	public LocalDiceTable getLocalTable() {
+		return localTable;
+	}
+
+	private String getMapText(String diceValue) {
+		String text = this.invalidTableMap.get(diceValue);
+		return (text == null) ? null : LocalDiceTable.toText(text);
+	}
+
+	private String getIndexedText(String diceValue) {
+		try {
+			return localTable.getText(Integer.parseInt(diceValue));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Checks the lines of a table file one by one with the rules of the constructor, so that an uploaded file
+	 * is rejected at its first bad line without holding the whole file.
+	 * <p>
+	 * The file is an optional title line, the dice command line, and then the <code>value:text</code> rows.
+	 * The values must be rolled by the dice when the dice type is known. Empty lines are skipped,
+	 * and only the last line may be a help text.
+	 */
+	public static class LineChecker {
+		private final String name;
+		private int lineNumber = 0;
+		private String command;
+		private IntPredicate possibleValues;
+		private int rows = 0;
+		private int helpLineNumber = 0;
+
+		/**
+		 * @param name name of the table in the messages
+		 */
+		public LineChecker(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @param line the next line of the file
+		 * @throws IOException When the line can't be in the table
+		 */
+		public void check(String line) throws IOException {
+			lineNumber++;
+			String trimmed = line.trim();
+			if(command != null && trimmed.isEmpty()) {
+				return;
+			}
+			if(helpLineNumber > 0) {
+				throw error(helpLineNumber, "「数字:結果」の形式ではありません");
+			}
+			if(command == null) {
+				if(DICE_COMMAND_PATTERN.matcher(trimmed).find()) {
+					command = trimmed;
+					possibleValues = LocalDiceTable.getPossibleValues(trimmed);
+				} else if(lineNumber > 1) {
+					throw error(lineNumber, "ダイスコマンドではありません");
+				}
+				return;
+			}
+			if(! ORIGINAL_DICEBOT_VALUE_LINE.matcher(line).find()) {
+				helpLineNumber = lineNumber;
+				return;
+			}
+			int value;
+			try {
+				value = Integer.parseInt(line.substring(0, line.indexOf(':')));
+			} catch (NumberFormatException e) {
+				throw error(lineNumber, "数字が大きすぎます");
+			}
+			if(possibleValues != null && ! possibleValues.test(value)) {
+				throw error(lineNumber, String.format("%s では %s は出ません", command, value));
+			}
+			rows++;
+		}
+
+		/**
+		 * @throws IOException When the file ended without the rows
+		 */
+		public void finish() throws IOException {
+			if(rows == 0) {
+				throw new IOException(String.format("ダイスボット表 [%s] に「数字:結果」の行がありません", name));
+			}
+		}
+
+		private IOException error(int number, String reason) {
+			return new IOException(String.format("ダイスボット表 [%s] の %s 行目が不正です: %s", name, number, reason));
+		}
+	}
+
 	public String getName() {
 		return this.name;
 	}
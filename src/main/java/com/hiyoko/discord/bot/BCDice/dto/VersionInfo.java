@@ -1,5 +1,7 @@
 package com.hiyoko.discord.bot.BCDice.dto;
 
+import java.io.IOException;
+
 import com.eclipsesource.json.Json;
 import com.eclipsesource.json.JsonObject;
 
@@ -12,13 +14,19 @@ public class VersionInfo {
 		apiVersion = api;
 	}
 	
-	public VersionInfo(String json) {
+	/**
+	 * @param json the response of v2/version
+	 * @return the version
+	 * @throws IOException When the response has no version, like the dummy response for an error
+	 */
+	public static VersionInfo parse(String json) throws IOException {
 		JsonObject result = Json.parse(json).asObject();
-		
-		diceVersion = result.getString("bcdice", "取得に失敗しました");
-		apiVersion = result.getString("api", "取得に失敗しました");
+		if(result.get("bcdice") == null) {
+			throw new IOException("BCDice のバージョンを取得できませんでした");
+		}
+		return new VersionInfo(result.get("bcdice").asString(), result.getString("api", "取得に失敗しました"));
 	}
-	
+
 	public String getDiceVersion() {
 		return diceVersion;
 	}
@@ -2,6 +2,7 @@ package com.hiyoko.discord.bot.BCDice;
 
 import java.util.Arrays;
 import java.util.List;
+import java.io.File;
 import java.io.IOException;
 
 import com.hiyoko.discord.bot.BCDice.OriginalDiceBotClients.OriginalDiceBotClient;
@@ -117,6 +118,18 @@ public class BCDiceCLITest extends TestCase {
 		assertEquals(cli.inputs("bcdice admin " + PASSWORD + " help", "", "channel").get(0), BCDiceCLI.HELP_ADMIN);
 	}
 
+	public void testResolveTransferFile() {
+		File directory = new File("transfer");
+		assertEquals(new File(directory, "backup/rooms.txt").getAbsoluteFile(), BCDiceCLI.resolveTransferFile(directory, "backup/rooms.txt"));
+		assertEquals(new File(directory, "rooms.txt").getAbsoluteFile(), BCDiceCLI.resolveTransferFile(directory, "./rooms.txt"));
+		assertNull(BCDiceCLI.resolveTransferFile(directory, "/etc/passwd"));
+		assertNull(BCDiceCLI.resolveTransferFile(directory, "../rooms.txt"));
+		assertNull(BCDiceCLI.resolveTransferFile(directory, "backup/../../rooms.txt"));
+		assertNull(BCDiceCLI.resolveTransferFile(directory, ""));
+		assertTrue(cli.inputs("bcdice admin " + PASSWORD + " exportFile /tmp/rooms.txt", "", "channel").get(0).startsWith("[ERROR]"));
+		assertTrue(cli.inputs("bcdice admin " + PASSWORD + " importFile ../rooms.txt", "", "channel").get(0).startsWith("[ERROR]"));
+	}
+
 	public void testSupressionMode() throws IOException {
 		String PREFIX = "/hiyoko";
 		assertTrue(cli.inputs("bcdice admin " + PASSWORD + " suppressroll", "", "channel").get(0).contains("まずコマンドじゃないだろう"));
@@ -186,6 +199,10 @@ public class BCDiceCLITest extends TestCase {
 		assertEquals(1, cli.rolls("repeat3 2d6", "no_channel").size());
 		assertEquals(1, cli.rolls("3 2d6", "no_channel").size());
 		assertEquals(3, cli.rolls("[パンダ,うさぎ,コアラ] 2d6", "no_channel").size());
+		List<DicerollResult> targets = cli.rolls("[パンダ,うさぎ,コアラ] サンプルダイスボット-夜食表", "no_channel");
+		assertTrue(targets.get(0).getText().startsWith("#パンダ\n"));
+		assertTrue(targets.get(1).getText().startsWith("#うさぎ\n"));
+		assertTrue(targets.get(2).getText().startsWith("#コアラ\n"));
 		assertEquals(3, cli.rolls("3 サンプルダイスボット-夜食表", "no_channel").size());
 		assertEquals(3, cli.rolls("rep3 サンプルダイスボット-夜食表", "no_channel").size());
 		assertEquals(3, cli.rolls("repeat3 サンプルダイスボット-夜食表", "no_channel").size());
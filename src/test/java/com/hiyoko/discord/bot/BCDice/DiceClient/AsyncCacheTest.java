@@ -0,0 +1,75 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class AsyncCacheTest extends TestCase {
+
+	public void testSingleFlight() throws IOException {
+		AsyncCache<String, String> cache = new AsyncCache<String, String>("test", 60000, 10);
+		AtomicInteger loadCount = new AtomicInteger();
+		CompletableFuture<String> pending = new CompletableFuture<String>();
+		CompletableFuture<String> first = cache.get("key", key -> {
+			loadCount.incrementAndGet();
+			return pending;
+		});
+		CompletableFuture<String> second = cache.get("key", key -> {
+			loadCount.incrementAndGet();
+			return CompletableFuture.completedFuture("another");
+		});
+		pending.complete("value");
+		assertEquals("value", AsyncResults.await(first));
+		assertEquals("value", AsyncResults.await(second));
+		assertEquals(1, loadCount.get());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+	}
+
+	public void testStaleWhileRevalidate() throws IOException, InterruptedException {
+		AsyncCache<String, String> cache = new AsyncCache<String, String>("test", 20, 10);
+		cache.get("key", key -> CompletableFuture.completedFuture("old"));
+		Thread.sleep(40);
+		CompletableFuture<String> refreshing = new CompletableFuture<String>();
+		assertEquals("old", AsyncResults.await(cache.get("key", key -> refreshing)));
+		assertEquals("old", AsyncResults.await(cache.get("key", key -> {
+			fail("Only one refresh should run");
+			return null;
+		})));
+		refreshing.complete("new");
+		assertEquals("new", AsyncResults.await(cache.get("key", key -> CompletableFuture.completedFuture("unused"))));
+		assertEquals(2, cache.getStaleHitCount());
+	}
+
+	public void testFailureIsNotCached() throws IOException {
+		AsyncCache<String, String> cache = new AsyncCache<String, String>("test", 60000, 10);
+		try {
+			AsyncResults.await(cache.get("key", key -> AsyncResults.failed(new IOException("down"))));
+			fail("IOException should be thrown");
+		} catch (IOException e) {
+			assertEquals("down", e.getMessage());
+		}
+		assertEquals("value", AsyncResults.await(cache.get("key", key -> CompletableFuture.completedFuture("value"))));
+	}
+
+	public void testSizeBound() throws InterruptedException {
+		AsyncCache<String, String> cache = new AsyncCache<String, String>("test", 60000, 2);
+		cache.get("a", key -> CompletableFuture.completedFuture(key));
+		Thread.sleep(5);
+		cache.get("b", key -> CompletableFuture.completedFuture(key));
+		Thread.sleep(5);
+		cache.get("a", key -> CompletableFuture.completedFuture(key));
+		Thread.sleep(5);
+		cache.get("c", key -> CompletableFuture.completedFuture(key));
+		assertEquals(2, cache.size());
+		AtomicInteger loadCount = new AtomicInteger();
+		cache.get("a", key -> {
+			loadCount.incrementAndGet();
+			return CompletableFuture.completedFuture(key);
+		});
+		// b was the least recently used
+		assertEquals(0, loadCount.get());
+	}
+}
@@ -0,0 +1,58 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class AsyncResultsTest extends TestCase {
+	public void testAllKeepsOrderAndConcurrency() throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(20);
+		try {
+			AtomicInteger running = new AtomicInteger();
+			AtomicInteger maxRunning = new AtomicInteger();
+			long start = System.nanoTime();
+			List<Integer> result = AsyncResults.await(AsyncResults.all(20, 5, i -> CompletableFuture.supplyAsync(() -> {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				try {
+					// Later tasks finish first
+					Thread.sleep(100 - i * 4);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				running.decrementAndGet();
+				return i;
+			}, executor)));
+			long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			List<Integer> expected = new ArrayList<Integer>();
+			for(int i = 0; i < 20; i++) {
+				expected.add(i);
+			}
+			assertEquals(expected, result);
+			assertEquals(5, maxRunning.get());
+			assertTrue(String.valueOf(elapsedMillis), elapsedMillis < 1000);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testAllFails() {
+		try {
+			AsyncResults.await(AsyncResults.all(3, 2, i -> (i == 1) ? AsyncResults.failed(new IOException("failed " + i)) : CompletableFuture.completedFuture(i)));
+			fail("IOException should be thrown");
+		} catch (IOException e) {
+			assertEquals("failed 1", e.getMessage());
+		}
+	}
+
+	public void testAllWithCompletedFutures() throws IOException {
+		assertEquals(100000, AsyncResults.await(AsyncResults.all(100000, 1, i -> CompletableFuture.completedFuture(i))).size());
+		assertTrue(AsyncResults.await(AsyncResults.all(0, 1, i -> CompletableFuture.completedFuture(i))).isEmpty());
+	}
+}
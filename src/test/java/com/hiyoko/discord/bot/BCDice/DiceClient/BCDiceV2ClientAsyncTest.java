@@ -0,0 +1,181 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.hiyoko.discord.bot.BCDice.dto.DicerollResult;
+
+import junit.framework.TestCase;
+
+public class BCDiceV2ClientAsyncTest extends TestCase {
+	private LocalBCDiceServer primary;
+	private LocalBCDiceServer secondary;
+	private File snapshotFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		primary = new LocalBCDiceServer();
+		secondary = new LocalBCDiceServer();
+		snapshotFile = File.createTempFile("dicePatterns", ".json");
+		snapshotFile.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		primary.stop();
+		secondary.stop();
+		snapshotFile.delete();
+	}
+
+	private BCDiceV2Client getClient() throws IOException {
+		List<String> urls = new ArrayList<String>();
+		urls.add(primary.getUrl());
+		urls.add(secondary.getUrl());
+		BCDiceV2Client client = new BCDiceV2Client(urls, true, new RetryPolicy(), new CommandPatternSnapshot(snapshotFile.getPath()));
+		client.awaitDicePatternRevalidation();
+		return client;
+	}
+
+	public void testManyRequestsInFlight() throws IOException {
+		BCDiceV2Client client = getClient();
+		primary.setDelayMillis(200);
+		List<CompletableFuture<DicerollResult>> futures = new ArrayList<CompletableFuture<DicerollResult>>();
+		long start = System.currentTimeMillis();
+		for(int i = 0; i < 50; i++) {
+			futures.add(client.rollDiceAsync("2d6", "DiceBot"));
+		}
+		for(CompletableFuture<DicerollResult> future : futures) {
+			assertTrue(AsyncResults.await(future).isRolled());
+		}
+		// 50 requests * 200ms would take 10 seconds if they were sent one by one
+		assertTrue(System.currentTimeMillis() - start < 5000);
+	}
+
+	public void testFailoverOn5xx() throws IOException {
+		BCDiceV2Client client = getClient();
+		primary.setStatusCode(500);
+		assertTrue(client.rollDice("2d6").isRolled());
+		assertTrue(secondary.getRequestCount() > 0);
+	}
+
+	public void testRetryWhenServerIsDown() throws IOException {
+		BCDiceV2Client client = getClient();
+		primary.stop();
+		assertTrue(client.rollDice("2d6").isRolled());
+		assertEquals("DiceBot", client.getSystemInfo("DiceBot").getGameType());
+	}
+
+	public void testAllServersFailed() throws IOException {
+		BCDiceV2Client client = getClient();
+		primary.setStatusCode(500);
+		secondary.setStatusCode(500);
+		try {
+			AsyncResults.await(client.rollDiceAsync("2d6", "DiceBot"));
+			fail("IOException should be thrown");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("[500]"));
+		}
+	}
+
+	public void testHedgedRequestsAvoidStalledServer() throws IOException {
+		BCDiceV2Client client = getClient();
+		client.setHedgePercentile(95);
+		for(int i = 0; i < 30; i++) {
+			assertTrue(client.rollDice("2d6").isRolled());
+		}
+		// Stall the server which would be chosen next
+		(client.getUrlCursor() == 0 ? primary : secondary).setDelayMillis(3000);
+		List<CompletableFuture<DicerollResult>> futures = new ArrayList<CompletableFuture<DicerollResult>>();
+		long start = System.currentTimeMillis();
+		for(int i = 0; i < 10; i++) {
+			futures.add(client.rollDiceAsync("2d6", "DiceBot"));
+		}
+		for(CompletableFuture<DicerollResult> future : futures) {
+			assertTrue(AsyncResults.await(future).isRolled());
+		}
+		// Without hedging, the requests sent to the stalled server would wait 3 seconds
+		assertTrue(System.currentTimeMillis() - start < 2000);
+		assertTrue(client.getDiceServerStatus().get(3).startsWith("hedging: p95"));
+	}
+
+	public void testLatencyWindow() {
+		LatencyWindow window = new LatencyWindow(10);
+		assertEquals(-1, window.percentile(95));
+		for(int i = 1; i <= 20; i++) {
+			window.record(i);
+		}
+		assertEquals(10, window.size());
+		assertEquals(11, window.percentile(0));
+		assertEquals(15, window.percentile(50));
+		assertEquals(20, window.percentile(95));
+		assertEquals(0.0, BCDiceV2Client.parseHedgePercentile(null));
+		assertEquals(0.0, BCDiceV2Client.parseHedgePercentile("abc"));
+		assertEquals(99.0, BCDiceV2Client.parseHedgePercentile("p99"));
+	}
+
+	public void testSystemInfoIsCached() throws IOException {
+		BCDiceV2Client client = getClient();
+		primary.resetRequestCount();
+		secondary.resetRequestCount();
+		for(int i = 0; i < 10; i++) {
+			assertEquals("Cthulhu7th", client.getSystemInfo("Cthulhu7th").getGameType());
+			client.getSystems();
+			client.getVersion();
+		}
+		// The version is already cached when the command patterns are checked
+		assertEquals(2, primary.getRequestCount() + secondary.getRequestCount());
+	}
+
+	public void testFailedVersionIsNotCached() throws IOException {
+		List<String> urls = new ArrayList<String>();
+		urls.add(primary.getUrl());
+		primary.setStatusCode(500);
+		BCDiceV2Client client = new BCDiceV2Client(urls, false, new RetryPolicy(0, 0, 0, 0, 0), new CommandPatternSnapshot(snapshotFile.getPath()));
+		client.awaitDicePatternRevalidation();
+		try {
+			client.getVersion();
+			fail();
+		} catch(IOException e) {
+			// expected
+		}
+		assertFalse(snapshotFile.exists());
+
+		primary.setStatusCode(200);
+		assertEquals("BCDice: 3.0.0 / API: 2.0.0", client.getVersion().toString());
+	}
+
+	public void testCommandPatternSnapshot() throws IOException {
+		getClient();
+		CommandPatternSnapshot snapshot = new CommandPatternSnapshot(snapshotFile.getPath());
+		assertEquals(LocalBCDiceServer.DICEBOT_PATTERN.replace("\\\\", "\\"), snapshot.load().get("DiceBot"));
+		assertEquals("BCDice: 3.0.0 / API: 2.0.0", snapshot.getVersion());
+
+		// The bot can start and judge commands while the servers are down
+		primary.stop();
+		secondary.stop();
+		List<String> urls = new ArrayList<String>();
+		urls.add(primary.getUrl());
+		BCDiceV2Client client = new BCDiceV2Client(urls, true, new RetryPolicy(0, 0, 0, 0, 0), snapshot);
+		assertTrue(client.isDiceCommand("2d6"));
+		assertFalse(client.isDiceCommand("hello"));
+	}
+
+	public void testPrefetchAllSystems() throws IOException {
+		BCDiceV2Client client = getClient();
+		List<String> result = client.updateDiceBotsPrefixes();
+		assertEquals("Prefix of DiceBot is updated", result.get(0));
+		assertTrue(result.get(1).startsWith("1 systems are loaded"));
+
+		client.setPrefetchAllSystems(true);
+		result = client.updateDiceBotsPrefixes();
+		assertEquals(1, result.size());
+		assertTrue(result.get(0).startsWith("2 systems are loaded"));
+		primary.resetRequestCount();
+		secondary.resetRequestCount();
+		assertTrue(client.isDiceCommand("2d6", "Cthulhu7th"));
+		assertEquals(0, primary.getRequestCount() + secondary.getRequestCount());
+	}
+}
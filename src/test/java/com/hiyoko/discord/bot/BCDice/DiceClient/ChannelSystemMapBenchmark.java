@@ -0,0 +1,127 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Channel to system lookup with ConcurrentHashMap of Strings and with ChannelSystemMap.
+ * main also prints the heap used by each map for 1M channels before the benchmark.
+ * <p>
+ * Run: mvn test-compile exec:java -Dexec.mainClass=com.hiyoko.discord.bot.BCDice.DiceClient.ChannelSystemMapBenchmark -Dexec.classpathScope=test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChannelSystemMapBenchmark {
+	private static final String[] SYSTEMS = {"DiceBot", "Cthulhu7th", "SwordWorld2.5", "DoubleCross", "Emoklore",
+			"Kancolle", "Insane", "ShinobiGami", "Satasupe", "LogHorizon"};
+
+	@Param({"1000000"})
+	public int channels;
+
+	private Map<String, String> hashMap;
+	private ChannelSystemMap channelSystemMap;
+	private String[] probes;
+
+	static String[] channelIds(int count) {
+		Random random = new Random(22);
+		String[] result = new String[count];
+		for(int i = 0; i < count; i++) {
+			// Snowflakes are about 2^60
+			result[i] = String.valueOf(700000000000000000L + (random.nextLong() >>> 8));
+		}
+		return result;
+	}
+
+	static Map<String, String> fillHashMap(String[] ids) {
+		Map<String, String> map = new ConcurrentHashMap<String, String>();
+		for(int i = 0; i < ids.length; i++) {
+			// New Strings, as they come from the snapshot or Discord
+			map.put(new String(ids[i]), new String(SYSTEMS[i % SYSTEMS.length]));
+		}
+		return map;
+	}
+
+	static ChannelSystemMap fillChannelSystemMap(String[] ids) {
+		ChannelSystemMap map = new ChannelSystemMap();
+		for(int i = 0; i < ids.length; i++) {
+			map.put(ids[i], new String(SYSTEMS[i % SYSTEMS.length]));
+		}
+		return map;
+	}
+
+	@Setup
+	public void setUp() {
+		String[] ids = channelIds(channels);
+		hashMap = fillHashMap(ids);
+		channelSystemMap = fillChannelSystemMap(ids);
+		Random random = new Random(13);
+		probes = new String[16];
+		for(int i = 0; i < probes.length; i++) {
+			probes[i] = new String(ids[random.nextInt(ids.length)]);
+		}
+	}
+
+	@Benchmark
+	public void concurrentHashMap(Blackhole blackhole) {
+		for(String probe : probes) {
+			blackhole.consume(hashMap.get(probe));
+		}
+	}
+
+	@Benchmark
+	public void channelSystemMap(Blackhole blackhole) {
+		for(String probe : probes) {
+			blackhole.consume(channelSystemMap.get(probe));
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Print the heap retained by each map for 1M channels.
+	 */
+	static void printFootprint() {
+		String[] ids = channelIds(1000000);
+		long base = usedHeap();
+		Map<String, String> hashMap = fillHashMap(ids);
+		long hashMapBytes = usedHeap() - base;
+		base = usedHeap();
+		ChannelSystemMap channelSystemMap = fillChannelSystemMap(ids);
+		long channelSystemMapBytes = usedHeap() - base;
+		System.out.println(String.format("1M channels: ConcurrentHashMap %s MB (%s), ChannelSystemMap %s MB (%s)",
+				hashMapBytes / 1024 / 1024, hashMap.size(), channelSystemMapBytes / 1024 / 1024, channelSystemMap.size()));
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		printFootprint();
+		new Runner(new OptionsBuilder().include(ChannelSystemMapBenchmark.class.getSimpleName()).build()).run();
+	}
+}
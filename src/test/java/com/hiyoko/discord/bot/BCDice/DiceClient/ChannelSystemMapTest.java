@@ -0,0 +1,73 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class ChannelSystemMapTest extends TestCase {
+	private static final String[] SYSTEMS = {"DiceBot", "Cthulhu7th", "SwordWorld2.5", "DoubleCross", "Emoklore"};
+
+	static String randomChannel(Random random) {
+		switch(random.nextInt(10)) {
+		case 0:
+			return "room" + random.nextInt(100);
+		case 1:
+			// Not kept as a number: leading zero, too large and zero
+			return new String[] {"0123", "99999999999999999999", "0", "-5", ""}[random.nextInt(5)];
+		default:
+			return String.valueOf(700000000000000000L + random.nextInt(50000));
+		}
+	}
+
+	public void testSameAsHashMap() {
+		Random random = new Random(22);
+		ChannelSystemMap map = new ChannelSystemMap();
+		Map<String, String> expected = new HashMap<String, String>();
+		for(int i = 0; i < 200000; i++) {
+			String channel = randomChannel(random);
+			String system = SYSTEMS[random.nextInt(SYSTEMS.length)];
+			if(random.nextInt(5) == 0) {
+				String previous = expected.putIfAbsent(channel, system);
+				assertEquals((previous == null) ? system : previous, map.putIfAbsent(channel, system));
+			} else {
+				assertEquals(expected.put(channel, system), map.put(channel, system));
+			}
+			String probe = randomChannel(random);
+			assertEquals(expected.get(probe), map.get(probe));
+		}
+		assertEquals(expected.size(), map.size());
+		assertEquals(expected, map.toMap());
+		assertEquals(SYSTEMS.length, map.getNameCount());
+		Map<String, String> iterated = new HashMap<String, String>();
+		map.forEach(iterated::put);
+		assertEquals(expected, iterated);
+	}
+
+	public void testSharedName() {
+		ChannelSystemMap map = new ChannelSystemMap();
+		map.put("100", new String("Cthulhu7th"));
+		map.put("200", new String("Cthulhu7th"));
+		assertSame(map.get("100"), map.get("200"));
+	}
+
+	public void testFullDictionary() {
+		ChannelSystemMap map = new ChannelSystemMap();
+		int count = Short.MAX_VALUE + 100;
+		for(int i = 1; i <= count; i++) {
+			map.put(String.valueOf(i), "System" + i);
+		}
+		assertEquals(Short.MAX_VALUE, map.getNameCount());
+		assertEquals(count, map.size());
+		assertEquals("System1", map.get("1"));
+		assertEquals("System" + count, map.get(String.valueOf(count)));
+
+		assertEquals("System" + count, map.put(String.valueOf(count), "System1"));
+		assertEquals("System1", map.get(String.valueOf(count)));
+		assertEquals("System1", map.put("1", "Extra"));
+		assertEquals("Extra", map.get("1"));
+		assertEquals(count, map.size());
+		assertEquals(count, map.toMap().size());
+	}
+}
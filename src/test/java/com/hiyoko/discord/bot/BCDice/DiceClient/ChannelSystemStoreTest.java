@@ -0,0 +1,140 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.hiyoko.discord.bot.BCDice.TempDirectory;
+
+import junit.framework.TestCase;
+
+public class ChannelSystemStoreTest extends TestCase {
+	private final List<ChannelSystemStore> stores = new ArrayList<ChannelSystemStore>();
+	private File directory;
+	private String path;
+
+	@Override
+	protected void setUp() throws IOException {
+		directory = TempDirectory.create("channel-systems");
+		path = new File(directory, "channelSystems").getPath();
+	}
+
+	@Override
+	protected void tearDown() throws IOException {
+		stores.forEach(ChannelSystemStore::close);
+		TempDirectory.delete(directory);
+	}
+
+	private ChannelSystemStore newStore() {
+		ChannelSystemStore store = new ChannelSystemStore(path);
+		stores.add(store);
+		return store;
+	}
+
+	public void testRestart() throws IOException {
+		ChannelSystemStore store = newStore();
+		store.putDefault("general", "DiceBot");
+		store.put("room1", "Cthulhu");
+		store.put("room2", "SwordWorld2.5");
+		store.put("room1", "Cthulhu7th");
+
+		ChannelSystemStore restarted = newStore();
+		restarted.putDefault("general", "DiceBot");
+		assertEquals("Cthulhu7th", restarted.get("room1"));
+		assertEquals("SwordWorld2.5", restarted.get("room2"));
+		assertEquals("DiceBot", restarted.get("general"));
+		assertEquals(3, restarted.getLogCount());
+	}
+
+	public void testSameSystemIsNotLogged() throws IOException {
+		ChannelSystemStore store = newStore();
+		store.put("room1", "Cthulhu");
+		store.put("room1", "Cthulhu");
+		assertEquals(1, store.getLogCount());
+	}
+
+	public void testBrokenTail() throws IOException {
+		ChannelSystemStore store = newStore();
+		store.put("room1", "Cthulhu");
+		store.put("room2", "SwordWorld2.5");
+		File log = new File(path + ".wal");
+		long length = log.length();
+		try (RandomAccessFile raf = new RandomAccessFile(log, "rw")) {
+			raf.setLength(length - 2);
+		}
+
+		ChannelSystemStore restarted = newStore();
+		assertEquals("Cthulhu", restarted.get("room1"));
+		assertNull(restarted.get("room2"));
+		restarted.put("room3", "DoubleCross");
+		ChannelSystemStore again = newStore();
+		assertEquals("DoubleCross", again.get("room3"));
+		assertEquals(2, again.getLogCount());
+	}
+
+	public void testSnapshot() throws IOException {
+		ChannelSystemStore store = newStore();
+		Map<String, String> channels = new HashMap<String, String>();
+		for(int i = 0; i < 100000; i++) {
+			channels.put(String.valueOf(100000000000000000L + i), (i % 2 == 0) ? "Cthulhu" : "DoubleCross");
+		}
+		store.putAll(channels);
+		assertEquals(0, store.getLogCount());
+		assertTrue(new File(path + ".snapshot").exists());
+		store.put("100000000000000000", "Kancolle");
+
+		ChannelSystemStore restarted = newStore();
+		assertEquals(100000, restarted.asMap().size());
+		assertEquals("Kancolle", restarted.get("100000000000000000"));
+		assertEquals("DoubleCross", restarted.get("100000000000099999"));
+		assertEquals(1, restarted.getLogCount());
+	}
+
+	public void testBrokenSnapshot() throws IOException {
+		ChannelSystemStore store = newStore();
+		Files.write(new File(path + ".snapshot").toPath(), new byte[] {1, 2, 3});
+		store.put("room1", "Cthulhu");
+		assertEquals("Cthulhu", newStore().get("room1"));
+	}
+
+	public void testClose() throws IOException {
+		ChannelSystemStore store = newStore();
+		store.put("room1", "Cthulhu");
+		store.close();
+		store.close();
+		store.put("room2", "DoubleCross");
+		store.close();
+		ChannelSystemStore restarted = newStore();
+		assertEquals("Cthulhu", restarted.get("room1"));
+		assertEquals("DoubleCross", restarted.get("room2"));
+	}
+
+	public void testFailedWriteIsNotApplied() throws IOException {
+		ChannelSystemStore store = newStore();
+		store.put("room1", "Cthulhu");
+		store.close();
+		File log = new File(path + ".wal");
+		assertTrue(log.delete());
+		assertTrue(log.mkdir());
+		try {
+			store.put("room1", "DoubleCross");
+			fail();
+		} catch (IOException expected) {
+		}
+		assertEquals("Cthulhu", store.get("room1"));
+		assertEquals(1, store.getLogCount());
+		assertTrue(log.delete());
+	}
+
+	public void testMemoryOnly() throws IOException {
+		ChannelSystemStore store = new ChannelSystemStore(null);
+		store.put("room1", "Cthulhu");
+		assertEquals("Cthulhu", store.get("room1"));
+		assertEquals(0, directory.listFiles().length);
+	}
+}
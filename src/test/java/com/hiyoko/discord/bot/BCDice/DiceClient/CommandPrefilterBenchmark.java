@@ -0,0 +1,80 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * isDiceCommand with the regex alone and with the prefilter, for chat messages and dice commands.
+ * <p>
+ * Run: mvn test-compile exec:java -Dexec.mainClass=com.hiyoko.discord.bot.BCDice.DiceClient.CommandPrefilterBenchmark -Dexec.classpathScope=test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandPrefilterBenchmark {
+	@Param({"DiceBot", "Cthulhu7th", "SwordWorld2.5", "KanColle"})
+	public String system;
+
+	@Param({"conversation", "commands"})
+	public String inputs;
+
+	private Pattern pattern;
+	private CommandMatcher matcher;
+	private String[] messages;
+
+	@Setup
+	public void setUp() throws IOException {
+		Map<String, String> patterns = CommandPrefilterTest.loadPatterns();
+		pattern = Pattern.compile(patterns.get(system), Pattern.CASE_INSENSITIVE);
+		matcher = new CommandMatcher(patterns.get(system));
+		List<String> list = inputs.equals("conversation") ? new ArrayList<String>(CommandPrefilterTest.CONVERSATION) : CommandPrefilterTest.loadCommands();
+		messages = list.toArray(new String[0]);
+		// The results must be the same, or the numbers mean nothing
+		for(String message : messages) {
+			if(pattern.matcher(message).find() != matcher.find(message)) {
+				throw new IllegalStateException(String.format("Different result for %s: %s", system, message));
+			}
+		}
+	}
+
+	@Benchmark
+	public void regexOnly(Blackhole blackhole) {
+		for(String message : messages) {
+			blackhole.consume(pattern.matcher(message).find());
+		}
+	}
+
+	@Benchmark
+	public void withPrefilter(Blackhole blackhole) {
+		for(String message : messages) {
+			blackhole.consume(matcher.find(message));
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(CommandPrefilterBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,112 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+public class CommandPrefilterTest extends TestCase {
+	static final List<String> CONVERSATION = Arrays.asList(
+			"こんにちは", "よろしくお願いします！", "今日のセッションは21時からです", "hello", "ok", "lol",
+			"了解です", "wwww", "それでは始めましょう", "GM、質問があります", "Thanks!", "https://example.com/",
+			"> 引用", "@everyone", "（笑）", "……", "次のシーンへ", "え、マジで？", "bcdice help", "");
+
+	/**
+	 * @return system name to command pattern in src/test/resources/commandPatterns.txt
+	 */
+	static Map<String, String> loadPatterns() throws IOException {
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		for(String line : Files.readAllLines(Paths.get("src/test/resources/commandPatterns.txt"), StandardCharsets.UTF_8)) {
+			if(line.startsWith("#") || line.isEmpty()) {
+				continue;
+			}
+			String[] columns = line.split("\t", 2);
+			result.put(columns[0], columns[1]);
+		}
+		return result;
+	}
+
+	/**
+	 * @return dice commands in src/test/resources/shouldRolled.txt
+	 */
+	static List<String> loadCommands() throws IOException {
+		List<String> result = new ArrayList<String>();
+		for(String line : Files.readAllLines(Paths.get("src/test/resources/shouldRolled.txt"), StandardCharsets.UTF_8)) {
+			if(! line.startsWith(":") && ! line.isEmpty()) {
+				result.add(line);
+			}
+		}
+		return result;
+	}
+
+	public void testSameResultAsRegex() throws IOException {
+		List<String> inputs = new ArrayList<String>();
+		inputs.addAll(loadCommands());
+		inputs.addAll(CONVERSATION);
+		Random random = new Random(94);
+		String alphabet = "0123456789+-()<>=@#[],dDbBcCsSxXrRuUkKfFtT 　あ表ゴリラ艦これ";
+		for(int i = 0; i < 5000; i++) {
+			StringBuilder sb = new StringBuilder();
+			for(int j = random.nextInt(8); j >= 0; j--) {
+				sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			inputs.add(sb.toString());
+		}
+		for(Map.Entry<String, String> system : loadPatterns().entrySet()) {
+			Pattern pattern = Pattern.compile(system.getValue(), Pattern.CASE_INSENSITIVE);
+			CommandMatcher matcher = new CommandMatcher(system.getValue());
+			for(String input : inputs) {
+				assertEquals(String.format("%s: %s", system.getKey(), input),
+						pattern.matcher(input).find(), matcher.find(input));
+			}
+		}
+	}
+
+	public void testRejectsConversation() throws IOException {
+		CommandPrefilter prefilter = CommandPrefilter.of(loadPatterns().get("DiceBot"), true);
+		assertFalse(prefilter.isAcceptAll());
+		assertFalse(prefilter.mayMatch("こんにちは"));
+		assertFalse(prefilter.mayMatch("hello"));
+		assertFalse(prefilter.mayMatch(""));
+		assertTrue(prefilter.mayMatch("2d6"));
+		assertTrue(prefilter.mayMatch("s2d6"));
+		assertTrue(prefilter.mayMatch("Choice[a,b]"));
+		assertTrue(prefilter.mayMatch("x3 2d6"));
+
+		prefilter = CommandPrefilter.of(loadPatterns().get("KanColle"), true);
+		assertTrue(prefilter.mayMatch("艦これET"));
+		assertTrue(prefilter.mayMatch("et"));
+		assertFalse(prefilter.mayMatch("これET"));
+	}
+
+	public void testUnsupportedSyntaxAcceptsAll() throws IOException {
+		assertTrue(CommandPrefilter.of(loadPatterns().get("Lookahead"), true).isAcceptAll());
+		assertTrue(CommandPrefilter.of(loadPatterns().get("InlineFlag"), true).isAcceptAll());
+		assertTrue(CommandPrefilter.of("^[^a]", true).isAcceptAll());
+		assertTrue(CommandPrefilter.of("^a*", true).isAcceptAll());
+		assertTrue(CommandPrefilter.of("^(broken", true).isAcceptAll());
+		CommandPrefilter unanchored = CommandPrefilter.of(loadPatterns().get("Unanchored"), true);
+		assertTrue(unanchored.mayMatch("ダイスは 2d6"));
+		assertFalse(unanchored.mayMatch("ダイスは無し"));
+	}
+
+	public void testPartlyAnchoredAlternation() {
+		assertTrue(Pattern.compile("^a|b").matcher("xb").find());
+		CommandPrefilter prefilter = CommandPrefilter.of("^a|b", true);
+		assertTrue(prefilter.mayMatch("xb"));
+		assertTrue(prefilter.mayMatch("ax"));
+		assertFalse(prefilter.mayMatch("xyz"));
+		prefilter = CommandPrefilter.of("^a|^b", true);
+		assertTrue(prefilter.mayMatch("bx"));
+		assertFalse(prefilter.mayMatch("xb"));
+	}
+}
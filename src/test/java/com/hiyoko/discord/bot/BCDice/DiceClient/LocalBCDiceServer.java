@@ -0,0 +1,84 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tiny BCDice-API imitation on localhost for the tests which must not depend on the public servers.
+ */
+public class LocalBCDiceServer {
+	public static final String DICEBOT_PATTERN = "^S?([+\\\\-(]*\\\\d+|\\\\d+B\\\\d+|C[+\\\\-(]*\\\\d+|choice|D66|(repeat|rep|x)\\\\d+|\\\\d+R\\\\d+|\\\\d+U\\\\d+|BCDiceVersion)";
+	private final HttpServer server;
+	private final AtomicInteger requestCount = new AtomicInteger();
+	private volatile int statusCode = 200;
+	private volatile long delayMillis = 0;
+
+	public LocalBCDiceServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/", this::handle);
+		server.start();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requestCount.incrementAndGet();
+		if(delayMillis > 0) {
+			try {
+				Thread.sleep(delayMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		String path = exchange.getRequestURI().getPath();
+		String body;
+		if(path.equals("/v2/version")) {
+			body = "{\"api\":\"2.0.0\",\"bcdice\":\"3.0.0\"}";
+		} else if(path.equals("/v2/game_system")) {
+			body = "{\"game_system\":[{\"id\":\"DiceBot\",\"name\":\"DiceBot\"},{\"id\":\"Cthulhu7th\",\"name\":\"Cthulhu7th\"}]}";
+		} else if(path.endsWith("/roll") || path.equals("/v2/original_table")) {
+			body = "{\"ok\":true,\"text\":\"(2D6) ＞ 7[3,4] ＞ 7\",\"secret\":false}";
+		} else if(path.startsWith("/v2/game_system/")) {
+			String system = path.substring("/v2/game_system/".length());
+			body = String.format("{\"ok\":true,\"id\":\"%s\",\"name\":\"%s\",\"command_pattern\":\"%s\",\"help_message\":\"help of %s\"}",
+					system, system, DICEBOT_PATTERN, system);
+		} else {
+			body = "{\"ok\":false}";
+		}
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(statusCode, bytes.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes);
+		}
+	}
+
+	public String getUrl() {
+		return String.format("http://127.0.0.1:%s/", server.getAddress().getPort());
+	}
+
+	public void setStatusCode(int statusCode) {
+		this.statusCode = statusCode;
+	}
+
+	public void setDelayMillis(long delayMillis) {
+		this.delayMillis = delayMillis;
+	}
+
+	public int getRequestCount() {
+		return requestCount.get();
+	}
+
+	public void resetRequestCount() {
+		requestCount.set(0);
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+}
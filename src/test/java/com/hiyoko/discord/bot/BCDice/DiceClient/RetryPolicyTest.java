@@ -0,0 +1,56 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import junit.framework.TestCase;
+
+public class RetryPolicyTest extends TestCase {
+
+	public void testStatusRules() {
+		RetryPolicy policy = new RetryPolicy();
+		assertTrue(policy.isRetryable(RetryPolicy.NO_RESPONSE));
+		assertTrue(policy.isRetryable(503));
+		assertTrue(policy.isRetryable(429));
+		assertFalse(policy.isRetryable(404));
+		policy.setRetryable(503, false);
+		policy.setRetryable(404, true);
+		assertFalse(policy.isRetryable(503));
+		assertTrue(policy.isRetryable(404));
+		long deadline = policy.onRequest();
+		assertEquals(-1, policy.nextDelayMillis(0, 503, deadline));
+	}
+
+	public void testBackoffWithJitter() {
+		RetryPolicy policy = new RetryPolicy(10, 100, 800, 60000, 10.0);
+		for(int i = 0; i < 100; i++) {
+			long deadline = policy.onRequest();
+			for(int retried = 0; retried < 5; retried++) {
+				long delay = policy.nextDelayMillis(retried, 500, deadline);
+				assertTrue(delay >= 0);
+				assertTrue(delay <= Math.min(800, 100 << retried));
+			}
+		}
+		assertEquals(-1, policy.nextDelayMillis(10, 500, policy.onRequest()));
+	}
+
+	public void testBudget() {
+		RetryPolicy policy = new RetryPolicy(5, 0, 0, 60000, 0.1);
+		int retries = 0;
+		for(int i = 0; i < 1000; i++) {
+			long deadline = policy.onRequest();
+			for(int retried = 0; policy.nextDelayMillis(retried, 500, deadline) >= 0; retried++) {
+				retries++;
+			}
+		}
+		// 10 tokens at the start and 0.1 tokens for each request
+		assertTrue(retries <= 10 + 100);
+		assertTrue(policy.getBudgetExhaustedCount() > 0);
+		assertEquals(retries, policy.getRetryCount());
+	}
+
+	public void testDeadline() {
+		RetryPolicy policy = new RetryPolicy(5, 100, 100, 0, 1.0);
+		long deadline = policy.onRequest();
+		long delay = policy.nextDelayMillis(0, 500, deadline - 1);
+		assertEquals(-1, delay);
+		assertEquals(1, policy.getDeadlineExceededCount());
+	}
+}
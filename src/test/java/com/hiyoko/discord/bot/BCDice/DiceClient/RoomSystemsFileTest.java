@@ -0,0 +1,96 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import com.hiyoko.discord.bot.BCDice.TempDirectory;
+
+import junit.framework.TestCase;
+
+public class RoomSystemsFileTest extends TestCase {
+	/**
+	 * Client whose rooms are in a ChannelSystemStore, as BCDiceV2Client.
+	 */
+	private static class StoreClient extends DiceClientMock {
+		private final ChannelSystemStore store;
+
+		private StoreClient(ChannelSystemStore store) {
+			this.store = store;
+		}
+
+		@Override
+		public void setSystems(Map<String, String> channelSystems) {
+			try {
+				store.putAll(channelSystems);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public void forEachRoomSystem(BiConsumer<String, String> action) {
+			store.forEach(action);
+		}
+	}
+
+	public void testReadAndWrite() throws IOException {
+		DiceClientMock client = new DiceClientMock();
+		List<Integer> progress = new ArrayList<Integer>();
+		String text = "Room-System List\n100:Cthulhu7th\n\n200:SwordWorld2.5\r\nbroken\n:NoChannel\n300:\n";
+		assertEquals(2, RoomSystemsFile.read(new BufferedReader(new StringReader(text)), client, progress::add));
+		assertEquals("Cthulhu7th", client.getSystem("100"));
+		assertEquals("SwordWorld2.5", client.getSystem("200"));
+		assertTrue(progress.isEmpty());
+
+		StringWriter writer = new StringWriter();
+		assertEquals(3, RoomSystemsFile.write(client, writer, progress::add));
+		DiceClientMock copied = new DiceClientMock();
+		RoomSystemsFile.read(new BufferedReader(new StringReader(writer.toString())), copied, progress::add);
+		assertEquals(client.getRoomsSystem(), copied.getRoomsSystem());
+	}
+
+	public void testMigration() throws IOException {
+		File directory = TempDirectory.create("room-systems");
+		String path = new File(directory, "channelSystems").getPath();
+		ChannelSystemStore store = new ChannelSystemStore(path);
+		ChannelSystemStore restarted = null;
+		try {
+			StoreClient source = new StoreClient(new ChannelSystemStore(null));
+			for(int i = 0; i < 50000; i++) {
+				source.store.put(String.valueOf(800000000000000000L + i), "System" + (i % 30));
+			}
+			File file = new File(directory, "rooms.txt");
+			List<Integer> progress = new ArrayList<Integer>();
+			try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+				assertEquals(50000, RoomSystemsFile.write(source, writer, progress::add));
+			}
+			assertEquals(5, progress.size());
+
+			StoreClient target = new StoreClient(store);
+			try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+				assertEquals(50000, RoomSystemsFile.read(reader, target, progress::add));
+			}
+			assertEquals(10, progress.size());
+			assertEquals(source.store.asMap(), target.store.asMap());
+			restarted = new ChannelSystemStore(path);
+			assertEquals("System19", restarted.get("800000000000049999"));
+		} finally {
+			store.close();
+			if(restarted != null) {
+				restarted.close();
+			}
+			TempDirectory.delete(directory);
+		}
+	}
+}
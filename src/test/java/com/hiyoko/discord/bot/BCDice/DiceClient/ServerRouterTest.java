@@ -0,0 +1,97 @@
+package com.hiyoko.discord.bot.BCDice.DiceClient;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class ServerRouterTest extends TestCase {
+
+	public void testCircuitBreaker() throws InterruptedException {
+		ServerHealth server = new ServerHealth("http://a/", 50);
+		for(int i = 0; i < 3; i++) {
+			assertTrue(server.tryAcquire());
+			server.recordFailure(10);
+		}
+		assertEquals(ServerHealth.CircuitState.OPEN, server.getState());
+		assertFalse(server.tryAcquire());
+		Thread.sleep(60);
+		assertEquals(ServerHealth.CircuitState.HALF_OPEN, server.getState());
+		assertTrue(server.tryAcquire());
+		// Only one probe is allowed while half open
+		assertFalse(server.tryAcquire());
+		server.recordSuccess(10);
+		assertEquals(ServerHealth.CircuitState.CLOSED, server.getState());
+		assertEquals(0, server.getInFlight());
+	}
+
+	public void testHalfOpenProbeFailure() throws InterruptedException {
+		ServerHealth server = new ServerHealth("http://a/", 50);
+		for(int i = 0; i < 3; i++) {
+			server.tryAcquire();
+			server.recordFailure(10);
+		}
+		Thread.sleep(60);
+		assertTrue(server.tryAcquire());
+		server.recordFailure(10);
+		assertEquals(ServerHealth.CircuitState.OPEN, server.getState());
+	}
+
+	public void testBestServerIsChosen() {
+		ServerRouter router = new ServerRouter(ServerRouter.Strategy.BEST);
+		router.add("http://slow/");
+		router.add("http://fast/");
+		Set<String> none = new HashSet<String>();
+		ServerHealth first = router.acquire(none);
+		// No samples yet, so the current server is chosen
+		assertEquals("http://slow/", first.getUrl());
+		first.recordSuccess(500);
+		ServerHealth second = router.acquire(none);
+		assertEquals("http://fast/", second.getUrl());
+		second.recordSuccess(20);
+		for(int i = 0; i < 10; i++) {
+			ServerHealth chosen = router.acquire(none);
+			assertEquals("http://fast/", chosen.getUrl());
+			chosen.recordSuccess(20);
+		}
+	}
+
+	public void testRoundRobin() {
+		ServerRouter router = new ServerRouter(ServerRouter.Strategy.of("round-robin"));
+		router.add("http://a/");
+		router.add("http://b/");
+		Set<String> none = new HashSet<String>();
+		String first = router.acquire(none).getUrl();
+		String second = router.acquire(none).getUrl();
+		assertFalse(first.equals(second));
+	}
+
+	public void testLeastInFlight() {
+		ServerRouter router = new ServerRouter(ServerRouter.Strategy.of("least_in_flight"));
+		router.add("http://a/");
+		router.add("http://b/");
+		Set<String> none = new HashSet<String>();
+		ServerHealth first = router.acquire(none);
+		ServerHealth second = router.acquire(none);
+		assertFalse(first.getUrl().equals(second.getUrl()));
+	}
+
+	public void testExcludedAndOpenServers() {
+		ServerRouter router = new ServerRouter(ServerRouter.Strategy.BEST);
+		router.add("http://a/");
+		router.add("http://b/");
+		Set<String> excluded = new HashSet<String>();
+		excluded.add("http://a/");
+		assertEquals("http://b/", router.acquire(excluded).getUrl());
+
+		ServerHealth b = router.acquire(excluded);
+		for(int i = 0; i < 3; i++) {
+			b.recordFailure(10);
+			b.forceAcquire();
+		}
+		// b is open and a is excluded, but a request still has to be sent somewhere
+		excluded.clear();
+		excluded.add("http://a/");
+		assertEquals("http://b/", router.acquire(excluded).getUrl());
+	}
+}
@@ -0,0 +1,49 @@
+package com.hiyoko.discord.bot.BCDice;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Normalization of a dice command with the former regular expressions and URLEncoder and with DiceCommandNormalizer.
+ * Run with -prof gc to see the allocation per command.
+ * <p>
+ * Run: mvn test-compile exec:java -Dexec.mainClass=com.hiyoko.discord.bot.BCDice.DiceCommandNormalizerBenchmark -Dexec.classpathScope=test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiceCommandNormalizerBenchmark {
+	@Param({"2d6", "CCB <= 70 【目星】", "k20+5@10 > = 3 %20 ~test~"})
+	public String command;
+
+	@Benchmark
+	public String regex() throws UnsupportedEncodingException {
+		return DiceCommandNormalizerTest.reference(command);
+	}
+
+	@Benchmark
+	public String singlePass() {
+		return DiceCommandNormalizer.normalize(command);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(DiceCommandNormalizerBenchmark.class.getSimpleName()).build()).run();
+	}
+}
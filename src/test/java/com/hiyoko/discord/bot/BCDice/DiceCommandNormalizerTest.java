@@ -0,0 +1,63 @@
+package com.hiyoko.discord.bot.BCDice;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class DiceCommandNormalizerTest extends TestCase {
+	private static final String[] COMMANDS = {
+			"2d6", "2d6+3", "CCB<=70", "CCB <= 70", "CC　<=　50 【目星】", "k20+5@10", "k20 + 5 @ 10", "1d100 <= 50",
+			"2d6>=7", "2d6 > = 7", "3d6 == 10", "2D6 ダイス", "ＳＡＮ", "choice[A,B,C]", "1d20 % 3", "1d6 %20 test",
+			"x3 2d6", "repeat3 2d6", "2d6 ~test~", "2d6 + 1d4 # コメント", "DX+2 😀", "a\tb\nc", "", " ", "<", "= =", "%2520", "%"};
+	private static final char[] ALPHABET = {
+			'a', 'Z', '0', '9', ' ', ' ', '\t', '\n', '　', '<', '>', '=', '=', '%', '2', '0', '5', '~', '+', '.', '-', '*', '_',
+			'あ', '漢', '\u00A0', '\uD83D', '\uDE00', '&', '/', '#', '@', ','};
+
+	/**
+	 * The former implementation of BCDiceCLI
+	 */
+	static String reference(String rawCommand) throws UnsupportedEncodingException {
+		String command = rawCommand;
+		for(String replaceTarget: new String[] {"<", ">", "="}) {
+			command = command.replaceAll("[\\s　]*[" + replaceTarget + "]+[\\s　]*", replaceTarget);
+		}
+		command = URLEncoder.encode(command.replaceAll(" ", "%20"), "UTF-8");
+		return command.replaceAll("%2520", "%20").replaceAll("%7E", "~");
+	}
+
+	static String randomCommand(Random random) {
+		char[] chars = new char[random.nextInt(16)];
+		for(int i = 0; i < chars.length; i++) {
+			chars[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+		}
+		return new String(chars);
+	}
+
+	public void testNormalize() throws UnsupportedEncodingException {
+		assertEquals("CCB%3C%3D70", DiceCommandNormalizer.normalize("CCB <= 70"));
+		assertEquals("2d6%20~test~", DiceCommandNormalizer.normalize("2d6 ~test~"));
+		for(String command : COMMANDS) {
+			assertEquals(command, reference(command), DiceCommandNormalizer.normalize(command));
+		}
+	}
+
+	public void testSameAsReference() throws UnsupportedEncodingException {
+		Random random = new Random(24);
+		for(int i = 0; i < 200000; i++) {
+			String command = randomCommand(random);
+			assertEquals(command, reference(command), DiceCommandNormalizer.normalize(command));
+		}
+	}
+
+	public void testReplaceHorizontalWhitespace() {
+		String plain = "/r 2d6";
+		assertSame(plain, DiceCommandNormalizer.replaceHorizontalWhitespace(plain));
+		Random random = new Random(240);
+		for(int i = 0; i < 10000; i++) {
+			String input = randomCommand(random) + "\u2005\u202F\u205F\u180E";
+			assertEquals(input.replaceAll("\\h", " "), DiceCommandNormalizer.replaceHorizontalWhitespace(input));
+		}
+	}
+}
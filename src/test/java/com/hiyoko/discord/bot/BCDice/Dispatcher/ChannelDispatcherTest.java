@@ -0,0 +1,133 @@
+package com.hiyoko.discord.bot.BCDice.Dispatcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class ChannelDispatcherTest extends TestCase {
+
+	public void testOrderInChannel() throws InterruptedException {
+		RollExecutor executor = new RollExecutor(8, 1000, false);
+		ChannelDispatcher dispatcher = new ChannelDispatcher(executor);
+		int channels = 10;
+		int messages = 50;
+		List<List<Integer>> results = new ArrayList<List<Integer>>();
+		CountDownLatch latch = new CountDownLatch(channels * messages);
+		for(int c = 0; c < channels; c++) {
+			results.add(Collections.synchronizedList(new ArrayList<Integer>()));
+		}
+		for(int i = 0; i < messages; i++) {
+			for(int c = 0; c < channels; c++) {
+				List<Integer> result = results.get(c);
+				int value = i;
+				dispatcher.dispatch("channel" + c, () -> {
+					if(value % 7 == 0) {
+						try { Thread.sleep(1); } catch (InterruptedException e) { /* ignore */ }
+					}
+					result.add(value);
+					latch.countDown();
+				});
+			}
+		}
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		for(List<Integer> result : results) {
+			assertEquals(messages, result.size());
+			for(int i = 0; i < messages; i++) {
+				assertEquals(Integer.valueOf(i), result.get(i));
+			}
+		}
+		executor.shutdown();
+	}
+
+	public void testChannelsRunInParallel() throws InterruptedException {
+		RollExecutor executor = new RollExecutor(2, 10, false);
+		ChannelDispatcher dispatcher = new ChannelDispatcher(executor);
+		CountDownLatch blocked = new CountDownLatch(1);
+		CountDownLatch otherChannel = new CountDownLatch(1);
+		dispatcher.dispatch("slow", () -> {
+			try { blocked.await(5, TimeUnit.SECONDS); } catch (InterruptedException e) { /* ignore */ }
+		});
+		dispatcher.dispatch("fast", () -> otherChannel.countDown());
+		assertTrue(otherChannel.await(5, TimeUnit.SECONDS));
+		blocked.countDown();
+		executor.shutdown();
+	}
+
+	public void testIdleMailboxIsReclaimed() throws InterruptedException {
+		RollExecutor executor = new RollExecutor(2, 10, false);
+		ChannelDispatcher dispatcher = new ChannelDispatcher(executor);
+		CountDownLatch latch = new CountDownLatch(3);
+		dispatcher.dispatch("a", () -> latch.countDown());
+		dispatcher.dispatch("a", () -> latch.countDown());
+		dispatcher.dispatch("b", () -> latch.countDown());
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		for(int i = 0; i < 100 && dispatcher.getActiveChannelCount() > 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, dispatcher.getActiveChannelCount());
+		assertEquals(0, dispatcher.getPendingCount());
+		executor.shutdown();
+	}
+
+	public void testRejectWhenFull() throws InterruptedException {
+		RollExecutor executor = new RollExecutor(1, 10, false);
+		ChannelDispatcher dispatcher = new ChannelDispatcher(executor, 2);
+		CountDownLatch blocked = new CountDownLatch(1);
+		dispatcher.dispatch("a", () -> {
+			try { blocked.await(5, TimeUnit.SECONDS); } catch (InterruptedException e) { /* ignore */ }
+		});
+		dispatcher.dispatch("a", () -> {});
+		try {
+			dispatcher.dispatch("b", () -> {});
+			fail("The third message should be rejected");
+		} catch (RejectedExecutionException e) {
+			// Expected
+		}
+		assertEquals(1, dispatcher.getRejectedCount());
+		blocked.countDown();
+		executor.shutdown();
+	}
+
+	public void testRejectedHandoffIsRetriedOnWorker() throws InterruptedException {
+		ChannelDispatcher[] dispatcher = {null};
+		List<Integer> result = Collections.synchronizedList(new ArrayList<Integer>());
+		List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+		CountDownLatch latch = new CountDownLatch(2);
+		RollExecutor executor = new RollExecutor(1, 10, false) {
+			private boolean first = true;
+
+			@Override
+			public void execute(Runnable task) {
+				if(first) {
+					// Another message arrives before the first hand-off, which the executor rejects
+					first = false;
+					dispatcher[0].dispatch("a", () -> {
+						result.add(2);
+						threads.add(Thread.currentThread());
+						latch.countDown();
+					});
+					throw new RejectedExecutionException("full");
+				}
+				super.execute(task);
+			}
+		};
+		dispatcher[0] = new ChannelDispatcher(executor);
+		dispatcher[0].dispatch("a", () -> {
+			result.add(1);
+			threads.add(Thread.currentThread());
+			latch.countDown();
+		});
+		assertTrue(result.isEmpty());
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(1, 2), result);
+		assertFalse(threads.contains(Thread.currentThread()));
+		assertEquals(0, dispatcher[0].getRejectedCount());
+		executor.shutdown();
+	}
+}
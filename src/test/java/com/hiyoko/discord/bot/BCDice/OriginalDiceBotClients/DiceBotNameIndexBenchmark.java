@@ -0,0 +1,79 @@
+package com.hiyoko.discord.bot.BCDice.OriginalDiceBotClients;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Table name lookup of a message with the linear scan and with the trie.
+ * <p>
+ * Run: mvn test-compile exec:java -Dexec.mainClass=com.hiyoko.discord.bot.BCDice.OriginalDiceBotClients.DiceBotNameIndexBenchmark -Dexec.classpathScope=test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiceBotNameIndexBenchmark {
+	@Param({"10", "100", "10000"})
+	public int tables;
+
+	private List<String> names;
+	private DiceBotNameIndex index;
+	private String[] messages;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(13);
+		names = DiceBotNameIndexTest.randomNames(tables, random);
+		index = new DiceBotNameIndex(names);
+		List<String> list = new ArrayList<String>();
+		for(int i = 0; i < 10; i++) {
+			list.add(names.get(random.nextInt(names.size())) + " 2d6");
+		}
+		list.add("2d6");
+		list.add("こんにちは");
+		messages = list.toArray(new String[0]);
+		for(String message : messages) {
+			if(! DiceBotNameIndexTest.scan(names, message).equals(index.findLongestPrefix(message))) {
+				throw new IllegalStateException("Different result: " + message);
+			}
+		}
+	}
+
+	@Benchmark
+	public void scan(Blackhole blackhole) {
+		for(String message : messages) {
+			blackhole.consume(DiceBotNameIndexTest.scan(names, message));
+		}
+	}
+
+	@Benchmark
+	public void trie(Blackhole blackhole) {
+		for(String message : messages) {
+			blackhole.consume(index.findLongestPrefix(message));
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(DiceBotNameIndexBenchmark.class.getSimpleName()).build()).run();
+	}
+}
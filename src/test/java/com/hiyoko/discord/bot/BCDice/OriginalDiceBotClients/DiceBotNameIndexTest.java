@@ -0,0 +1,66 @@
+package com.hiyoko.discord.bot.BCDice.OriginalDiceBotClients;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class DiceBotNameIndexTest extends TestCase {
+	/**
+	 * @return random table names, sorted by length like OriginalDiceBotClient#getRawDiceBotList
+	 */
+	static List<String> randomNames(int count, Random random) {
+		String alphabet = "abc表ダイスボット-1";
+		List<String> result = new ArrayList<String>();
+		while(result.size() < count) {
+			StringBuilder sb = new StringBuilder();
+			for(int i = random.nextInt(12); i >= 0; i--) {
+				sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			if(! result.contains(sb.toString())) {
+				result.add(sb.toString());
+			}
+		}
+		result.sort((a, b)-> b.length() - a.length());
+		return result;
+	}
+
+	/**
+	 * The lookup before the index
+	 */
+	static String scan(List<String> names, String input) {
+		for(String name : names) {
+			if(input.startsWith(name)) {return name;}
+		}
+		return "";
+	}
+
+	public void testLongestPrefix() {
+		DiceBotNameIndex index = new DiceBotNameIndex(Arrays.asList("neko", "nekonbu", "表"));
+		assertEquals("nekonbu", index.findLongestPrefix("nekonbu 2"));
+		assertEquals("neko", index.findLongestPrefix("nekonb"));
+		assertEquals("表", index.findLongestPrefix("表表"));
+		assertEquals("", index.findLongestPrefix("nek"));
+		assertEquals("", index.findLongestPrefix(""));
+		assertTrue(index.contains("neko"));
+		assertFalse(index.contains("nek"));
+		assertFalse(index.contains("nekon"));
+		assertEquals(Arrays.asList("neko", "nekonbu", "表"), index.getNames());
+	}
+
+	public void testSameResultAsScan() {
+		Random random = new Random(13);
+		List<String> names = randomNames(300, random);
+		DiceBotNameIndex index = new DiceBotNameIndex(names);
+		List<String> inputs = randomNames(3000, random);
+		for(String name : names) {
+			inputs.add(name);
+			inputs.add(name + " 2d6");
+		}
+		for(String input : inputs) {
+			assertEquals(input, scan(names, input), index.findLongestPrefix(input));
+		}
+	}
+}
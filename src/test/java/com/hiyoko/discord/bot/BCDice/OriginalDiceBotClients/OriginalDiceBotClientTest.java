@@ -0,0 +1,180 @@
+package com.hiyoko.discord.bot.BCDice.OriginalDiceBotClients;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import com.hiyoko.discord.bot.BCDice.TempDirectory;
+import com.hiyoko.discord.bot.BCDice.dto.OriginalDiceBotTable;
+
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.TestCase;
+
+public class OriginalDiceBotClientTest extends TestCase {
+	private final List<OriginalDiceBotClient> clients = new ArrayList<OriginalDiceBotClient>();
+	private File directory;
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = TempDirectory.create("originalDiceBots");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		clients.forEach(OriginalDiceBotClient::close);
+		TempDirectory.delete(directory);
+	}
+
+	private OriginalDiceBotClient newClient() {
+		OriginalDiceBotClient client = new OriginalDiceBotClient(directory.getPath());
+		clients.add(client);
+		return client;
+	}
+
+	private void write(String name, String body) throws IOException {
+		Files.write(new File(directory, name).toPath(), body.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void waitFor(OriginalDiceBotClient client, String name, boolean exists) throws InterruptedException {
+		for(int i = 0; i < 100 && client.getDiceBotList().contains(name) != exists; i++) {
+			Thread.sleep(50);
+		}
+	}
+
+	public void testTableIsCached() throws IOException {
+		write("table", "1d2\n1:a\n2:b");
+		OriginalDiceBotClient client = newClient();
+		OriginalDiceBotTable first = client.getDiceBot("table");
+		assertSame(first, client.getDiceBot("table"));
+		assertEquals("table\n1d2\n1:a\n2:b", first.toString());
+	}
+
+	public void testModifiedFileIsReadAgain() throws IOException {
+		write("table", "1d2\n1:a\n2:b");
+		OriginalDiceBotClient client = newClient();
+		OriginalDiceBotTable first = client.getDiceBot("table");
+		write("table", "1d2\n1:c\n2:d");
+		new File(directory, "table").setLastModified(System.currentTimeMillis() + 10000);
+		assertEquals("table\n1d2\n1:c\n2:d", client.getDiceBot("table").toString());
+		assertNotSame(first, client.getDiceBot("table"));
+	}
+
+	public void testFilesChangedByHand() throws IOException, InterruptedException {
+		OriginalDiceBotClient client = newClient();
+		write("added", "1d2\n1:a\n2:b");
+		waitFor(client, "added", true);
+		assertEquals("added", client.getDiceBot("added").getName());
+		new File(directory, "added").delete();
+		waitFor(client, "added", false);
+		try {
+			client.getDiceBot("added");
+			fail("IOException should be thrown");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("見つかりませんでした"));
+		}
+	}
+
+	public void testFilesChangedAfterClose() throws IOException {
+		OriginalDiceBotClient client = newClient();
+		client.close();
+		write("added", "1d2\n1:a\n2:b");
+		directory.setLastModified(System.currentTimeMillis() + 10000);
+		assertEquals("added", client.findDiceBot("added 1"));
+		assertEquals("added", client.getDiceBot("added").getName());
+		new File(directory, "added").delete();
+		directory.setLastModified(System.currentTimeMillis() + 20000);
+		assertFalse(client.getDiceBotList().contains("added"));
+	}
+
+	public void testLocalRollSelection() throws IOException {
+		OriginalDiceBotClient client = newClient();
+		client.setLocalTables(null);
+		assertFalse(client.isLocalRoll("table"));
+		client.setLocalTables("all");
+		assertTrue(client.isLocalRoll("table"));
+		client.setLocalTables("table, other");
+		assertTrue(client.isLocalRoll("table"));
+		assertTrue(client.isLocalRoll("other"));
+		assertFalse(client.isLocalRoll("another"));
+	}
+
+	private URL serve(HttpServer server, String path, byte[] body) throws IOException {
+		server.createContext(path, exchange -> {
+			exchange.sendResponseHeaders(200, 0);
+			try (OutputStream output = exchange.getResponseBody()) {
+				output.write(body);
+			}
+		});
+		return new URL(String.format("http://127.0.0.1:%s%s", server.getAddress().getPort(), path));
+	}
+
+	public void testRegisterDiceBot() throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.start();
+		try {
+			OriginalDiceBotClient client = newClient();
+			client.registerDiceBot(serve(server, "/table.txt", "1d2\r\n1:a\r\n2:b\r\n".getBytes(StandardCharsets.UTF_8)), "table");
+			assertEquals(Arrays.asList("table"), client.getDiceBotList());
+			assertEquals("table\n1d2\n1:a\n2:b", client.getDiceBot("table").toString());
+
+			byte[] large = new byte[11 * 1024 * 1024];
+			Arrays.fill(large, (byte) '1');
+			assertRegisterFails(client, serve(server, "/large.txt", large), "large", "大きすぎます");
+			assertRegisterFails(client, serve(server, "/binary.txt", new byte[] {(byte) 0xff, (byte) 0xfe, 0}), "binary", "UTF-8");
+			assertRegisterFails(client, serve(server, "/text.txt", "hello".getBytes(StandardCharsets.UTF_8)), "text", "数字:結果");
+			assertRegisterFails(client, serve(server, "/path.txt", "1d1\n1:a".getBytes(StandardCharsets.UTF_8)), "../path", "使えません");
+			assertEquals(Arrays.asList("table"), client.getRawDiceBotList());
+			assertEquals(1, directory.listFiles().length);
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	public void testRegisterChecksEachLine() throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.start();
+		try {
+			OriginalDiceBotClient client = newClient();
+			client.registerDiceBot(serve(server, "/help.txt", "表\n2d6\n2:a\n\n12:b\n説明です".getBytes(StandardCharsets.UTF_8)), "help");
+			client.registerDiceBot(serve(server, "/blank.txt", "1d2\r\n1:a\r\n2:b\r\n説明です\r\n\r\n".getBytes(StandardCharsets.UTF_8)), "blank");
+			client.registerDiceBot(serve(server, "/d66.txt", "D66\n11:a\n66:b".getBytes(StandardCharsets.UTF_8)), "d66");
+			assertRegisterFails(client, serve(server, "/range.txt", "2d6\n1:a\n2:b".getBytes(StandardCharsets.UTF_8)), "range", "2 行目");
+			assertRegisterFails(client, serve(server, "/d66range.txt", "D66\n11:a\n17:b".getBytes(StandardCharsets.UTF_8)), "d66range", "3 行目");
+			assertRegisterFails(client, serve(server, "/middle.txt", "1d2\n1:a\nbroken\n2:b".getBytes(StandardCharsets.UTF_8)), "middle", "3 行目");
+			assertRegisterFails(client, serve(server, "/command.txt", "表\nhello\n1:a".getBytes(StandardCharsets.UTF_8)), "command", "2 行目");
+			assertRegisterFails(client, serve(server, "/huge.txt", "1d2\n99999999999:a".getBytes(StandardCharsets.UTF_8)), "huge", "2 行目");
+			assertEquals(new HashSet<String>(Arrays.asList("blank", "d66", "help")), new HashSet<String>(client.getRawDiceBotList()));
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	public void testWatcherIsSharedPerDirectory() {
+		OriginalDiceBotClient first = newClient();
+		OriginalDiceBotClient second = new OriginalDiceBotClient(directory.getPath() + "/.");
+		assertTrue(DiceBotDirectoryWatcher.isWatched(directory.toPath()));
+		first.close();
+		assertTrue(DiceBotDirectoryWatcher.isWatched(directory.toPath()));
+		second.close();
+		second.close();
+		assertFalse(DiceBotDirectoryWatcher.isWatched(directory.toPath()));
+	}
+
+	private void assertRegisterFails(OriginalDiceBotClient client, URL url, String name, String message) {
+		try {
+			client.registerDiceBot(url, name);
+			fail("IOException should be thrown");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(message));
+		}
+	}
+}
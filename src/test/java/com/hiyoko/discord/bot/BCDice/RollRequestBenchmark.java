@@ -0,0 +1,121 @@
+package com.hiyoko.discord.bot.BCDice;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Parsing a message with the steps of the former BCDiceCLI.rolls (regular expressions, replaceFirst, String.format and
+ * the table lookup for each form) and with RollRequest. Run with -prof gc to see the allocation per message.
+ * With "/r", it is put before the messages except the chat message "おはようございます", which is then rejected at once.
+ * <p>
+ * Run: mvn test-compile exec:java -Dexec.mainClass=com.hiyoko.discord.bot.BCDice.RollRequestBenchmark -Dexec.classpathScope=test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RollRequestBenchmark {
+	private static final Pattern MULTIROLL_OFFICIAL_PREFIX = Pattern.compile("^(x|rep|repeat)(\\d+)");
+	private static final Pattern MULTIROLL_NUM_PREFIX = Pattern.compile("^(\\d+) ");
+	private static final String MULTIROLL_TEXT_PREFIX_STR = "^\\[(.+)\\] ";
+	private static final Pattern MULTIROLL_TEXT_PREFIX = Pattern.compile(MULTIROLL_TEXT_PREFIX_STR);
+	private static final Function<String, String> TABLES = RollRequestTest.TABLES;
+	private static final String CHAT = "おはようございます";
+
+	@Param({"", "/r"})
+	public String rollCommand;
+
+	@Param({"2d6", "3 夜食表", "[PC1,PC2,PC3] CCB<=70", CHAT})
+	public String message;
+
+	private String rawMessage;
+
+	@Setup
+	public void setUp() {
+		rawMessage = (rollCommand.isEmpty() || message.equals(CHAT)) ? message : rollCommand + " " + message;
+	}
+
+	private String isOriginalDicebot(String rawInput) {
+		if(! (rollCommand.isEmpty() || rawInput.startsWith(rollCommand))) {
+			return "";
+		}
+		return TABLES.apply(removeRollCommand(rawInput, rollCommand).trim());
+	}
+
+	/**
+	 * Remove the first occurrence of the roll command as a plain string, as the former replaceFirst did.
+	 */
+	private static String removeRollCommand(String input, String rollCommand) {
+		int index = rollCommand.isEmpty() ? -1 : input.indexOf(rollCommand);
+		if(index < 0) {
+			return input;
+		}
+		return input.substring(0, index) + input.substring(index + rollCommand.length());
+	}
+
+	@Benchmark
+	public String regex() {
+		String rawInput = rawMessage;
+		if(! (rollCommand.isEmpty() || rawInput.trim().startsWith(rollCommand))) {
+			return null;
+		}
+		rawInput = rawInput.replaceAll("\\h", " ");
+		String input = removeRollCommand(rawInput, rollCommand).trim();
+		Matcher isOfficialMultiRollMatcher = MULTIROLL_OFFICIAL_PREFIX.matcher(input);
+		if(isOfficialMultiRollMatcher.find()) {
+			String withoutRepeat = input.replaceFirst(isOfficialMultiRollMatcher.group(), "").trim();
+			String originalDiceBot = isOriginalDicebot(String.format("%s%s", rollCommand, withoutRepeat));
+			if(! originalDiceBot.isEmpty()) {
+				return originalDiceBot;
+			}
+		}
+		Matcher isNumMatcher = MULTIROLL_NUM_PREFIX.matcher(input);
+		if(isNumMatcher.find()) {
+			String rawCount = isNumMatcher.group(1);
+			String withoutRepeat = input.replaceFirst(rawCount, "").trim();
+			String originalDiceBot = isOriginalDicebot(String.format("%s%s", rollCommand, withoutRepeat));
+			if(! originalDiceBot.isEmpty()) {
+				return originalDiceBot;
+			} else {
+				rawInput = String.format("%s repeat%s %s", rollCommand, rawCount, withoutRepeat).trim();
+			}
+		}
+		Matcher isTextMatcher = MULTIROLL_TEXT_PREFIX.matcher(input);
+		if(isTextMatcher.find()) {
+			String[] targetList = isTextMatcher.group(1).split(",");
+			String requiredCommand = String.format("%s%s" , rollCommand, input.replaceFirst(MULTIROLL_TEXT_PREFIX_STR, "").trim());
+			String originalDiceBot = isOriginalDicebot(requiredCommand);
+			return originalDiceBot.isEmpty() ? targetList[0] + requiredCommand : originalDiceBot;
+		}
+		String originalDiceBot = isOriginalDicebot(rawInput);
+		return originalDiceBot.isEmpty() ? removeRollCommand(rawInput, rollCommand).trim() : originalDiceBot;
+	}
+
+	@Benchmark
+	public RollRequest singlePass() {
+		return RollRequest.parse(rawMessage, rollCommand, TABLES);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(RollRequestBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,127 @@
+package com.hiyoko.discord.bot.BCDice;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.hiyoko.discord.bot.BCDice.OriginalDiceBotClients.DiceBotNameIndex;
+
+import junit.framework.TestCase;
+
+public class RollRequestTest extends TestCase {
+	private static final Pattern MULTIROLL_OFFICIAL_PREFIX = Pattern.compile("^(x|rep|repeat)(\\d+)");
+	private static final Pattern MULTIROLL_NUM_PREFIX = Pattern.compile("^(\\d+) ");
+	private static final String MULTIROLL_TEXT_PREFIX_STR = "^\\[(.+)\\] ";
+	private static final Pattern MULTIROLL_TEXT_PREFIX = Pattern.compile(MULTIROLL_TEXT_PREFIX_STR);
+	static final Function<String, String> TABLES = new DiceBotNameIndex(Arrays.asList("夜食表", "夜食表2", "x3", "choice"))::findLongestPrefix;
+	private static final String[] HEADS = {"", "", "x", "rep", "repeat", "3 ", "12", "[A,B] ", "[", "/r", "/r ", " /r x"};
+	private static final char[] ALPHABET = {
+			'x', 'r', 'e', 'p', 'a', 't', '0', '3', '9', ' ', ' ', ' ', '\t', '\n', ' ', '[', ']', ']', ',', ',',
+			'A', '夜', '食', '表', '2', 'd', '6', '/'};
+
+	/**
+	 * The steps of the former BCDiceCLI.rolls, except that a count too large for int is not a repeat.
+	 * @return the request as RollRequest#toString, or null
+	 */
+	static String legacy(String rawInput, String rollCommand, Function<String, String> tableFinder) {
+		if(! (rollCommand.isEmpty() || rawInput.trim().startsWith(rollCommand))) {
+			return null;
+		}
+		rawInput = rawInput.replaceAll("\\h", " ");
+		String input = rawInput.replaceFirst(Pattern.quote(rollCommand), "").trim();
+
+		Matcher isOfficialMultiRollMatcher = MULTIROLL_OFFICIAL_PREFIX.matcher(input);
+		if(isOfficialMultiRollMatcher.find() && isInt(isOfficialMultiRollMatcher.group(2))) {
+			String withoutRepeat = input.replaceFirst(isOfficialMultiRollMatcher.group(), "").trim();
+			String table = tableFinder.apply(withoutRepeat);
+			int times = Integer.parseInt(isOfficialMultiRollMatcher.group(2));
+			if(table.isEmpty()) {
+				table = tableFinder.apply(input);
+				times = table.isEmpty() ? times : 1;
+			}
+			return String.format("%s%s x%s %s table:[%s] %s", rollCommand, RollRequest.Type.REPEAT, times, "[]", table, input);
+		}
+
+		Matcher isNumMatcher = MULTIROLL_NUM_PREFIX.matcher(input);
+		if(isNumMatcher.find() && isInt(isNumMatcher.group(1))) {
+			String rawCount = isNumMatcher.group(1);
+			String withoutRepeat = input.replaceFirst(rawCount, "").trim();
+			String table = tableFinder.apply(withoutRepeat);
+			int times = Integer.parseInt(rawCount);
+			String command = String.format("%s repeat%s %s", rollCommand, rawCount, withoutRepeat).trim().replaceFirst(Pattern.quote(rollCommand), "").trim();
+			if(table.isEmpty()) {
+				table = tableFinder.apply(command);
+				times = table.isEmpty() ? times : 1;
+			}
+			return String.format("%s%s x%s %s table:[%s] %s", rollCommand, RollRequest.Type.REPEAT, times, "[]", table, command);
+		}
+		Matcher isTextMatcher = MULTIROLL_TEXT_PREFIX.matcher(input);
+		if(isTextMatcher.find()) {
+			String[] targetList = isTextMatcher.group(1).split(",");
+			String command = input.replaceFirst(MULTIROLL_TEXT_PREFIX_STR, "").trim();
+			return String.format("%s%s x%s %s table:[%s] %s", rollCommand, RollRequest.Type.TARGETS, 1,
+					Arrays.asList(targetList), tableFinder.apply(command), command);
+		}
+		return String.format("%s%s x%s %s table:[%s] %s", rollCommand, RollRequest.Type.PLAIN, 1, "[]", tableFinder.apply(input), input);
+	}
+
+	private static boolean isInt(String digits) {
+		try {
+			Integer.parseInt(digits);
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private static String randomMessage(Random random) {
+		StringBuilder message = new StringBuilder(HEADS[random.nextInt(HEADS.length)]);
+		int length = random.nextInt(12);
+		for(int i = 0; i < length; i++) {
+			message.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+		}
+		return message.toString();
+	}
+
+	public void testParse() {
+		RollRequest request = RollRequest.parse("/r 3 夜食表", "/r", TABLES);
+		assertEquals(RollRequest.Type.REPEAT, request.getType());
+		assertEquals(3, request.getRepeatCount());
+		assertEquals("夜食表", request.getTable());
+		assertEquals("repeat3 夜食表", request.getCommand());
+
+		request = RollRequest.parse("[PC1,PC2] CCB <= 70", "", TABLES);
+		assertEquals(RollRequest.Type.TARGETS, request.getType());
+		assertEquals(Arrays.asList("PC1", "PC2"), request.getTargets());
+		assertEquals("", request.getTable());
+		assertEquals("CCB%3C%3D70", request.getNormalizedCommand());
+
+		request = RollRequest.parse("x99999999999 2d6", "", TABLES);
+		assertEquals(RollRequest.Type.PLAIN, request.getType());
+		assertEquals("x99999999999 2d6", request.getCommand());
+
+		assertNull(RollRequest.parse("おはようございます", "/r", TABLES));
+	}
+
+	public void testParsePlain() {
+		RollRequest request = RollRequest.parsePlain(" /r\u3000x3 2d6 ", "/r", TABLES);
+		assertEquals(RollRequest.Type.PLAIN, request.getType());
+		assertEquals(1, request.getRepeatCount());
+		assertEquals("x3 2d6", request.getCommand());
+		assertEquals("x3", request.getTable());
+		assertEquals("夜食表", RollRequest.parsePlain("夜食表", "", TABLES).getTable());
+		assertNull(RollRequest.parsePlain("2d6", "/r", TABLES));
+	}
+
+	public void testSameAsLegacy() {
+		Random random = new Random(25);
+		for(int i = 0; i < 200000; i++) {
+			String message = randomMessage(random);
+			String rollCommand = random.nextBoolean() ? "" : "/r";
+			RollRequest request = RollRequest.parse(message, rollCommand, TABLES);
+			assertEquals(message, legacy(message, rollCommand, TABLES), (request == null) ? null : request.toString());
+		}
+	}
+}
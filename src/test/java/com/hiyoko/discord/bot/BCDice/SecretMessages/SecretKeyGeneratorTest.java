@@ -0,0 +1,31 @@
+package com.hiyoko.discord.bot.BCDice.SecretMessages;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class SecretKeyGeneratorTest extends TestCase {
+	public void testUnique() {
+		SecretKeyGenerator generator = new SecretKeyGenerator();
+		Set<String> keys = new HashSet<String>();
+		for(int i = 0; i < 100000; i++) {
+			String key = generator.next();
+			assertTrue(key, key.matches("[0-9a-hjkmnp-tv-z]{9,}"));
+			assertTrue(key, keys.add(key));
+		}
+		assertTrue(generator.next().length() <= 12);
+	}
+
+	public void testRandom() {
+		String first = new SecretKeyGenerator().next();
+		String second = new SecretKeyGenerator().next();
+		// Same counter, so only the random part can differ
+		assertFalse(first.equals(second));
+	}
+
+	public void testNormalize() {
+		assertEquals("k3q9z0cw1", SecretKeyGenerator.normalize(" K3Q9Z0CW1 "));
+		assertEquals("1234567890", SecretKeyGenerator.normalize("1234567890"));
+	}
+}
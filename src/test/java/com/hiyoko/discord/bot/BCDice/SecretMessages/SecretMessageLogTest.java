@@ -0,0 +1,121 @@
+package com.hiyoko.discord.bot.BCDice.SecretMessages;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.hiyoko.discord.bot.BCDice.TempDirectory;
+import com.hiyoko.discord.bot.BCDice.dto.SecretMessage;
+
+import junit.framework.TestCase;
+
+public class SecretMessageLogTest extends TestCase {
+	private final List<SecretMessageLog> logs = new ArrayList<SecretMessageLog>();
+	private File directory;
+	private File file;
+
+	@Override
+	protected void setUp() throws IOException {
+		directory = TempDirectory.create("secret-log");
+		file = new File(directory, "secret.log");
+	}
+
+	@Override
+	protected void tearDown() throws IOException, InterruptedException {
+		for(SecretMessageLog log : logs) {
+			log.close();
+		}
+		TempDirectory.delete(directory);
+	}
+
+	private SecretMessageLog newLog() {
+		SecretMessageLog log = new SecretMessageLog(file.getPath());
+		logs.add(log);
+		return log;
+	}
+
+	public void testReplay() throws IOException, InterruptedException {
+		SecretMessageLog log = newLog();
+		assertEquals(0, log.open().size());
+		log.append("user", "100", new SecretMessage(Arrays.asList("1行目", "2行目"), 100));
+		log.append("other", "200", new SecretMessage(Arrays.asList("x"), 200));
+		log.flush();
+
+		List<SecretMessageLog.Record> records = newLog().open();
+		assertEquals(2, records.size());
+		assertEquals("user", records.get(0).userId);
+		assertEquals("100", records.get(0).key);
+		assertEquals(Arrays.asList("1行目", "2行目"), records.get(0).message.getMessages());
+		assertEquals(200, records.get(1).message.getLimit());
+	}
+
+	public void testBrokenTail() throws IOException, InterruptedException {
+		SecretMessageLog log = newLog();
+		log.open();
+		log.append("user", "100", new SecretMessage(Arrays.asList("a"), 100));
+		log.append("user", "200", new SecretMessage(Arrays.asList("b"), 200));
+		log.flush();
+		long length = file.length();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(length - 3);
+		}
+
+		SecretMessageLog reopened = newLog();
+		assertEquals(1, reopened.open().size());
+		assertTrue(file.length() < length - 3);
+		reopened.append("user", "300", new SecretMessage(Arrays.asList("c"), 300));
+		reopened.flush();
+		List<SecretMessageLog.Record> records = newLog().open();
+		assertEquals(2, records.size());
+		assertEquals("300", records.get(1).key);
+	}
+
+	public void testCompaction() throws IOException, InterruptedException {
+		SecretMessageLog log = newLog();
+		log.open();
+		for(int i = 0; i < 10; i++) {
+			log.append("user", String.valueOf(i), new SecretMessage(Arrays.asList(String.valueOf(i)), i));
+		}
+		SecretMessageLog.Record live = new SecretMessageLog.Record("user", "9", new SecretMessage(Arrays.asList("9"), 9));
+		log.compact(Arrays.asList(live));
+		log.append("user", "10", new SecretMessage(Arrays.asList("10"), 10));
+		log.flush();
+		assertEquals(2, log.getRecordCount());
+
+		List<SecretMessageLog.Record> records = newLog().open();
+		assertEquals(2, records.size());
+		assertEquals("9", records.get(0).key);
+		assertEquals("10", records.get(1).key);
+		assertEquals(1, directory.listFiles().length);
+	}
+
+	public void testClose() throws IOException, InterruptedException {
+		SecretMessageLog log = newLog();
+		log.open();
+		log.append("user", "100", new SecretMessage(Arrays.asList("a"), 100));
+		log.close();
+		log.close();
+		assertEquals(1, newLog().open().size());
+	}
+
+	public void testStoreRestart() throws IOException, InterruptedException {
+		AtomicLong now = new AtomicLong(1000000);
+		SecretMessageLog log = newLog();
+		SecretMessageStore store = new SecretMessageStore(now::get, 100, 100, log);
+		String first = store.save("user", Arrays.asList("a"));
+		now.addAndGet(TimeUnit.DAYS.toMillis(1));
+		String second = store.save("user", Arrays.asList("b"));
+		log.flush();
+
+		now.addAndGet(TimeUnit.DAYS.toMillis(2) + 1);
+		SecretMessageStore restarted = new SecretMessageStore(now::get, 100, 100, newLog());
+		assertEquals(1, restarted.size());
+		assertNull(restarted.get("user", first));
+		assertEquals(Arrays.asList("b"), restarted.get("user", second).getMessages());
+	}
+}
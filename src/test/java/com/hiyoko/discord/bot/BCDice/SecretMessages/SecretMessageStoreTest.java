@@ -0,0 +1,90 @@
+package com.hiyoko.discord.bot.BCDice.SecretMessages;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+public class SecretMessageStoreTest extends TestCase {
+	private final AtomicLong now = new AtomicLong(1000000);
+
+	public void testExpiry() {
+		SecretMessageStore store = new SecretMessageStore(now::get, 100, 100);
+		String first = store.save("user", Arrays.asList("a"));
+		now.addAndGet(TimeUnit.DAYS.toMillis(1));
+		String second = store.save("user", Arrays.asList("b"));
+		assertEquals(Arrays.asList("a"), store.get("user", first).getMessages());
+		assertNull(store.get("other", first));
+
+		now.addAndGet(TimeUnit.DAYS.toMillis(2) + 1);
+		assertNull(store.get("user", first));
+		assertEquals(Arrays.asList("user/" + first), store.removeExpired());
+		assertEquals(1, store.size());
+		assertEquals(Arrays.asList("b"), store.get("user", second).getMessages());
+		assertTrue(store.getMetrics().get(0).contains("expired: 1"));
+	}
+
+	public void testSameKey() {
+		SecretMessageStore store = new SecretMessageStore(now::get, 100, 100);
+		String first = store.save("user", Arrays.asList("a"));
+		String second = store.save("user", Arrays.asList("b"));
+		assertFalse(first.equals(second));
+		assertEquals(Arrays.asList("b"), store.get("user", second).getMessages());
+		assertEquals(Arrays.asList("a"), store.get("user", first.toUpperCase()).getMessages());
+	}
+
+	public void testCapacity() {
+		SecretMessageStore store = new SecretMessageStore(now::get, 3, 5);
+		List<String> keys = new ArrayList<String>();
+		for(int i = 0; i < 4; i++) {
+			now.incrementAndGet();
+			keys.add(store.save("user", Arrays.asList(String.valueOf(i))));
+		}
+		assertNull(store.get("user", keys.get(0)));
+		assertNotNull(store.get("user", keys.get(1)));
+		assertEquals(3, store.size());
+
+		now.incrementAndGet();
+		String other = store.save("other", Arrays.asList("x"));
+		now.incrementAndGet();
+		store.save("another", Arrays.asList("y"));
+		now.incrementAndGet();
+		store.save("another", Arrays.asList("z"));
+		assertEquals(5, store.size());
+		assertNull(store.get("user", keys.get(1)));
+		assertNotNull(store.get("other", other));
+		assertTrue(store.getMetrics().get(0).contains("evicted: 2"));
+	}
+
+	public void testConcurrentAccess() throws Exception {
+		SecretMessageStore store = new SecretMessageStore(now::get, 1000, 100000);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for(int t = 0; t < 8; t++) {
+				String user = "user" + t;
+				futures.add(executor.submit(() -> {
+					for(int i = 0; i < 1000; i++) {
+						String key = store.save(user, Arrays.asList(String.valueOf(i)));
+						assertEquals(Arrays.asList(String.valueOf(i)), store.get(user, key).getMessages());
+						if(i % 100 == 0) {
+							store.removeExpired();
+						}
+					}
+				}));
+			}
+			for(Future<?> future : futures) {
+				future.get();
+			}
+			assertEquals(8000, store.size());
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package com.hiyoko.discord.bot.BCDice;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Temporary directory of the tests which write files.
+ */
+public class TempDirectory {
+	private TempDirectory() {}
+
+	/**
+	 * @param prefix prefix of the directory name
+	 * @return the new empty directory
+	 * @throws IOException
+	 */
+	public static File create(String prefix) throws IOException {
+		return Files.createTempDirectory(prefix).toFile();
+	}
+
+	/**
+	 * Delete the directory with everything in it, also the sub directories.
+	 * @param directory the directory made by create. Nothing is done if it doesn't exist.
+	 * @throws IOException
+	 */
+	public static void delete(File directory) throws IOException {
+		if(directory == null || ! directory.exists()) {
+			return;
+		}
+		List<Path> paths;
+		try (Stream<Path> walk = Files.walk(directory.toPath())) {
+			paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+		}
+		for(Path path : paths) {
+			Files.deleteIfExists(path);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package com.hiyoko.discord.bot.BCDice.dto;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.hiyoko.discord.bot.BCDice.TempDirectory;
+import com.hiyoko.discord.bot.BCDice.OriginalDiceBotClients.OriginalDiceBotClient;
+
+import junit.framework.TestCase;
+
+public class IndexedDiceTableTest extends TestCase {
+	private static final int ROWS = 100000;
+	private final List<OriginalDiceBotClient> clients = new ArrayList<OriginalDiceBotClient>();
+	private File directory;
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = TempDirectory.create("indexedDiceBots");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		clients.forEach(OriginalDiceBotClient::close);
+		TempDirectory.delete(directory);
+	}
+
+	private OriginalDiceBotClient newClient() {
+		OriginalDiceBotClient client = new OriginalDiceBotClient(directory.getPath());
+		clients.add(client);
+		return client;
+	}
+
+	private File writeLargeTable(String name, String header, String suffix) throws IOException {
+		File file = new File(directory, name);
+		try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+			writer.write(header);
+			for(int i = 1; i <= ROWS; i++) {
+				writer.write(String.format("\n%s:結果%s%s", i, i, suffix));
+			}
+			writer.write("\n大きな表です\\n改行");
+		}
+		return file;
+	}
+
+	public void testLargeTable() throws IOException {
+		writeLargeTable("large", "1D100000", "\\nです");
+		OriginalDiceBotClient client = newClient();
+		OriginalDiceBotTable table = client.getDiceBot("large");
+		assertFalse(table.isValid);
+		assertEquals("大きな表です\n改行", table.getHelp());
+		assertEquals("1D100000", table.getCommand());
+		LocalDiceTable local = table.getLocalTable();
+		assertEquals("結果1\nです", local.getText(1));
+		assertEquals("結果54321\nです", local.getText(54321));
+		assertEquals("結果100000\nです", local.getText(100000));
+		assertNull(local.getText(0));
+		assertNull(local.getText(100001));
+		assertTrue(local.roll().matches("(?s)^large\\(\\d+\\) ＞ 結果\\d+\\nです$"));
+		assertEquals("large(777) ＞ 結果777\nです", table.getResultAsInvalidTable("(1D100000) ＞ 777"));
+		assertTrue(new File(directory, ".large.idx").exists());
+		assertEquals(1, client.getDiceBotList().size());
+	}
+
+	public void testIndexIsRebuiltWhenChanged() throws IOException {
+		File source = writeLargeTable("large", "表の名前\n1D100000", "");
+		File index = new File(directory, ".large.idx");
+		LocalDiceTable local = IndexedDiceTable.load(source, index, "large").getLocalTable();
+		assertEquals("結果5", local.getText(5));
+		assertTrue(local.roll().startsWith("表の名前("));
+		long built = index.lastModified();
+		index.setLastModified(built - 10000);
+		IndexedDiceTable.load(source, index, "large");
+		assertEquals(built - 10000, index.lastModified());
+
+		writeLargeTable("large", "1D100000", "!");
+		source.setLastModified(System.currentTimeMillis() + 10000);
+		assertEquals("結果5!", IndexedDiceTable.load(source, index, "large").getLocalTable().getText(5));
+	}
+
+	public void testBrokenIndexIsRebuilt() throws IOException {
+		File source = writeLargeTable("large", "1D100000", "");
+		File index = new File(directory, ".large.idx");
+		IndexedDiceTable.load(source, index, "large");
+		long length = index.length();
+		for(long broken : new long[] {length - 3, 200, 40, 25}) {
+			try (RandomAccessFile raf = new RandomAccessFile(index, "rw")) {
+				raf.setLength(broken);
+			}
+			assertEquals("結果100000", IndexedDiceTable.load(source, index, "large").getLocalTable().getText(100000));
+			assertEquals(length, index.length());
+		}
+	}
+
+	public void testUnsupportedDiceType() throws IOException {
+		File source = writeLargeTable("large", "1D100000+1", "");
+		assertNull(IndexedDiceTable.load(source, new File(directory, ".large.idx"), "large"));
+		OriginalDiceBotClient client = newClient();
+		assertNull(client.getDiceBot("large").getLocalTable());
+	}
+}
@@ -0,0 +1,73 @@
+package com.hiyoko.discord.bot.BCDice.dto;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.hiyoko.discord.bot.BCDice.OriginalDiceBotClients.OriginalDiceBotClient;
+
+import junit.framework.TestCase;
+
+public class LocalDiceTableTest extends TestCase {
+	private Map<Integer, String> rows(int from, int to) {
+		Map<Integer, String> result = new HashMap<Integer, String>();
+		for(int i = from; i <= to; i++) {
+			result.put(i, "v" + i);
+		}
+		return result;
+	}
+
+	public void testSumDiceCoversAllValues() throws IOException {
+		LocalDiceTable table = LocalDiceTable.compile("表", "2d6", rows(2, 12));
+		Set<Integer> values = new HashSet<Integer>();
+		for(int i = 0; i < 2000; i++) {
+			int value = table.rollValue();
+			assertTrue(value >= 2 && value <= 12);
+			values.add(value);
+		}
+		assertEquals(11, values.size());
+		assertTrue(table.roll().matches("^表\\(\\d+\\) ＞ v\\d+$"));
+	}
+
+	public void testD66Order() {
+		LocalDiceTable asc = LocalDiceTable.compile("表", "D66s", rows(11, 66));
+		LocalDiceTable desc = LocalDiceTable.compile("表", "d66d", rows(11, 66));
+		for(int i = 0; i < 500; i++) {
+			int value = asc.rollValue();
+			assertTrue(value / 10 <= value % 10);
+			assertTrue(value % 10 >= 1 && value % 10 <= 6);
+			value = desc.rollValue();
+			assertTrue(value / 10 >= value % 10);
+		}
+	}
+
+	public void testUnsupportedType() {
+		assertNull(LocalDiceTable.compile("表", "2d6+1", rows(3, 13)));
+		assertNull(LocalDiceTable.compile("表", "2d6s", rows(2, 12)));
+		assertNull(LocalDiceTable.compile("表", "100000d100000", rows(2, 12)));
+	}
+
+	public void testMissingValue() {
+		LocalDiceTable table = LocalDiceTable.compile("表", "1d2", rows(1, 1));
+		try {
+			for(int i = 0; i < 200; i++) {
+				table.roll();
+			}
+			fail("IOException should be thrown");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("ダイスの結果が取得できませんでした"));
+		}
+	}
+
+	public void testOriginalTables() throws IOException {
+		OriginalDiceBotClient client = new OriginalDiceBotClient("./testDiceBots");
+		assertEquals("neko(1) ＞ neko", client.getDiceBot("neko").getLocalTable().roll());
+		OriginalDiceBotTable tooLong = client.getDiceBot("サンプルダイスボット-長過ぎる表");
+		assertFalse(tooLong.isValid);
+		assertTrue(tooLong.getLocalTable().roll().startsWith("サンプルダイスボット-長過ぎる表("));
+		LocalDiceTable snack = client.getDiceBot("サンプルダイスボット-夜食表").getLocalTable();
+		assertEquals("寿司\n贅沢かもしれないがたまにはいいよね", snack.getText(2));
+	}
+}